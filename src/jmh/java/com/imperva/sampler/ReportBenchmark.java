@@ -0,0 +1,141 @@
+package com.imperva.sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.imperva.sampler.outputer.FoldedStackSamplingOutputer;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+import com.imperva.sampler.outputer.TextSamplingOutputer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Cost of reporting a frozen interval with a large call tree through the text and folded outputers. **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark
+{
+	@Param({"10", "50"})
+	public int threadGroups;
+
+	@Param({"1000", "10000"})
+	public int stacksPerGroup;
+
+	@Param({"100"})
+	public int stackDepth;
+
+	private SamplingInterval interval;
+	private BlackholeTextSamplingOutputer textOutputer;
+	private FoldedStackSamplingOutputer foldedOutputer;
+	private File foldedFile;
+
+	@Setup
+	public void setup(Blackhole blackhole) throws IOException
+	{
+		FrameTable frameTable = new FrameTable();
+		HashMap<String, ThreadGroupSamples> samplingMap = new HashMap<>();
+		for (int group = 0; group < threadGroups; group++)
+		{
+			ThreadGroupSamples tgs = new ThreadGroupSamples();
+			tgs.threadNamesMap.put((long) group, "group-" + group);
+			tgs.maxDepth = stackDepth;
+			Random random = new Random(group);
+			for (int s = 0; s < stacksPerGroup; s++)
+			{
+				StackTraceElement[] stack = SyntheticThreads.createStack(random, stackDepth);
+				SampleCount count = tgs.callTree;
+				for (int i = stack.length - 1; i >= 0; i--)
+				{
+					count = count.getOrCreateChild(frameTable.getFrameId(stack[i]));
+					count.increment(100L, i == 0, SampleState.RUNNING, 0L);
+				}
+			}
+			samplingMap.put("group-" + group, tgs);
+		}
+		interval = new SamplingInterval(0L, 900000L, samplingMap, frameTable.getFrameTexts());
+
+		textOutputer = new BlackholeTextSamplingOutputer(blackhole);
+		foldedFile = File.createTempFile("report-benchmark", ".folded");
+		foldedOutputer = new FoldedStackSamplingOutputer(foldedFile.getPath());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		foldedOutputer.close();
+		foldedFile.delete();
+	}
+
+	@Benchmark
+	public void reportText() {
+		interval.report(textOutputer, false);
+	}
+
+	@Benchmark
+	public void reportFolded() {
+		interval.report(foldedOutputer, false);
+	}
+
+	private static class BlackholeTextSamplingOutputer extends TextSamplingOutputer
+	{
+		private final Blackhole blackhole;
+
+		BlackholeTextSamplingOutputer(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		protected void beginThreadRecord(String threadTitle) {
+			blackhole.consume(threadTitle);
+		}
+
+		@Override
+		protected void printRecordLine(CharSequence line) {
+			blackhole.consume(line);
+		}
+
+		@Override
+		protected void endThreadRecord() {
+		}
+
+		@Override
+		public void printIntervalTitle(String title) {
+			blackhole.consume(title);
+		}
+
+		@Override
+		public void printThreadRecord(String threadName, String record) {
+			blackhole.consume(record);
+		}
+
+		@Override
+		public void printError(String message, Throwable t) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.imperva.sampler;
+
+import java.util.concurrent.TimeUnit;
+
+import com.imperva.sampler.manipulate.CachingThreadNameManipulator;
+import com.imperva.sampler.manipulate.RegexThreadNameManipulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a single sample of a synthetic thread population: name manipulation, monitored package scan and call tree
+ * aggregation. The population's stacks are captured once, so stack capture cost is excluded.<br>
+ * With several aggregation threads, the sample's snapshots are aggregated in parallel.<br>**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SampleOnceBenchmark
+{
+	@Param({"100", "1000", "5000"})
+	public int threadCount;
+
+	@Param({"20", "100", "300"})
+	public int stackDepth;
+
+	@Param({"com.imperva", "com.imperva,com.mprv,org.hibernate,io.netty,org.springframework"})
+	public String monitoredPackages;
+
+	@Param({"1", "2", "4"})
+	public int aggregationThreads;
+
+	private ThreadsSampler sampler;
+
+	@Setup
+	public void setup()
+	{
+		CachingThreadNameManipulator manipulator = new CachingThreadNameManipulator(new RegexThreadNameManipulator());
+		manipulator.init();
+
+		sampler = new ThreadsSampler();
+		sampler.setMonitoredPackages(monitoredPackages);
+		sampler.setThreadNameManipulator(manipulator);
+		sampler.setStackCapturer(new SyntheticThreads(threadCount, stackDepth));
+		sampler.setReportLockContention(false);
+		sampler.setAggregationThreads(aggregationThreads);
+		sampler.sampleOnce(100L);
+	}
+
+	@Benchmark
+	public void sampleOnce() {
+		sampler.sampleOnce(100L);
+	}
+}
@@ -0,0 +1,78 @@
+package com.imperva.sampler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import com.imperva.sampler.capture.StackCapturer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+
+/**
+ * Synthetic thread population for benchmarks.<br>
+ * Threads are never started. Stacks are built from a fixed pool of frames so threads share prefixes the way
+ * pool threads of a real service do.<br>**/
+public class SyntheticThreads implements StackCapturer
+{
+	private static final String[] THREAD_NAME_PREFIXES = {
+			"http-nio-8080-exec-", "pool-3-thread-", "kafka-consumer-", "grpc-default-executor-", "ForkJoinPool.commonPool-worker-"};
+	private static final String[] CLASS_NAMES = {
+			"org.apache.catalina.core.StandardWrapperValve", "org.apache.tomcat.util.net.NioEndpoint$SocketProcessor",
+			"org.springframework.web.servlet.DispatcherServlet", "org.springframework.aop.framework.ReflectiveMethodInvocation",
+			"io.netty.channel.nio.NioEventLoop", "io.netty.channel.AbstractChannelHandlerContext",
+			"com.fasterxml.jackson.databind.ObjectMapper", "org.hibernate.internal.SessionImpl",
+			"com.imperva.gateway.RequestHandler", "com.imperva.gateway.RuleEngine", "com.imperva.dao.SiteDao",
+			"com.mprv.cache.RegionCache", "java.util.HashMap", "java.util.concurrent.ThreadPoolExecutor"};
+	private static final String[] METHOD_NAMES = {"invoke", "process", "handle", "get", "put", "run", "apply", "execute"};
+	private static final int DISTINCT_STACKS = 64;
+
+	private final List<ThreadSnapshot> snapshots;
+
+	public SyntheticThreads(int threadCount, int stackDepth)
+	{
+		snapshots = new ArrayList<>(threadCount);
+		StackTraceElement[][] stacks = new StackTraceElement[DISTINCT_STACKS][];
+		for (int i = 0; i < DISTINCT_STACKS; i++) {
+			stacks[i] = createStack(new Random(i), stackDepth);
+		}
+
+		Thread.State[] states = {Thread.State.RUNNABLE, Thread.State.RUNNABLE, Thread.State.WAITING, Thread.State.TIMED_WAITING};
+		for (int i = 0; i < threadCount; i++)
+		{
+			Thread thread = new Thread(THREAD_NAME_PREFIXES[i % THREAD_NAME_PREFIXES.length] + i);
+			snapshots.add(new ThreadSnapshot(thread, stacks[i % DISTINCT_STACKS], states[i % states.length]));
+		}
+	}
+
+	/** @return a stack of the given depth, top frame first, rooted at Thread.run(). **/
+	public static StackTraceElement[] createStack(Random random, int stackDepth)
+	{
+		StackTraceElement[] stack = new StackTraceElement[stackDepth];
+		for (int i = 0; i < stackDepth - 1; i++)
+		{
+			String className = CLASS_NAMES[random.nextInt(CLASS_NAMES.length)];
+			stack[i] = new StackTraceElement(className, METHOD_NAMES[random.nextInt(METHOD_NAMES.length)],
+					className.substring(className.lastIndexOf('.') + 1) + ".java", 10 + random.nextInt(500));
+		}
+		stack[stackDepth - 1] = new StackTraceElement("java.lang.Thread", "run", "Thread.java", 834);
+		return stack;
+	}
+
+	public List<Thread> getThreads()
+	{
+		List<Thread> threads = new ArrayList<>(snapshots.size());
+		for (ThreadSnapshot snapshot : snapshots) {
+			threads.add(snapshot.getThread());
+		}
+		return threads;
+	}
+
+	@Override
+	public List<ThreadSnapshot> capture(Collection<Thread> threads) {
+		return snapshots;
+	}
+
+	@Override
+	public void init() {
+	}
+}
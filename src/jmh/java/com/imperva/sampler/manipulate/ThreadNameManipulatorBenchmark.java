@@ -0,0 +1,79 @@
+package com.imperva.sampler.manipulate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.imperva.sampler.SyntheticThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of aggregating one thread's name, per ThreadNameManipulator implementation, including the manipulator's
+ * per-sample work. With the map and tag manipulators all threads but one are untagged lookups.<br>**/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(ThreadNameManipulatorBenchmark.THREAD_COUNT)
+public class ThreadNameManipulatorBenchmark
+{
+	static final int THREAD_COUNT = 1000;
+
+	@Param({"regex", "cachedRegex", "map", "tag"})
+	public String manipulatorType;
+
+	private ThreadNameManipulator manipulator;
+	private Thread[] threads;
+
+	@Setup
+	public void setup()
+	{
+		List<Thread> threadList = new SyntheticThreads(THREAD_COUNT, 2).getThreads();
+		threads = threadList.toArray(new Thread[0]);
+
+		switch (manipulatorType) {
+			case "map":
+				// Only the benchmark thread can map itself. The other lookups miss, as most threads of a service do
+				MapBasedThreadNameManipulator mapManipulator = new MapBasedThreadNameManipulator();
+				mapManipulator.mapCurrentThread("mapped");
+				threads[0] = Thread.currentThread();
+				manipulator = mapManipulator;
+				break;
+			case "tag":
+				ThreadTagRegistry registry = new ThreadTagRegistry("endpoint", "tenant");
+				registry.setTag("endpoint", "/login");
+				registry.setTag("tenant", "acme");
+				threads[0] = Thread.currentThread();
+				manipulator = new TagThreadNameManipulator(registry, "endpoint", "tenant");
+				break;
+			case "cachedRegex":
+				manipulator = new CachingThreadNameManipulator(new RegexThreadNameManipulator());
+				break;
+			default:
+				manipulator = new RegexThreadNameManipulator();
+		}
+		manipulator.init();
+	}
+
+	@Benchmark
+	public void getManipulatedThreadName(Blackhole blackhole)
+	{
+		manipulator.beginSample();
+		for (Thread thread : threads) {
+			blackhole.consume(manipulator.getManipulatedThreadName(thread));
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.imperva.sampler;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Keeps call trees within a node budget, lossy counting style.<br>
+ * The subtrees with the least cumulative time are folded into their callers' method time until the trees fit the
+ * target. A method's cumulative time never exceeds its caller's, so methods that consume the most time are kept with
+ * exact counters. Folded time is accumulated per thread group so the loss of accuracy can be reported.<br>
+ * Pruning collects and sorts the times of all nodes, so callers prune to 3/4 of their budget, and the trees overflow
+ * again only after a quarter of the budget in new nodes.<br>**/
+public class CallTreePruner
+{
+	/**
+	 * Fold the least consuming subtrees of the given thread groups until they have at most the target amount of nodes.
+	 * Methods at the bottom of the stack are never folded, as they have no caller to be folded into.
+	 * @return number of removed nodes.<br>**/
+	public static int prune(Collection<ThreadGroupSamples> threadGroups, int targetNodes)
+	{
+		int nodeCount = 0;
+		for (ThreadGroupSamples tgs : threadGroups) {
+			nodeCount += tgs.nodeCount;
+		}
+		if (nodeCount <= targetNodes) {
+			return 0;
+		}
+
+		long[] cummulativeTimes = new long[nodeCount];
+		int collected = 0;
+		for (ThreadGroupSamples tgs : threadGroups) {
+			for (SampleCount root : tgs.callTree.getChildren()) {
+				collected = collectCummulativeTimes(root, cummulativeTimes, collected);
+			}
+		}
+		Arrays.sort(cummulativeTimes, 0, collected);
+		int nodesToRemove = Math.min(collected, nodeCount - targetNodes);
+		if (nodesToRemove <= 0) {
+			return 0;
+		}
+		long maxFoldedTime = cummulativeTimes[nodesToRemove - 1];
+
+		// Fold the subtrees below the threshold time, and then only as many of the subtrees at the threshold as
+		// needed, as at a fixed sampling period many methods are sampled the same number of times
+		int removedNodes = fold(threadGroups, maxFoldedTime - 1, Integer.MAX_VALUE);
+		if (removedNodes < nodesToRemove) {
+			removedNodes += fold(threadGroups, maxFoldedTime, nodesToRemove - removedNodes);
+		}
+
+		return removedNodes;
+	}
+
+	public static int prune(ThreadGroupSamples threadGroup, int targetNodes) {
+		return prune(Collections.singletonList(threadGroup), targetNodes);
+	}
+
+	private static int collectCummulativeTimes(SampleCount node, long[] cummulativeTimes, int collected)
+	{
+		// The bottom frame itself is not collected as it is never folded
+		for (SampleCount child : node.getChildren()) {
+			if (collected < cummulativeTimes.length) {
+				cummulativeTimes[collected++] = child.getCummulativeTime();
+			}
+			collected = collectCummulativeTimes(child, cummulativeTimes, collected);
+		}
+		return collected;
+	}
+
+	private static int fold(Collection<ThreadGroupSamples> threadGroups, long maxFoldedTime, int maxRemovedNodes)
+	{
+		int removedNodes = 0;
+		for (ThreadGroupSamples tgs : threadGroups)
+		{
+			int groupRemovedNodes = 0;
+			for (SampleCount root : tgs.callTree.getChildren()) {
+				if (removedNodes + groupRemovedNodes < maxRemovedNodes) {
+					groupRemovedNodes += fold(root, maxFoldedTime, maxRemovedNodes - removedNodes - groupRemovedNodes, tgs);
+				}
+			}
+			tgs.nodeCount -= groupRemovedNodes;
+			tgs.foldedNodes += groupRemovedNodes;
+			removedNodes += groupRemovedNodes;
+		}
+		return removedNodes;
+	}
+
+	private static int fold(SampleCount node, long maxFoldedTime, int maxRemovedNodes, ThreadGroupSamples tgs)
+	{
+		long methodTime = node.getMethodTime();
+		int removedNodes = node.foldChildren(maxFoldedTime, maxRemovedNodes);
+		tgs.foldedTime += node.getMethodTime() - methodTime;
+		for (SampleCount child : node.getChildren()) {
+			if (removedNodes < maxRemovedNodes) {
+				removedNodes += fold(child, maxFoldedTime, maxRemovedNodes - removedNodes, tgs);
+			}
+		}
+		return removedNodes;
+	}
+}
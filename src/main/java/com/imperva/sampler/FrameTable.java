@@ -0,0 +1,462 @@
+package com.imperva.sampler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Symbol table of sampled frames.<br>
+ * Maps class, method, file and line of a stack trace element to a compact frame ID and keeps its normalized
+ * display text, so each distinct frame is formatted once.<br>
+ * Frames not seen for a configurable amount of report intervals are evicted and their IDs are reused.<br>
+ * Each frame also maps to a method ID, shared by all lines of the same method, and may be marked transparent.<br>
+ * Not thread safe. Several threads may intern frames concurrently through FrameCache instances.<br>**/
+public class FrameTable {
+
+    private static final Pattern digitsRemover = Pattern.compile("\\d+");
+
+    private Entry[] m_buckets = new Entry[1024];
+    private int m_entriesCount = 0;
+    private final HashMap<String, Integer> m_textIds = new HashMap<>();
+    private String[] m_frameTexts = new String[1024];
+    private int[] m_frameRefCounts = new int[1024];
+    private int m_size = 0;
+    private int[] m_freeIds = new int[16];
+    private int m_freeIdsCount = 0;
+    private boolean m_isFrameTextsCopied = false;
+    // Method IDs are only meaningful within a single sample, so they are renumbered rather than evicted
+    private final HashMap<String, Integer> m_methodIds = new HashMap<>();
+    private int[] m_frameMethodIds = new int[1024];
+    private boolean[] m_frameTransparent = new boolean[1024];
+    private String[] m_transparentPrefixes = new String[0];
+
+    private int m_currentInterval = 0;
+    private int m_evictionIntervals = 4;
+    private int m_maxFrames = 65536;
+
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_evictions = 0;
+
+    private static final class Entry
+    {
+        final String className;
+        final String methodName;
+        final String fileName;
+        final int lineNumber;
+        final int hash;
+        final int frameId;
+        int lastSeenInterval;
+        Entry next;
+
+        Entry(StackTraceElement element, int hash, int frameId)
+        {
+            this.className = element.getClassName();
+            this.methodName = element.getMethodName();
+            this.fileName = element.getFileName();
+            this.lineNumber = element.getLineNumber();
+            this.hash = hash;
+            this.frameId = frameId;
+        }
+
+        boolean matches(StackTraceElement element, int hash)
+        {
+            return this.hash == hash && lineNumber == element.getLineNumber() &&
+                    className.equals(element.getClassName()) && methodName.equals(element.getMethodName()) &&
+                    Objects.equals(fileName, element.getFileName());
+        }
+    }
+
+    /** Frames not seen during this amount of report intervals are evicted. **/
+    public void setEvictionIntervals(int evictionIntervals)
+    {
+        m_evictionIntervals = evictionIntervals;
+    }
+
+    /** Upper bound of frames kept when a report interval ends. Least recently seen frames are evicted first. **/
+    public void setMaxFrames(int maxFrames)
+    {
+        m_maxFrames = maxFrames;
+    }
+
+    /**
+     * Frames of methods whose "package.Class.method" starts with any of these prefixes are marked transparent.
+     * Applies to frames interned afterwards.<br>**/
+    public void setTransparentPrefixes(String[] transparentPrefixes)
+    {
+        m_transparentPrefixes = transparentPrefixes;
+    }
+
+    /**
+     * Intern a stack trace element.
+     * @param element - sampled stack trace element.
+     * @return compact frame ID.<br> Elements that only differ by generated accessor digits share the same ID.<br>**/
+    public int getFrameId(StackTraceElement element)
+    {
+        return getEntry(element, hash(element)).frameId;
+    }
+
+    private Entry getEntry(StackTraceElement element, int hash)
+    {
+        int bucket = hash & (m_buckets.length - 1);
+        for (Entry entry = m_buckets[bucket]; entry != null; entry = entry.next) {
+            if (entry.matches(element, hash)) {
+                m_hits++;
+                entry.lastSeenInterval = m_currentInterval;
+                return entry;
+            }
+        }
+
+        m_misses++;
+        String packageClassMethodLine = element.toString();
+        if (element.getClassName().startsWith("sun.reflect.GeneratedMethodAccessor")) {
+            packageClassMethodLine = digitsRemover.matcher(packageClassMethodLine).replaceAll("");
+        }
+
+        Integer frameId = m_textIds.get(packageClassMethodLine);
+        if (frameId == null)
+        {
+            frameId = allocateId();
+            m_frameTexts[frameId] = packageClassMethodLine;
+            m_textIds.put(packageClassMethodLine, frameId);
+            String packageClassMethod = toPackageClassMethod(element.getClassName(), element.getMethodName());
+            m_frameMethodIds[frameId] = getMethodId(packageClassMethod);
+            m_frameTransparent[frameId] = isTransparent(packageClassMethod);
+        }
+        m_frameRefCounts[frameId]++;
+
+        Entry entry = new Entry(element, hash, frameId);
+        entry.lastSeenInterval = m_currentInterval;
+        entry.next = m_buckets[bucket];
+        m_buckets[bucket] = entry;
+        if (++m_entriesCount * 4 > m_buckets.length * 3) {
+            resize(m_buckets.length * 2);
+        }
+
+        return entry;
+    }
+
+    /** @return a new cache for interning frames on another thread, see FrameCache. **/
+    public FrameCache newCache()
+    {
+        return new FrameCache();
+    }
+
+    /**
+     * Thread confined front cache of the table, so several threads may intern frames concurrently.<br>
+     * Frames found in the cache are interned without synchronization. Others are interned by the table while
+     * synchronized on it, so while caches are in use, the table must not be used directly by any other thread.
+     * The cache is emptied once the report interval ends.<br>**/
+    public final class FrameCache
+    {
+        private Entry[] m_entries = new Entry[1024];
+        private int m_cachedCount = 0;
+        private int[] m_methodIds = new int[1024];
+        private boolean[] m_transparent = new boolean[1024];
+        private int m_interval = m_currentInterval;
+        private long m_cacheHits = 0;
+
+        private FrameCache() {}
+
+        /** @see FrameTable#getFrameId(StackTraceElement) **/
+        public int getFrameId(StackTraceElement element)
+        {
+            if (m_interval != m_currentInterval) {
+                clear();
+            }
+
+            int hash = hash(element);
+            int mask = m_entries.length - 1;
+            int i = hash & mask;
+            for (Entry entry; (entry = m_entries[i]) != null; i = (i + 1) & mask) {
+                if (entry.matches(element, hash)) {
+                    m_cacheHits++;
+                    entry.lastSeenInterval = m_interval;
+                    return entry.frameId;
+                }
+            }
+
+            Entry entry;
+            int methodId;
+            boolean isTransparent;
+            synchronized (FrameTable.this) {
+                entry = getEntry(element, hash);
+                methodId = m_frameMethodIds[entry.frameId];
+                isTransparent = m_frameTransparent[entry.frameId];
+            }
+
+            m_entries[i] = entry;
+            if (entry.frameId >= m_methodIds.length) {
+                m_methodIds = Arrays.copyOf(m_methodIds, Math.max(entry.frameId + 1, m_methodIds.length * 2));
+                m_transparent = Arrays.copyOf(m_transparent, m_methodIds.length);
+            }
+            m_methodIds[entry.frameId] = methodId;
+            m_transparent[entry.frameId] = isTransparent;
+            if (++m_cachedCount * 4 > m_entries.length * 3) {
+                grow();
+            }
+
+            return entry.frameId;
+        }
+
+        /** @see FrameTable#getMethodId(int) **/
+        public int getMethodId(int frameId)
+        {
+            return m_methodIds[frameId];
+        }
+
+        /** @see FrameTable#isTransparent(int) **/
+        public boolean isTransparent(int frameId)
+        {
+            return m_transparent[frameId];
+        }
+
+        /** Add the hits of this cache to the table's hits. Invoked when no frames are interned concurrently. **/
+        public void flushHits()
+        {
+            m_hits += m_cacheHits;
+            m_cacheHits = 0;
+        }
+
+        // Frames may have been evicted, and methods renumbered
+        private void clear()
+        {
+            Arrays.fill(m_entries, null);
+            m_cachedCount = 0;
+            m_interval = m_currentInterval;
+        }
+
+        private void grow()
+        {
+            Entry[] entries = new Entry[m_entries.length * 2];
+            int mask = entries.length - 1;
+            for (Entry entry : m_entries) {
+                if (entry != null) {
+                    int i = entry.hash & mask;
+                    while (entries[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    entries[i] = entry;
+                }
+            }
+            m_entries = entries;
+        }
+    }
+
+    public String getFrameText(int frameId)
+    {
+        return m_frameTexts[frameId];
+    }
+
+    /** @return ID shared by all frames of the same method. Valid until the end of the current report interval. **/
+    public int getMethodId(int frameId)
+    {
+        return m_frameMethodIds[frameId];
+    }
+
+    /** @return upper bound of the method IDs in use. **/
+    public int getMethodCount()
+    {
+        return m_methodIds.size();
+    }
+
+    public boolean isTransparent(int frameId)
+    {
+        return m_frameTransparent[frameId];
+    }
+
+    private static String toPackageClassMethod(String className, String methodName)
+    {
+        String packageClassMethod = className + "." + methodName;
+        if (className.startsWith("sun.reflect.GeneratedMethodAccessor")) {
+            packageClassMethod = digitsRemover.matcher(packageClassMethod).replaceAll("");
+        }
+
+        return packageClassMethod;
+    }
+
+    private int getMethodId(String packageClassMethod)
+    {
+        Integer methodId = m_methodIds.get(packageClassMethod);
+        if (methodId == null) {
+            methodId = m_methodIds.size();
+            m_methodIds.put(packageClassMethod, methodId);
+        }
+
+        return methodId;
+    }
+
+    private boolean isTransparent(String packageClassMethod)
+    {
+        for (String transparentPrefix : m_transparentPrefixes) {
+            if (packageClassMethod.startsWith(transparentPrefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return frame texts indexed by frame ID.<br> Texts of IDs in use are never modified in the returned array, since
+     * eviction and growth replace the array. So it remains a valid frozen view for call trees aggregated so far.<br>**/
+    public String[] getFrameTexts()
+    {
+        return m_frameTexts;
+    }
+
+    /**
+     * Mark the end of a report interval and evict frames which were not seen lately.<br>
+     * Must be invoked only when no call tree references the evicted frames anymore.<br>**/
+    public void endInterval()
+    {
+        m_currentInterval++;
+        m_isFrameTextsCopied = false;
+        int oldestKeptInterval = m_currentInterval - m_evictionIntervals;
+        if (m_entriesCount > m_maxFrames)
+        {
+            // Raise the eviction threshold until the least recently seen frames fit the bound
+            int[] seenCounts = new int[m_evictionIntervals + 1];
+            for (Entry bucket : m_buckets) {
+                for (Entry entry = bucket; entry != null; entry = entry.next) {
+                    int age = m_currentInterval - entry.lastSeenInterval;
+                    if (age <= m_evictionIntervals) {
+                        seenCounts[m_evictionIntervals - age]++;
+                    }
+                }
+            }
+
+            int keptEntries = 0;
+            for (int i = seenCounts.length - 1; i >= 0 && keptEntries + seenCounts[i] <= m_maxFrames; i--) {
+                keptEntries += seenCounts[i];
+                oldestKeptInterval = m_currentInterval - m_evictionIntervals + i;
+            }
+            if (keptEntries == 0) {
+                oldestKeptInterval = m_currentInterval;
+            }
+        }
+
+        for (int i = 0; i < m_buckets.length; i++)
+        {
+            Entry prev = null;
+            for (Entry entry = m_buckets[i]; entry != null; entry = entry.next)
+            {
+                if (entry.lastSeenInterval >= oldestKeptInterval) {
+                    prev = entry;
+                    continue;
+                }
+
+                if (prev == null) {
+                    m_buckets[i] = entry.next;
+                } else {
+                    prev.next = entry.next;
+                }
+                m_entriesCount--;
+                m_evictions++;
+                if (--m_frameRefCounts[entry.frameId] == 0) {
+                    releaseId(entry.frameId);
+                }
+            }
+        }
+
+        if (m_methodIds.size() > 2 * size() + 1024) {
+            renumberMethods();
+        }
+    }
+
+    /** Drop method IDs of evicted frames by renumbering the methods of the remaining frames. **/
+    private void renumberMethods()
+    {
+        m_methodIds.clear();
+        for (Entry bucket : m_buckets) {
+            for (Entry entry = bucket; entry != null; entry = entry.next) {
+                m_frameMethodIds[entry.frameId] = getMethodId(toPackageClassMethod(entry.className, entry.methodName));
+            }
+        }
+    }
+
+    /** @return amount of distinct frame IDs in use. **/
+    public int size()
+    {
+        return m_size - m_freeIdsCount;
+    }
+
+    public long getHits()
+    {
+        return m_hits;
+    }
+
+    public long getMisses()
+    {
+        return m_misses;
+    }
+
+    public long getEvictions()
+    {
+        return m_evictions;
+    }
+
+    private int allocateId()
+    {
+        if (m_freeIdsCount > 0) {
+            return m_freeIds[--m_freeIdsCount];
+        }
+
+        if (m_size == m_frameTexts.length) {
+            String[] frameTexts = new String[m_size * 2];
+            System.arraycopy(m_frameTexts, 0, frameTexts, 0, m_size);
+            m_frameTexts = frameTexts;
+            int[] frameRefCounts = new int[m_size * 2];
+            System.arraycopy(m_frameRefCounts, 0, frameRefCounts, 0, m_size);
+            m_frameRefCounts = frameRefCounts;
+            m_frameMethodIds = Arrays.copyOf(m_frameMethodIds, m_size * 2);
+            m_frameTransparent = Arrays.copyOf(m_frameTransparent, m_size * 2);
+        }
+
+        return m_size++;
+    }
+
+    private void releaseId(int frameId)
+    {
+        m_textIds.remove(m_frameTexts[frameId]);
+        if (! m_isFrameTextsCopied) {
+            m_frameTexts = m_frameTexts.clone();
+            m_isFrameTextsCopied = true;
+        }
+        m_frameTexts[frameId] = null;
+        if (m_freeIdsCount == m_freeIds.length) {
+            int[] freeIds = new int[m_freeIdsCount * 2];
+            System.arraycopy(m_freeIds, 0, freeIds, 0, m_freeIdsCount);
+            m_freeIds = freeIds;
+        }
+        m_freeIds[m_freeIdsCount++] = frameId;
+    }
+
+    private void resize(int capacity)
+    {
+        Entry[] buckets = new Entry[capacity];
+        for (Entry bucket : m_buckets)
+        {
+            Entry entry = bucket;
+            while (entry != null)
+            {
+                Entry next = entry.next;
+                int i = entry.hash & (capacity - 1);
+                entry.next = buckets[i];
+                buckets[i] = entry;
+                entry = next;
+            }
+        }
+        m_buckets = buckets;
+    }
+
+    private static int hash(StackTraceElement element)
+    {
+        int h = element.getClassName().hashCode();
+        h = 31 * h + element.getMethodName().hashCode();
+        h = 31 * h + Objects.hashCode(element.getFileName());
+        h = 31 * h + element.getLineNumber();
+        return h ^ (h >>> 16);
+    }
+}
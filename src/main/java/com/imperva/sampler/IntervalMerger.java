@@ -0,0 +1,106 @@
+package com.imperva.sampler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges report intervals, possibly taken by different frame tables, into a single interval.<br>
+ * Frames are matched by their text. Methods are merged node by node, so merging is associative and commutative.<br>**/
+public class IntervalMerger {
+
+    private final HashMap<String, Integer> m_frameIds = new HashMap<>();
+    private final ArrayList<String> m_frameTexts = new ArrayList<>();
+    private final HashMap<String, ThreadGroupSamples> m_threadGroups = new HashMap<>();
+    private long m_startTime = Long.MAX_VALUE;
+    private long m_endTime = Long.MIN_VALUE;
+
+    public int getFrameId(String frameText)
+    {
+        Integer frameId = m_frameIds.get(frameText);
+        if (frameId == null) {
+            frameId = m_frameTexts.size();
+            m_frameTexts.add(frameText);
+            m_frameIds.put(frameText, frameId);
+        }
+
+        return frameId;
+    }
+
+    public ThreadGroupSamples getThreadGroup(String aggregatedThreadName)
+    {
+        return m_threadGroups.computeIfAbsent(aggregatedThreadName, name -> new ThreadGroupSamples());
+    }
+
+    public void addTimeRange(long startTime, long endTime)
+    {
+        m_startTime = Math.min(m_startTime, startTime);
+        m_endTime = Math.max(m_endTime, endTime);
+    }
+
+    public void merge(SamplingInterval interval)
+    {
+        addTimeRange(interval.getStartTime(), interval.getEndTime());
+        for (Map.Entry<String, ThreadGroupSamples> aggregatedThread : interval.getThreadGroups().entrySet())
+        {
+            ThreadGroupSamples source = aggregatedThread.getValue();
+            ThreadGroupSamples target = getThreadGroup(aggregatedThread.getKey());
+            target.threadNamesMap.putAll(source.threadNamesMap);
+            target.maxDepth = Math.max(target.maxDepth, source.maxDepth);
+            target.foldedTime += source.foldedTime;
+            target.foldedNodes += source.foldedNodes;
+            mergeChildren(interval, source.callTree, target.callTree);
+            for (LockContention contention : source.contentionMap.values()) {
+                mergeLockContention(target, contention.getLockClassName(), contention.getLockIdentityHashCode(),
+                        getFrameId(interval.getFrameText(contention.getWaitingFrameId())),
+                        contention.getOwnerFrameId() == SampleCount.ROOT_FRAME_ID ? SampleCount.ROOT_FRAME_ID :
+                                getFrameId(interval.getFrameText(contention.getOwnerFrameId()))).
+                        add(contention.getBlockedTime(), contention.getSamples(), contention.getOwnerThreadName());
+            }
+        }
+    }
+
+    private void mergeChildren(SamplingInterval interval, SampleCount source, SampleCount target)
+    {
+        for (SampleCount sourceChild : source.getChildren()) {
+            SampleCount targetChild = target.getOrCreateChild(getFrameId(interval.getFrameText(sourceChild.getFrameId())));
+            targetChild.addCounts(sourceChild);
+            mergeChildren(interval, sourceChild, targetChild);
+        }
+    }
+
+    /** @return the contention of a thread group with the given key, created with zero counters if it does not exist yet. **/
+    public LockContention mergeLockContention(ThreadGroupSamples target, String lockClassName, int lockIdentityHashCode,
+                                              int waitingFrameId, int ownerFrameId)
+    {
+        LockContention contention = new LockContention(lockClassName, lockIdentityHashCode, waitingFrameId, ownerFrameId);
+        LockContention existing = target.contentionMap.putIfAbsent(contention, contention);
+        return existing == null ? contention : existing;
+    }
+
+    /**
+     * Fold the least consuming subtrees of the merged call trees until they have at most the target amount of nodes,
+     * see CallTreePruner.
+     * @return amount of nodes kept.<br>**/
+    public int prune(int targetNodes)
+    {
+        int nodeCount = 0;
+        for (ThreadGroupSamples tgs : m_threadGroups.values()) {
+            tgs.nodeCount = tgs.callTree.getNodeCount() - 1;
+            nodeCount += tgs.nodeCount;
+        }
+
+        return nodeCount - CallTreePruner.prune(m_threadGroups.values(), targetNodes);
+    }
+
+    public boolean isEmpty()
+    {
+        return m_threadGroups.isEmpty();
+    }
+
+    /** @return the merged interval. The merger must not be used afterwards. **/
+    public SamplingInterval toSamplingInterval()
+    {
+        return new SamplingInterval(m_startTime, m_endTime, m_threadGroups, m_frameTexts.toArray(new String[0]));
+    }
+}
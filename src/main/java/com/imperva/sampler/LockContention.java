@@ -0,0 +1,82 @@
+package com.imperva.sampler;
+
+import java.util.Objects;
+
+/**
+ * Time an aggregated thread spent blocked on a specific monitor, keyed by the monitor identity, the blocked
+ * thread's top monitored frame and the lock owner's top monitored frame.<br>**/
+public class LockContention {
+
+    private final String m_lockClassName;
+    private final int m_lockIdentityHashCode;
+    private final int m_waitingFrameId;
+    private final int m_ownerFrameId;
+    private String m_ownerThreadName;
+    private long m_blockedTime = 0;
+    private long m_samples = 0;
+
+    public LockContention(String lockClassName, int lockIdentityHashCode, int waitingFrameId, int ownerFrameId)
+    {
+        m_lockClassName = lockClassName;
+        m_lockIdentityHashCode = lockIdentityHashCode;
+        m_waitingFrameId = waitingFrameId;
+        m_ownerFrameId = ownerFrameId;
+    }
+
+    public void increment(long millis, String ownerThreadName)
+    {
+        m_blockedTime += millis;
+        m_samples++;
+        if (ownerThreadName != null) {
+            m_ownerThreadName = ownerThreadName;
+        }
+    }
+
+    /** Add the counters of another contention, e.g. when merging intervals. **/
+    public void add(long blockedTime, long samples, String ownerThreadName)
+    {
+        m_blockedTime += blockedTime;
+        m_samples += samples;
+        if (ownerThreadName != null) {
+            m_ownerThreadName = ownerThreadName;
+        }
+    }
+
+    public String getLockClassName() { return m_lockClassName; }
+
+    public int getLockIdentityHashCode() { return m_lockIdentityHashCode; }
+
+    /** @return frame ID of the blocked thread's top monitored frame. **/
+    public int getWaitingFrameId() { return m_waitingFrameId; }
+
+    /** @return frame ID of the lock owner's top monitored frame, or ROOT_FRAME_ID if the owner was not captured. **/
+    public int getOwnerFrameId() { return m_ownerFrameId; }
+
+    /** @return name of the last thread seen owning the lock, or null if unknown. **/
+    public String getOwnerThreadName() { return m_ownerThreadName; }
+
+    public long getBlockedTime() { return m_blockedTime; }
+
+    public long getSamples() { return m_samples; }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (! (o instanceof LockContention)) {
+            return false;
+        }
+
+        LockContention that = (LockContention) o;
+        return m_lockIdentityHashCode == that.m_lockIdentityHashCode && m_waitingFrameId == that.m_waitingFrameId &&
+                m_ownerFrameId == that.m_ownerFrameId && m_lockClassName.equals(that.m_lockClassName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(m_lockClassName, m_lockIdentityHashCode, m_waitingFrameId, m_ownerFrameId);
+    }
+}
@@ -0,0 +1,115 @@
+package com.imperva.sampler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Classifies class names by package prefix rules, e.g. "com.acme.,-com.acme.generated.".<br>
+ * A rule prefixed by '-' excludes the classes it matches. When several rules match a class name, the longest one wins.
+ * Rules are compiled into a character trie, and results are cached per class name, so classifying a frame costs
+ * a hash lookup once its class was seen.<br>
+ * Not thread safe.<br>**/
+public class PackageMatcher
+{
+	private static final byte NO_RULE = 0;
+	private static final byte INCLUDE = 1;
+	private static final byte EXCLUDE = 2;
+	private static final int maxCachedClassNames = 65536;
+
+	private static final class Node
+	{
+		char[] keys = new char[0];
+		Node[] children = new Node[0];
+		byte rule = NO_RULE;
+
+		Node getChild(char key)
+		{
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == key) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node getOrCreateChild(char key)
+		{
+			Node child = getChild(key);
+			if (child == null) {
+				int length = keys.length;
+				keys = Arrays.copyOf(keys, length + 1);
+				children = Arrays.copyOf(children, length + 1);
+				keys[length] = key;
+				children[length] = child = new Node();
+			}
+			return child;
+		}
+	}
+
+	private final String commaDelimitedRules;
+	private final Node root = new Node();
+	private final boolean isEmpty;
+	private final HashMap<String, Boolean> cache = new HashMap<>();
+
+	/** @param commaDelimitedRules - package prefixes to include. Prefixes starting with '-' are excluded. **/
+	public PackageMatcher(String commaDelimitedRules)
+	{
+		this.commaDelimitedRules = commaDelimitedRules;
+		String[] rules = commaDelimitedRules.split(",");
+		for (String rule : rules)
+		{
+			rule = rule.trim();
+			boolean isExclude = rule.startsWith("-");
+			String prefix = isExclude ? rule.substring(1) : rule;
+			Node node = root;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.getOrCreateChild(prefix.charAt(i));
+			}
+			node.rule = isExclude ? EXCLUDE : INCLUDE;
+		}
+		isEmpty = rules.length == 0;
+	}
+
+	/** @return true if there are no rules, in which case no class name matches. **/
+	public boolean isEmpty() {
+		return isEmpty;
+	}
+
+	/** @return a matcher of the same rules with its own cache, for use by another thread. **/
+	public PackageMatcher copy() {
+		return new PackageMatcher(commaDelimitedRules);
+	}
+
+	public boolean matches(String className)
+	{
+		Boolean isMatch = cache.get(className);
+		if (isMatch == null)
+		{
+			isMatch = match(className);
+			if (cache.size() >= maxCachedClassNames) {
+				cache.clear();
+			}
+			cache.put(className, isMatch);
+		}
+
+		return isMatch;
+	}
+
+	private boolean match(String className)
+	{
+		byte rule = root.rule;
+		Node node = root;
+		for (int i = 0; i < className.length() && node.keys.length > 0; i++)
+		{
+			node = node.getChild(className.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.rule != NO_RULE) {
+				rule = node.rule;
+			}
+		}
+
+		return rule == INCLUDE;
+	}
+}
@@ -2,15 +2,25 @@ package com.imperva.sampler;
 
 public class SampleCount {
 
+    public static final int ROOT_FRAME_ID = -1;
+    private static final SampleCount[] NO_CHILDREN = new SampleCount[0];
+
     private long m_cummulativeTime = 0;
     private long m_methodTime = 0;
+    private long m_cummulativeCpuNanos = 0;
+    private long m_methodCpuNanos = 0;
+    // Cumulative and method time per SampleState. Allocated on first sample with a known state
+    private long[] m_stateTimes = null;
     private final int m_depth;
-    private final String m_packageClassMethodLine;
+    private final int m_frameId;
+    // Open addressing table keyed by the children's frame IDs
+    private SampleCount[] m_children = NO_CHILDREN;
+    private int m_childCount = 0;
 
-    public SampleCount(String packageClassMethodLine, int depth)
+    public SampleCount(int frameId, int depth)
     {
         m_depth = depth;
-        m_packageClassMethodLine = packageClassMethodLine;
+        m_frameId = frameId;
     }
 
     public void increment(long millis, boolean isCurrentMethod)
@@ -21,6 +31,56 @@ public class SampleCount {
         }
     }
 
+    public void increment(long millis, boolean isCurrentMethod, SampleState state, long cpuNanos)
+    {
+        increment(millis, isCurrentMethod);
+        m_cummulativeCpuNanos += cpuNanos;
+        if (isCurrentMethod) {
+            m_methodCpuNanos += cpuNanos;
+        }
+
+        if (state != null)
+        {
+            if (m_stateTimes == null) {
+                m_stateTimes = new long[2 * SampleState.values().length];
+            }
+
+            m_stateTimes[2 * state.ordinal()] += millis;
+            if (isCurrentMethod) {
+                m_stateTimes[2 * state.ordinal() + 1] += millis;
+            }
+        }
+    }
+
+    /** Add the counters of another method, e.g. when merging call trees. Children are not merged. **/
+    public void addCounts(SampleCount other)
+    {
+        addCounts(other.m_cummulativeTime, other.m_methodTime, other.m_cummulativeCpuNanos, other.m_methodCpuNanos);
+        if (other.m_stateTimes != null) {
+            for (SampleState state : SampleState.values()) {
+                addStateTimes(state, other.m_stateTimes[2 * state.ordinal()], other.m_stateTimes[2 * state.ordinal() + 1]);
+            }
+        }
+    }
+
+    public void addCounts(long cummulativeTime, long methodTime, long cummulativeCpuNanos, long methodCpuNanos)
+    {
+        m_cummulativeTime += cummulativeTime;
+        m_methodTime += methodTime;
+        m_cummulativeCpuNanos += cummulativeCpuNanos;
+        m_methodCpuNanos += methodCpuNanos;
+    }
+
+    public void addStateTimes(SampleState state, long cummulativeTime, long methodTime)
+    {
+        if (m_stateTimes == null) {
+            m_stateTimes = new long[2 * SampleState.values().length];
+        }
+
+        m_stateTimes[2 * state.ordinal()] += cummulativeTime;
+        m_stateTimes[2 * state.ordinal() + 1] += methodTime;
+    }
+
     public long getCummulativeTime()
     {
         return m_cummulativeTime;
@@ -31,11 +91,190 @@ public class SampleCount {
         return m_methodTime;
     }
 
+    public long getCummulativeTime(SampleState state)
+    {
+        return m_stateTimes == null ? 0L : m_stateTimes[2 * state.ordinal()];
+    }
+
+    public long getMethodTime(SampleState state)
+    {
+        return m_stateTimes == null ? 0L : m_stateTimes[2 * state.ordinal() + 1];
+    }
+
+    /** @return true if any sample of this method had a known thread state. **/
+    public boolean hasStateTimes()
+    {
+        return m_stateTimes != null;
+    }
+
+    public long getCummulativeCpuNanos()
+    {
+        return m_cummulativeCpuNanos;
+    }
+
+    public long getMethodCpuNanos()
+    {
+        return m_methodCpuNanos;
+    }
+
+    /** @return true if all the time of this method was spent waiting or sleeping. **/
+    public boolean isIdle()
+    {
+        if (m_stateTimes == null || m_cummulativeTime == 0L) {
+            return false;
+        }
+
+        long idleTime = 0L;
+        for (SampleState state : SampleState.values()) {
+            if (state.isIdle()) {
+                idleTime += m_stateTimes[2 * state.ordinal()];
+            }
+        }
+
+        return idleTime == m_cummulativeTime && m_cummulativeCpuNanos == 0L;
+    }
+
     public int getDepth()
     {
         return m_depth;
     }
 
-    public String getPackageClassMethodLine() { return m_packageClassMethodLine; }
+    public int getFrameId() { return m_frameId; }
+
+    public int getChildCount() { return m_childCount; }
+
+    public SampleCount getChild(int frameId)
+    {
+        if (m_childCount == 0) {
+            return null;
+        }
+
+        int mask = m_children.length - 1;
+        for (int i = slot(frameId, mask); m_children[i] != null; i = (i + 1) & mask) {
+            if (m_children[i].m_frameId == frameId) {
+                return m_children[i];
+            }
+        }
+
+        return null;
+    }
+
+    public SampleCount getOrCreateChild(int frameId)
+    {
+        if (m_children.length == 0) {
+            m_children = new SampleCount[4];
+        }
+
+        int mask = m_children.length - 1;
+        int i = slot(frameId, mask);
+        for (; m_children[i] != null; i = (i + 1) & mask) {
+            if (m_children[i].m_frameId == frameId) {
+                return m_children[i];
+            }
+        }
+
+        SampleCount child = new SampleCount(frameId, m_depth + 1);
+        m_children[i] = child;
+        if (++m_childCount * 4 > m_children.length * 3) {
+            rehash(m_children.length * 2);
+        }
+
+        return child;
+    }
+
+    /**
+     * Fold the subtrees of children whose cumulative time does not exceed the given time into this method.
+     * Their cumulative counters are added to this method's counters and their nodes are removed.
+     * @return number of removed nodes.<br>**/
+    public int foldChildren(long maxCummulativeTime)
+    {
+        return foldChildren(maxCummulativeTime, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fold the subtrees of children whose cumulative time does not exceed the given time, as long as fewer than the
+     * given number of nodes were removed.
+     * @return number of removed nodes.<br>**/
+    public int foldChildren(long maxCummulativeTime, int maxRemovedNodes)
+    {
+        int removedNodes = 0;
+        for (int i = 0; i < m_children.length && removedNodes < maxRemovedNodes; i++)
+        {
+            SampleCount child = m_children[i];
+            if (child == null || child.m_cummulativeTime > maxCummulativeTime) {
+                continue;
+            }
+
+            m_methodTime += child.m_cummulativeTime;
+            m_methodCpuNanos += child.m_cummulativeCpuNanos;
+            if (child.m_stateTimes != null) {
+                for (SampleState state : SampleState.values()) {
+                    addStateTimes(state, 0L, child.m_stateTimes[2 * state.ordinal()]);
+                }
+            }
+
+            removedNodes += child.getNodeCount();
+            m_children[i] = null;
+            m_childCount--;
+        }
+
+        if (removedNodes > 0) {
+            if (m_childCount == 0) {
+                m_children = NO_CHILDREN;
+            } else {
+                rehash(m_children.length);
+            }
+        }
+
+        return removedNodes;
+    }
+
+    /** @return number of nodes in the subtree of this method, including itself. **/
+    public int getNodeCount()
+    {
+        int nodeCount = 1;
+        for (SampleCount child : m_children) {
+            if (child != null) {
+                nodeCount += child.getNodeCount();
+            }
+        }
+
+        return nodeCount;
+    }
+
+    /** @return a compact copy of the children array, in no particular order. **/
+    public SampleCount[] getChildren()
+    {
+        SampleCount[] children = new SampleCount[m_childCount];
+        int j = 0;
+        for (SampleCount child : m_children) {
+            if (child != null) {
+                children[j++] = child;
+            }
+        }
+
+        return children;
+    }
 
+    private void rehash(int capacity)
+    {
+        SampleCount[] oldChildren = m_children;
+        m_children = new SampleCount[capacity];
+        int mask = capacity - 1;
+        for (SampleCount child : oldChildren) {
+            if (child != null) {
+                int i = slot(child.m_frameId, mask);
+                while (m_children[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                m_children[i] = child;
+            }
+        }
+    }
+
+    private static int slot(int frameId, int mask)
+    {
+        int h = frameId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
 }
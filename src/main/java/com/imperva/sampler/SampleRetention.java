@@ -0,0 +1,165 @@
+package com.imperva.sampler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Retains recent intervals at decreasing resolution, e.g. 10 second slices for the last 6 minutes, rolled up into
+ * 1 minute intervals for the last hour and into 15 minute intervals for the last day.<br>
+ * Each tier is a bounded ring. Slices are merged into an interval of the next tier per wall-clock aligned period, and
+ * so on, so memory is bounded by the tiers' capacities and the call tree sizes. Any recent time window may be merged
+ * into a single interval, using the finest resolution retained for each part of the window and counting each
+ * sample once.<br>
+ * Slices are added by a single thread. Windows may be queried concurrently.<br>**/
+public class SampleRetention
+{
+	private static final class Tier
+	{
+		final long resolutionMillis;
+		final int capacity;
+		final ArrayDeque<SamplingInterval> intervals = new ArrayDeque<>();
+		// Lower tier intervals of the current period, merged into a single interval once the period ends
+		IntervalMerger pending = null;
+		long pendingPeriod = 0L;
+
+		Tier(long resolutionMillis, int capacity)
+		{
+			this.resolutionMillis = resolutionMillis;
+			this.capacity = capacity;
+		}
+
+		/** @return end time of the last completed interval, before which the next tier covers the samples. **/
+		long getCompletedTime() {
+			return intervals.isEmpty() ? Long.MIN_VALUE : intervals.getLast().getEndTime();
+		}
+	}
+
+	private final Tier[] tiers;
+	private int maxNodesPerInterval = 0;
+
+	/** 10 second slices for 6 minutes, 1 minute intervals for an hour and 15 minute intervals for a day. **/
+	public SampleRetention() {
+		this(new long[] {10000L, 60000L, 900000L}, new int[] {36, 60, 96});
+	}
+
+	/**
+	 * @param resolutionsMillis - period of each tier's intervals, finest first. The first one is the slice period.
+	 * @param capacities - intervals kept per tier. Each tier must span at least twice the next tier's resolution, so
+	 *                   the samples of the next tier's current period are still retained by this tier.<br>**/
+	public SampleRetention(long[] resolutionsMillis, int[] capacities)
+	{
+		if (resolutionsMillis.length == 0 || resolutionsMillis.length != capacities.length) {
+			throw new IllegalArgumentException("SampleRetention: a capacity is required per resolution");
+		}
+
+		tiers = new Tier[resolutionsMillis.length];
+		for (int i = 0; i < tiers.length; i++)
+		{
+			if (i + 1 < tiers.length && (resolutionsMillis[i + 1] <= resolutionsMillis[i] ||
+					capacities[i] * resolutionsMillis[i] < 2 * resolutionsMillis[i + 1])) {
+				throw new IllegalArgumentException("SampleRetention: tier " + i + " must span at least twice the resolution of tier " + (i + 1));
+			}
+			tiers[i] = new Tier(resolutionsMillis[i], Math.max(1, capacities[i]));
+		}
+	}
+
+	/** Bound the call tree nodes of each rolled up interval, see CallTreePruner. Zero means unbounded. **/
+	public void setMaxNodesPerInterval(int maxNodesPerInterval) {
+		this.maxNodesPerInterval = maxNodesPerInterval;
+	}
+
+	public long getSliceMillis() {
+		return tiers[0].resolutionMillis;
+	}
+
+	/** Retain a slice. Slices must be added in time order and must not be modified afterwards. **/
+	public synchronized void add(SamplingInterval slice)
+	{
+		retain(tiers[0], slice);
+		rollUp(1, slice);
+	}
+
+	private void rollUp(int tierIndex, SamplingInterval interval)
+	{
+		if (tierIndex == tiers.length) {
+			return;
+		}
+
+		Tier tier = tiers[tierIndex];
+		long period = Math.floorDiv(interval.getStartTime(), tier.resolutionMillis);
+		if (tier.pending != null && period != tier.pendingPeriod)
+		{
+			SamplingInterval completed = tier.pending.toSamplingInterval();
+			if (maxNodesPerInterval > 0) {
+				for (ThreadGroupSamples tgs : completed.getThreadGroups().values()) {
+					tgs.nodeCount = tgs.callTree.getNodeCount() - 1;
+				}
+				CallTreePruner.prune(completed.getThreadGroups().values(), maxNodesPerInterval);
+			}
+			tier.pending = null;
+			retain(tier, completed);
+			rollUp(tierIndex + 1, completed);
+		}
+
+		if (tier.pending == null) {
+			tier.pending = new IntervalMerger();
+			tier.pendingPeriod = period;
+		}
+		tier.pending.merge(interval);
+	}
+
+	private static void retain(Tier tier, SamplingInterval interval)
+	{
+		tier.intervals.addLast(interval);
+		if (tier.intervals.size() > tier.capacity) {
+			tier.intervals.removeFirst();
+		}
+	}
+
+	/**
+	 * Merge the retained intervals overlapping a time window. The window is widened to the resolution retained for
+	 * its parts, as reflected by the start and end times of the returned interval. Samples not sliced yet are not
+	 * included.
+	 * @return the merged interval, or null if no samples were retained within the window.<br>**/
+	public SamplingInterval getInterval(long fromTime, long toTime)
+	{
+		List<SamplingInterval> selected = new ArrayList<>();
+		synchronized (this)
+		{
+			for (int i = 0; i < tiers.length; i++)
+			{
+				// Intervals of this tier already rolled up into a completed interval of the next tier are covered there
+				long coveredTime = i + 1 < tiers.length ? tiers[i + 1].getCompletedTime() : Long.MIN_VALUE;
+				for (SamplingInterval interval : tiers[i].intervals) {
+					if (interval.getStartTime() >= coveredTime && interval.getStartTime() < toTime && interval.getEndTime() > fromTime) {
+						selected.add(interval);
+					}
+				}
+			}
+		}
+
+		if (selected.isEmpty()) {
+			return null;
+		}
+
+		// Retained intervals are immutable, so they are merged outside the lock
+		IntervalMerger merger = new IntervalMerger();
+		for (SamplingInterval interval : selected) {
+			merger.merge(interval);
+		}
+		return merger.toSamplingInterval();
+	}
+
+	/** @return start time of the oldest retained samples, or Long.MAX_VALUE if none. **/
+	public synchronized long getOldestTime()
+	{
+		long oldestTime = Long.MAX_VALUE;
+		for (Tier tier : tiers) {
+			if (! tier.intervals.isEmpty()) {
+				oldestTime = Math.min(oldestTime, tier.intervals.getFirst().getStartTime());
+			}
+		}
+		return oldestTime;
+	}
+}
@@ -0,0 +1,33 @@
+package com.imperva.sampler;
+
+public enum SampleState {
+
+    RUNNING, BLOCKED, WAITING, TIMED_WAITING;
+
+    /** @return sample state of a thread state, or null if the thread is not alive or its state is unknown. **/
+    public static SampleState of(Thread.State threadState)
+    {
+        if (threadState == null) {
+            return null;
+        }
+
+        switch (threadState) {
+            case RUNNABLE:
+                return RUNNING;
+            case BLOCKED:
+                return BLOCKED;
+            case WAITING:
+                return WAITING;
+            case TIMED_WAITING:
+                return TIMED_WAITING;
+            default:
+                return null;
+        }
+    }
+
+    /** @return true for states in which a thread is parked or sleeping rather than running or contending on a monitor. **/
+    public boolean isIdle()
+    {
+        return this == WAITING || this == TIMED_WAITING;
+    }
+}
@@ -0,0 +1,146 @@
+package com.imperva.sampler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sampler's own overhead, accumulated since the sampler started.<br>
+ * Sample metrics are written by the sampler thread only and report metrics by the reporter thread only, so fields are
+ * volatile rather than atomic, and histogram buckets are written without atomic increments. They may be read from any
+ * thread.<br>**/
+public class SamplerMetrics
+{
+	/** Bucket 0 counts samples below 1 microsecond. Bucket i counts samples of [2^(i-1), 2^i) microseconds. **/
+	public static final int LATENCY_BUCKETS = 24;
+
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+	private volatile long samples = 0L;
+	private volatile long totalLatencyNanos = 0L;
+	private volatile long maxLatencyNanos = 0L;
+	private volatile long totalCpuNanos = 0L;
+	private volatile long totalThreads = 0L;
+	private volatile int lastThreads = 0;
+	private volatile long totalAllocatedBytes = 0L;
+	private volatile long lastAllocatedBytes = 0L;
+	private volatile long reports = 0L;
+	private volatile long totalReportNanos = 0L;
+	private volatile long lastReportNanos = 0L;
+	private volatile int nodeCount = 0;
+	private volatile long samplingFrequencyMillis = 0L;
+
+	void recordSample(long latencyNanos, long cpuNanos, long allocatedBytes, int threads)
+	{
+		int bucket = getLatencyBucket(latencyNanos);
+		latencyHistogram.lazySet(bucket, latencyHistogram.get(bucket) + 1L);
+		totalLatencyNanos += latencyNanos;
+		if (latencyNanos > maxLatencyNanos) {
+			maxLatencyNanos = latencyNanos;
+		}
+		totalCpuNanos += cpuNanos;
+		lastThreads = threads;
+		totalThreads += threads;
+		lastAllocatedBytes = allocatedBytes;
+		totalAllocatedBytes += allocatedBytes;
+		samples++;
+	}
+
+	void recordReport(long reportNanos)
+	{
+		lastReportNanos = reportNanos;
+		totalReportNanos += reportNanos;
+		reports++;
+	}
+
+	void setNodeCount(int nodeCount) {
+		this.nodeCount = nodeCount;
+	}
+
+	void setSamplingFrequencyMillis(long samplingFrequencyMillis) {
+		this.samplingFrequencyMillis = samplingFrequencyMillis;
+	}
+
+	static int getLatencyBucket(long latencyNanos) {
+		return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyNanos / 1000L));
+	}
+
+	/** @return exclusive upper bound, in microseconds, of the given latency histogram bucket. **/
+	public static long getBucketUpperBoundMicros(int bucket) {
+		return 1L << bucket;
+	}
+
+	public long getSamples() { return samples; }
+
+	/** @return sample count per latency bucket. **/
+	public long[] getLatencyHistogram()
+	{
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			histogram[i] = latencyHistogram.get(i);
+		}
+		return histogram;
+	}
+
+	/** @return upper bound, in microseconds, of the latency below which the given fraction of samples completed. **/
+	public long getLatencyPercentileMicros(double fraction)
+	{
+		long[] histogram = getLatencyHistogram();
+		long total = 0L;
+		for (long bucketCount : histogram) {
+			total += bucketCount;
+		}
+
+		long threshold = (long) Math.ceil(total * fraction);
+		long accumulated = 0L;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			accumulated += histogram[i];
+			if (accumulated >= threshold && accumulated > 0L) {
+				return getBucketUpperBoundMicros(i);
+			}
+		}
+		return 0L;
+	}
+
+	public long getTotalLatencyNanos() { return totalLatencyNanos; }
+
+	public long getMaxLatencyNanos() { return maxLatencyNanos; }
+
+	/** @return CPU time consumed by sampling, or 0 if thread CPU time is not supported. **/
+	public long getTotalCpuNanos() { return totalCpuNanos; }
+
+	public long getTotalThreads() { return totalThreads; }
+
+	public int getLastThreads() { return lastThreads; }
+
+	/** @return bytes allocated by sampling, or 0 if thread allocated memory is not supported. **/
+	public long getTotalAllocatedBytes() { return totalAllocatedBytes; }
+
+	public long getLastAllocatedBytes() { return lastAllocatedBytes; }
+
+	public long getReports() { return reports; }
+
+	public long getTotalReportNanos() { return totalReportNanos; }
+
+	public long getLastReportNanos() { return lastReportNanos; }
+
+	/** @return call tree nodes of the last reported interval. **/
+	public int getNodeCount() { return nodeCount; }
+
+	/** @return current milliseconds between samples. Exceeds the configured frequency when adaptive sampling backs off. **/
+	public long getSamplingFrequencyMillis() { return samplingFrequencyMillis; }
+
+	@Override
+	public String toString()
+	{
+		long sampleCount = Math.max(1L, samples);
+		return "Sampler overhead - Samples: " + samples +
+				", Avg latency(us): " + totalLatencyNanos / sampleCount / 1000L +
+				", P99 latency(us) below: " + getLatencyPercentileMicros(0.99) +
+				", Max latency(us): " + maxLatencyNanos / 1000L +
+				", CPU(ms): " + totalCpuNanos / 1000000L +
+				", Avg threads: " + totalThreads / sampleCount +
+				", Avg allocated bytes: " + totalAllocatedBytes / sampleCount +
+				", Last report(ms): " + lastReportNanos / 1000000L +
+				", Nodes: " + nodeCount +
+				", Sampling frequency(ms): " + samplingFrequencyMillis;
+	}
+}
@@ -0,0 +1,119 @@
+package com.imperva.sampler;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+/**
+ * Frozen aggregation state of a single report interval.<br>
+ * Once the sampler swaps it out, it is no longer modified and may be reported by another thread.<br>**/
+public class SamplingInterval {
+
+    private final long m_startTime;
+    private final long m_endTime;
+    private final Map<String, ThreadGroupSamples> m_threadGroups;
+    private final String[] m_frameTexts;
+    private final String m_burstReason;
+
+    public SamplingInterval(long startTime, long endTime, Map<String, ThreadGroupSamples> threadGroups, String[] frameTexts)
+    {
+        this(startTime, endTime, threadGroups, frameTexts, null);
+    }
+
+    /** @param burstReason - the trigger of a burst interval, or null for a report interval. **/
+    public SamplingInterval(long startTime, long endTime, Map<String, ThreadGroupSamples> threadGroups, String[] frameTexts, String burstReason)
+    {
+        m_startTime = startTime;
+        m_endTime = endTime;
+        m_threadGroups = threadGroups;
+        m_frameTexts = frameTexts;
+        m_burstReason = burstReason;
+    }
+
+    public long getStartTime()
+    {
+        return m_startTime;
+    }
+
+    public long getEndTime()
+    {
+        return m_endTime;
+    }
+
+    /** @return aggregated samples keyed by aggregated (manipulated) thread name. **/
+    public Map<String, ThreadGroupSamples> getThreadGroups()
+    {
+        return m_threadGroups;
+    }
+
+    /** @return the trigger of a burst interval, or null for a report interval. **/
+    public String getBurstReason()
+    {
+        return m_burstReason;
+    }
+
+    public String getFrameText(int frameId)
+    {
+        return m_frameTexts[frameId];
+    }
+
+    /**
+     * Stream this interval into an outputer.
+     * @param outputer - receives the interval, aggregated threads and methods in pre-order.
+     * @param isSkipIdleThreads - omit methods and aggregated threads whose entire time was spent waiting or sleeping.<br>**/
+    public void report(StructuredSamplingOutputer outputer, boolean isSkipIdleThreads)
+    {
+        if (m_burstReason != null) {
+            outputer.beginBurstInterval(m_startTime, m_endTime, m_burstReason);
+        } else {
+            outputer.beginInterval(m_startTime, m_endTime);
+        }
+        for (Map.Entry<String, ThreadGroupSamples> aggregatedThread : m_threadGroups.entrySet())
+        {
+            ThreadGroupSamples tgs = aggregatedThread.getValue();
+            SampleCount[] roots = sortedChildren(tgs.callTree);
+            if (isSkipIdleThreads && Arrays.stream(roots).allMatch(SampleCount::isIdle)) {
+                continue;
+            }
+
+            outputer.beginThreadGroup(aggregatedThread.getKey(), tgs.maxDepth, tgs.threadNamesMap);
+            if (tgs.foldedNodes > 0) {
+                outputer.foldedTime(tgs.foldedTime, tgs.foldedNodes);
+            }
+            for (SampleCount sc : roots) {
+                reportNode(outputer, sc, isSkipIdleThreads);
+            }
+
+            LockContention[] contentions = tgs.contentionMap.values().toArray(new LockContention[0]);
+            Arrays.sort(contentions, (c1, c2) -> Long.compare(c2.getBlockedTime(), c1.getBlockedTime()));
+            for (LockContention contention : contentions) {
+                outputer.lockContention(contention, getFrameText(contention.getWaitingFrameId()),
+                        contention.getOwnerFrameId() == SampleCount.ROOT_FRAME_ID ? null : getFrameText(contention.getOwnerFrameId()));
+            }
+
+            outputer.endThreadGroup();
+        }
+
+        outputer.endInterval();
+    }
+
+    private void reportNode(StructuredSamplingOutputer outputer, SampleCount sc, boolean isSkipIdleThreads)
+    {
+        if (isSkipIdleThreads && sc.isIdle()) {
+            return;
+        }
+
+        outputer.node(sc.getDepth(), getFrameText(sc.getFrameId()), sc);
+        for (SampleCount child : sortedChildren(sc)) {
+            reportNode(outputer, child, isSkipIdleThreads);
+        }
+    }
+
+    private SampleCount[] sortedChildren(SampleCount sc)
+    {
+        SampleCount[] children = sc.getChildren();
+        Arrays.sort(children, (c1, c2) -> getFrameText(c1.getFrameId()).compareTo(getFrameText(c2.getFrameId())));
+        return children;
+    }
+}
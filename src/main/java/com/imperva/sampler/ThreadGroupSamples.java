@@ -1,12 +1,17 @@
 package com.imperva.sampler;
 
 import java.util.HashMap;
-import java.util.TreeMap;
 
 public class ThreadGroupSamples {
 
     public HashMap<Long, String> threadNamesMap = new HashMap<>();
-    public TreeMap<String, SampleCount> samplingMap = new TreeMap<>();
+    public SampleCount callTree = new SampleCount(SampleCount.ROOT_FRAME_ID, -1);
+    public HashMap<LockContention, LockContention> contentionMap = new HashMap<>();
     public int maxDepth = 0;
+    // Call tree nodes below callTree
+    public int nodeCount = 0;
+    // Time and nodes of subtrees folded into their callers' method time to fit the node budget
+    public long foldedTime = 0L;
+    public int foldedNodes = 0;
 
 }
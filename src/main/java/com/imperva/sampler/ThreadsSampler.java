@@ -1,49 +1,196 @@
 package com.imperva.sampler;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import com.imperva.sampler.capture.AllStackTracesCapturer;
+import com.imperva.sampler.capture.StackCapturer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+import com.imperva.sampler.capture.VirtualThreadCapturer;
+import com.imperva.sampler.capture.VirtualThreadRegistry;
+import com.imperva.sampler.diff.ProfileDiff;
+import com.imperva.sampler.manipulate.CachingThreadNameManipulator;
 import com.imperva.sampler.manipulate.RegexThreadNameManipulator;
 import com.imperva.sampler.manipulate.ThreadNameManipulator;
 import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
 import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputerAdapter;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+import com.imperva.sampler.outputer.TextSamplingOutputer;
+import com.imperva.sampler.schedule.FixedSamplingScheduler;
+import com.imperva.sampler.schedule.SamplingScheduler;
+import com.imperva.sampler.trigger.BurstTrigger;
 
 
 public class ThreadsSampler implements Runnable, AutoCloseable
 {
 	private volatile boolean m_continue = true;
 	private volatile boolean m_printRequested = false;
-	private long m_sleepBetweenSamplesInMillis = 100L;
-	private String[] m_packagePrefixes = {"com.imperva.", "com.mprv."};
-	private final HashMap<String, ThreadGroupSamples> m_samplingMap = new HashMap<>();
-	private long m_reportIntervalMillis = 900000L;
+	// Settings which may be changed at runtime, e.g. over JMX, are volatile
+	private volatile long m_sleepBetweenSamplesInMillis = 100L;
+	private volatile String m_monitoredPackages = "com.imperva.,com.mprv.";
+	private volatile PackageMatcher m_packageMatcher = new PackageMatcher(m_monitoredPackages);
+	// Current interval's aggregation. Owned by the sampler thread and swapped out at interval boundaries
+	private HashMap<String, ThreadGroupSamples> m_samplingMap = new HashMap<>();
+	private volatile long m_reportIntervalMillis = 900000L;
 	private volatile long lastReportAt = System.currentTimeMillis();
 	private ThreadNameManipulator threadNameManipulator = null;
 	private SamplingOutputer outputer = null;
+	private StructuredSamplingOutputer reportOutputer = null;
+	private StackCapturer stackCapturer = null;
 	private volatile boolean isActive = true, isStarted = false;
 	private volatile boolean isSampleOnceAndPrint = false;
-	private static final Pattern commaSplitter = Pattern.compile(",");
 	private boolean skipDaemonThreads = true;
 	private Thread samplerThread = null;
 	private final HashSet<Thread> sampleTheseThreadOnly = new HashSet<>();
 	private boolean isReportZeroTimePackages = false;
-	private volatile boolean isEmptySamplingMap = true;
+	private final FrameTable frameTable = new FrameTable();
+	private boolean isMeasureCpuTime = false;
+	private boolean isReportThreadStates = false;
+	private boolean isSkipIdleThreads = false;
+	private ThreadMXBean threadMXBean = null;
+	private final HashMap<Long, long[]> threadCpuNanos = new HashMap<>();
+	private boolean isReportLockContention = true;
+	private final ArrayList<ThreadSnapshot> blockedSnapshots = new ArrayList<>();
+	private final ArrayList<ThreadGroupSamples> blockedThreadGroups = new ArrayList<>();
+	// Weight of each blocked thread's sample, as in its call tree
+	private long[] blockedDurations = new long[16];
+	private ExecutorService reporter = null;
+	private static final long shutdownTimeoutMillis = 10000L;
+	private final SamplerMetrics metrics = new SamplerMetrics();
+	private boolean isReportSelfMetrics = false;
+	private ThreadMXBean selfThreadMXBean = null;
+	private com.sun.management.ThreadMXBean allocationMXBean = null;
+	private double cpuBudgetPercent = 0.0;
+	private long maxSamplingPeriodMillis = 10000L;
+	// Milliseconds between samples. Equals m_sleepBetweenSamplesInMillis unless adaptive sampling backed off
+	private volatile long samplingPeriodMillis = 100L;
+	private double avgSampleCostNanos = -1.0;
+	private int maxNodesPerThreadGroup = 0;
+	private int maxNodes = 0;
+	private int intervalNodeCount = 0;
+	private static final String UNNAMED_VIRTUAL_THREADS = "Virtual threads";
+	private static final String CARRIER_PREFIX = "Carrier: ";
+	private VirtualThreadRegistry virtualThreadRegistry = null;
+	private final HashMap<String, String> carrierThreadNames = new HashMap<>();
+	private int diffTopMethods = 0;
+	private volatile SamplingInterval diffBaseline = null;
+	private String diffFoldedFileName = null;
+	private SamplingOutputer diffOutputer = null;
+	// Last reported interval, retained by the reporter for the next diff
+	private SamplingInterval previousInterval = null;
+	private SampleRetention retention = null;
+	private long lastSliceAt = System.currentTimeMillis();
+	// Slices of the current report interval, merged by the reporter when retention is enabled
+	private IntervalMerger reportMerger = new IntervalMerger();
+	private final CopyOnWriteArrayList<BurstTrigger> burstTriggers = new CopyOnWriteArrayList<>();
+	private long burstSamplingPeriodMillis = 10L;
+	private long burstDurationMillis = 5000L;
+	private long burstCooldownMillis = 60000L;
+	// Runnable threads of the last sample
+	private int runnableThreads = 0;
+	// Current burst, if any. Its samples are aggregated separately while the regular aggregation is put aside
+	private String burstReason = null;
+	private long burstStartedAt = 0L;
+	private long burstEndsAt = 0L;
+	private long lastBurstEndedAt = 0L;
+	private HashMap<String, ThreadGroupSamples> regularSamplingMap = null;
+	private int regularNodeCount = 0;
+	private long regularSamplingPeriodMillis = 0L;
+	// Guards the sampling period against setSamplingFrequencyMillis() as bursts start and end
+	private final Object samplingPeriodLock = new Object();
+	private volatile SamplingScheduler samplingScheduler = new FixedSamplingScheduler();
+	// Time each thread was last sampled, so its samples are weighted by its own elapsed time
+	private final HashMap<Long, long[]> threadSampledAt = new HashMap<>();
+	private long lastSampleAt = 0L;
+	private volatile boolean isResetThreadSampledAt = false;
+	private boolean isCollapseRecursion = false;
+	private boolean isFoldFrames = false;
+	private int aggregationThreads = 1;
+	// Aggregators of each sample's snapshots. The first one runs on the sampler thread, and the others on the pool
+	private Aggregator[] aggregators = null;
+	private ExecutorService aggregationPool = null;
+	// CPU time of the aggregation pool during the last sample
+	private long poolCpuNanos = 0L;
 
 	private long prevTime;
 	private long sampleDuration;
-	
-	private static final Pattern digitsRemover = Pattern.compile("\\d+");
-	
-	public void setSamplingFrequencyMillis(long frequencyInMillis) {
-		m_sleepBetweenSamplesInMillis = frequencyInMillis;
+
+	/** During a burst, the given frequency takes effect once the burst ends. **/
+	public void setSamplingFrequencyMillis(long frequencyInMillis)
+	{
+		synchronized (samplingPeriodLock)
+		{
+			m_sleepBetweenSamplesInMillis = frequencyInMillis;
+			if (burstReason != null) {
+				regularSamplingPeriodMillis = frequencyInMillis;
+				samplingPeriodMillis = Math.min(frequencyInMillis, burstSamplingPeriodMillis);
+			} else {
+				samplingPeriodMillis = frequencyInMillis;
+			}
+		}
+	}
+
+	public long getSamplingFrequencyMillis() {
+		return m_sleepBetweenSamplesInMillis;
+	}
+
+	/**
+	 * Enable adaptive sampling. Whenever the average cost of a sample exceeds the given percentage of one core,
+	 * the time between samples is increased, up to setMaxSamplingFrequencyMillis(). As sampling becomes cheaper, it is
+	 * decreased back, down to setSamplingFrequencyMillis().<br>
+	 * @param cpuBudgetPercent - e.g. 0.5 for 0.5% of one core. Zero disables adaptive sampling.<br>**/
+	public void setCpuBudgetPercent(double cpuBudgetPercent) {
+		this.cpuBudgetPercent = cpuBudgetPercent;
+	}
+
+	public void setMaxSamplingFrequencyMillis(long maxFrequencyInMillis) {
+		maxSamplingPeriodMillis = maxFrequencyInMillis;
+	}
+
+	/**
+	 * Bound the call tree nodes of each aggregated thread within a report interval. When exceeded, the subtrees with
+	 * the least cumulative time are folded into their callers' method time, down to 3/4 of the budget.
+	 * The folded time is reported per aggregated thread. Zero means unbounded.<br>**/
+	public void setMaxNodesPerThreadGroup(int maxNodesPerThreadGroup) {
+		this.maxNodesPerThreadGroup = maxNodesPerThreadGroup;
+	}
+
+	/**
+	 * Bound the call tree nodes of all aggregated threads within a report interval. When exceeded, the trees are pruned
+	 * down to 3/4 of the budget, as by setMaxNodesPerThreadGroup(). Zero means unbounded.<br>**/
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	/** Print the sampler's own overhead metrics after each report interval. **/
+	public void setReportSelfMetrics(boolean isReportSelfMetrics) {
+		this.isReportSelfMetrics = isReportSelfMetrics;
+	}
+
+	public SamplerMetrics getMetrics() {
+		return metrics;
 	}
 	
 	public void setReportFrequencySeconds(long frequencyInSeconds) {
 		m_reportIntervalMillis = 1000L * frequencyInSeconds;
 	}
 
+	public long getReportFrequencySeconds() {
+		return m_reportIntervalMillis / 1000L;
+	}
+
 	public void setSampleTheseThreadsOnly(List<Thread> threads) {
 		if (threads.size() > 0) {
 			sampleTheseThreadOnly.addAll(threads);
@@ -57,16 +204,76 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 	    this.isReportZeroTimePackages = isReportZeroTimePackages;
     }
 
+	/** Measure each thread's CPU time between samples using ThreadMXBean.getThreadCpuTime() and report it next to elapsed time. **/
+	public void setMeasureCpuTime(boolean isMeasureCpuTime) {
+		this.isMeasureCpuTime = isMeasureCpuTime;
+	}
+
+	/**
+	 * Report how much of each method's cumulative time was spent running, blocked, waiting and timed waiting.<br>
+	 * The default capturer reads thread states after the stack dump, so states are approximate. For accurate state
+	 * reports, and for setSkipIdleThreads(), use ThreadMXBeanCapturer.<br>**/
+	public void setReportThreadStates(boolean isReportThreadStates) {
+		this.isReportThreadStates = isReportThreadStates;
+	}
+
+	/** Omit methods (and aggregated threads) whose entire time was spent waiting or sleeping. **/
+	public void setSkipIdleThreads(boolean isSkipIdleThreads) {
+		this.isSkipIdleThreads = isSkipIdleThreads;
+	}
+
+	/** Report which monitors blocked threads were waiting for and which code held them. Requires a capturer providing lock info. **/
+	public void setReportLockContention(boolean isReportLockContention) {
+		this.isReportLockContention = isReportLockContention;
+	}
+
 	public void setThreadToBeSampled(Thread thread) {
 		sampleTheseThreadOnly.add(thread);
 	}
 
 	public void setSkipDaemonThreads(boolean shouldSkip) { skipDaemonThreads = shouldSkip; }
 	
+	/**
+	 * Package prefixes of the monitored code, e.g. "com.acme.,-com.acme.generated.".
+	 * Prefixes starting with '-' are excluded. The longest matching prefix wins.<br>**/
 	public void setMonitoredPackages(String commaDelimitedPackageNames) {
-		m_packagePrefixes = commaDelimitedPackageNames.split(",");
+		m_packageMatcher = new PackageMatcher(commaDelimitedPackageNames);
+		m_monitoredPackages = commaDelimitedPackageNames;
+	}
+
+	public String getMonitoredPackages() {
+		return m_monitoredPackages;
 	}
 	
+	/** Aggregate directly and indirectly recursive calls of a method into its outermost invocation. **/
+	public void setCollapseRecursion(boolean isCollapseRecursion) {
+		this.isCollapseRecursion = isCollapseRecursion;
+		isFoldFrames = isCollapseRecursion || isFoldFrames;
+	}
+
+	/**
+	 * Omit framework trampoline frames from the aggregated call trees, e.g. "reactor.core.publisher.,java.util.concurrent.CompletableFuture".
+	 * A frame is transparent if its package, class and method start with any of the given prefixes.
+	 * The current method is never omitted.<br>**/
+	public void setTransparentFrames(String commaDelimitedPrefixes) {
+		frameTable.setTransparentPrefixes(commaDelimitedPrefixes.split(","));
+		isFoldFrames = true;
+	}
+
+	/** Evict frames not seen in the given number of report intervals, regardless of retention slices. Default 4. **/
+	public void setFrameEvictionIntervals(int evictionIntervals) {
+		frameTable.setEvictionIntervals(evictionIntervals);
+	}
+
+	public void setMaxFrames(int maxFrames) {
+		frameTable.setMaxFrames(maxFrames);
+	}
+
+	/** @return the frame symbol table. Its counters are updated by the sampler thread without synchronization. **/
+	public FrameTable getFrameTable() {
+		return frameTable;
+	}
+
 	public void setSamplingOutputer(SamplingOutputer outputer) 
 	{
 		this.outputer = outputer;
@@ -75,23 +282,200 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 	public void setThreadNameManipulator(ThreadNameManipulator tnm) {
 		threadNameManipulator = tnm;
 	}
+
+	/**
+	 * Sample the virtual threads registered to the given registry as well. They are aggregated by manipulated name
+	 * like platform threads, regardless of setSkipDaemonThreads(). Carrier threads are aggregated separately, with a
+	 * "Carrier: " prefix.<br>**/
+	public void setVirtualThreadRegistry(VirtualThreadRegistry virtualThreadRegistry) {
+		this.virtualThreadRegistry = virtualThreadRegistry;
+	}
+
+	/**
+	 * After each report, print the methods whose share of their aggregated thread's time grew or shrank the most,
+	 * compared to the baseline if set, or else to the previous report interval. Zero disables the diff.<br>
+	 * The diff is printed as text records, which only text outputers print. With a folded stack, JFR, binary log or
+	 * collector outputer, set a diff outputer or a diff folded file as well, or else init() fails.<br>**/
+	public void setDiffTopMethods(int diffTopMethods) {
+		this.diffTopMethods = diffTopMethods;
+	}
+
+	/**
+	 * Compare report intervals to this baseline instead of the previous interval, e.g. the merged intervals of a
+	 * binary sample log, or a collapsed stacks file, taken before a deployment. See ProfileDiff.read().<br>**/
+	public void setDiffBaseline(SamplingInterval diffBaseline) {
+		this.diffBaseline = diffBaseline;
+	}
+
+	/** Also write differential collapsed stacks of each diff to this file, overwritten by each report. **/
+	public void setDiffFoldedFileName(String diffFoldedFileName) {
+		this.diffFoldedFileName = diffFoldedFileName;
+	}
+
+	/** Print diffs to this outputer instead of the report outputer, e.g. a log when reports go to a binary log. **/
+	public void setDiffOutputer(SamplingOutputer diffOutputer) {
+		this.diffOutputer = diffOutputer;
+	}
+
+	/**
+	 * Retain recent samples at decreasing resolution, so any recent time window may be reported on demand, see
+	 * getRetainedInterval() and printWindowReport(). The current aggregation is sliced at the retention's finest
+	 * resolution, and reports merge the slices of their interval.<br>**/
+	public void setRetention(SampleRetention retention) {
+		this.retention = retention;
+	}
+
+	/**
+	 * Merge the retained samples of a recent time window, without interrupting sampling. Samples of the current slice
+	 * are not included.
+	 * @return the merged interval, or null if retention is disabled or no samples were retained within the window.<br>**/
+	public SamplingInterval getRetainedInterval(long fromTime, long toTime) {
+		return retention == null ? null : retention.getInterval(fromTime, toTime);
+	}
+
+	/** Report the retained samples of a recent time window through the sampler's outputer, see getRetainedInterval(). **/
+	public void printWindowReport(long fromTime, long toTime)
+	{
+		submitReport(() -> {
+			try {
+				SamplingInterval interval = getRetainedInterval(fromTime, toTime);
+				if (interval != null) {
+					interval.report(reportOutputer, isSkipIdleThreads);
+					reportOutputer.flush();
+				}
+			} catch (Exception e) {
+				outputer.printError("ThreadsSampler - window report failed", e);
+			}
+		});
+	}
+
+	/**
+	 * Sample at high frequency for a bounded burst whenever any of the triggers fires, e.g. on a process CPU, latency
+	 * or runnable threads threshold. Each burst is reported immediately as a separate interval titled by its trigger,
+	 * and is also added to the regular report interval. Outputers that accumulate intervals skip bursts, see
+	 * {@link StructuredSamplingOutputer#beginBurstInterval}. Triggers are checked after each regular sample.<br>**/
+	public void addBurstTrigger(BurstTrigger trigger) {
+		burstTriggers.add(trigger);
+	}
+
+	public void setBurstSamplingFrequencyMillis(long burstFrequencyInMillis) {
+		burstSamplingPeriodMillis = burstFrequencyInMillis;
+	}
+
+	public void setBurstDurationMillis(long burstDurationMillis) {
+		this.burstDurationMillis = burstDurationMillis;
+	}
+
+	/** Minimal time between the end of a burst and the next trigger check. **/
+	public void setBurstCooldownMillis(long burstCooldownMillis) {
+		this.burstCooldownMillis = burstCooldownMillis;
+	}
+
+	/**
+	 * Decide the delay between samples, e.g. PoissonSamplingScheduler or JitteredSamplingScheduler to avoid aliasing
+	 * with periodic application work. The sampling frequency remains the mean delay. Defaults to a fixed period.<br>**/
+	public void setSamplingScheduler(SamplingScheduler samplingScheduler) {
+		this.samplingScheduler = samplingScheduler;
+	}
+
+	/**
+	 * Aggregate each sample on this many threads, the sampler thread included, for JVMs with thousands of threads.
+	 * The sample's thread snapshots are partitioned evenly, and each thread aggregates its share into its own shard of
+	 * call trees per aggregated thread name. Shards are merged at the end of each report interval, slice or burst.
+	 * Set before the first sample.<br>**/
+	public void setAggregationThreads(int aggregationThreads) {
+		this.aggregationThreads = aggregationThreads;
+	}
+
+	public void setStackCapturer(StackCapturer stackCapturer) {
+		this.stackCapturer = stackCapturer;
+	}
 		
 	public void setActive(boolean isActive) {
 		this.isActive = isActive;
 	}
+
+	public boolean isActive() {
+		return isActive;
+	}
 	
 	public void init() 
 	{
 		if (threadNameManipulator == null) {
-			threadNameManipulator = new RegexThreadNameManipulator();
+			threadNameManipulator = new CachingThreadNameManipulator(new RegexThreadNameManipulator());
 		}
 		
 		threadNameManipulator.init();
+
+		if (stackCapturer == null) {
+			stackCapturer = new AllStackTracesCapturer();
+		}
+
+		if (virtualThreadRegistry != null) {
+			stackCapturer = new VirtualThreadCapturer(stackCapturer, virtualThreadRegistry);
+		}
+
+		stackCapturer.init();
+
+		if (isMeasureCpuTime) {
+			threadMXBean = ManagementFactory.getThreadMXBean();
+			if (! threadMXBean.isThreadCpuTimeSupported()) {
+				isMeasureCpuTime = false;
+			}
+			else if (! threadMXBean.isThreadCpuTimeEnabled()) {
+				threadMXBean.setThreadCpuTimeEnabled(true);
+			}
+		}
 		
+		selfThreadMXBean = ManagementFactory.getThreadMXBean();
+		if (! selfThreadMXBean.isCurrentThreadCpuTimeSupported()) {
+			selfThreadMXBean = null;
+		}
+		ThreadMXBean platformThreadMXBean = ManagementFactory.getThreadMXBean();
+		if (platformThreadMXBean instanceof com.sun.management.ThreadMXBean &&
+				((com.sun.management.ThreadMXBean) platformThreadMXBean).isThreadAllocatedMemorySupported() &&
+				((com.sun.management.ThreadMXBean) platformThreadMXBean).isThreadAllocatedMemoryEnabled()) {
+			allocationMXBean = (com.sun.management.ThreadMXBean) platformThreadMXBean;
+		}
+		metrics.setSamplingFrequencyMillis(samplingPeriodMillis);
+
 		if (outputer == null) {
 			outputer = new PrintStreamSamplingOutputer();
 		}
+
+		reportOutputer = outputer instanceof StructuredSamplingOutputer ?
+				(StructuredSamplingOutputer) outputer : new SamplingOutputerAdapter(outputer);
+		if (diffTopMethods > 0 && diffOutputer == null)
+		{
+			// Other outputers ignore text records, and would silently drop the diff
+			if (reportOutputer instanceof TextSamplingOutputer) {
+				diffOutputer = reportOutputer;
+			}
+			else if (diffFoldedFileName == null) {
+				throw new IllegalStateException("Diff is not printed by " + reportOutputer.getClass().getSimpleName() +
+						". Set a diff outputer or a diff folded file");
+			}
+		}
+		if (reportOutputer instanceof TextSamplingOutputer) {
+			TextSamplingOutputer textOutputer = (TextSamplingOutputer) reportOutputer;
+			if (isReportZeroTimePackages) {
+				textOutputer.setReportZeroTimePackages(true);
+			}
+			if (isMeasureCpuTime) {
+				textOutputer.setReportCpuTime(true);
+			}
+			if (isReportThreadStates) {
+				textOutputer.setReportThreadStates(true);
+			}
+		}
 		
+		reporter = Executors.newSingleThreadExecutor(r -> {
+			Thread reporterThread = new Thread(r);
+			reporterThread.setDaemon(true);
+			reporterThread.setName("Performance Sampler Reporter");
+			return reporterThread;
+		});
+
 		Thread t = new Thread(this);
 		t.setDaemon(true);
 		t.setName("Performance Sampler");
@@ -121,15 +505,23 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 
 		}
 
-		printReportNow();
+		if (burstReason != null) {
+			endBurst();
+		}
+		rollInterval();
+		reporter.shutdown();
+		if (aggregationPool != null) {
+			aggregationPool.shutdown();
+		}
 	}
 
 	private void processLoop() {
 
-		if (m_sleepBetweenSamplesInMillis > sampleDuration)
+		long delayMillis = samplingScheduler.nextDelayMillis(samplingPeriodMillis);
+		if (delayMillis > sampleDuration)
 		{
 			try {
-				Thread.sleep(m_sleepBetweenSamplesInMillis - sampleDuration);
+				Thread.sleep(delayMillis - sampleDuration);
 			}
 			catch (InterruptedException ie) {
 				Thread.interrupted();
@@ -140,22 +532,37 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 			m_printRequested = true;
 		}
 
-		if (m_printRequested) {
-			printReportNow();
+		// Intervals are not rolled during a burst, as the regular aggregation is put aside
+		if (burstReason != null) {
+			if (System.currentTimeMillis() >= burstEndsAt) {
+				endBurst();
+			}
+		}
+		else if (m_printRequested) {
 			m_printRequested = false;
-			lastReportAt = System.currentTimeMillis();
+			rollInterval();
+		}
+		else if (retention != null && System.currentTimeMillis() >= lastSliceAt + retention.getSliceMillis()) {
+			rollSlice();
 		}
 
 		long smapleStart = System.currentTimeMillis();
 		if (isActive) {
-			sampleOnce(System.currentTimeMillis() - prevTime + sampleDuration);
+			sampleAndMeasure(System.currentTimeMillis() - prevTime + sampleDuration);
+			if (burstReason == null && ! burstTriggers.isEmpty()) {
+				checkBurstTriggers();
+			}
 		}
 
 
 		if (isSampleOnceAndPrint) {
-			sampleOnce(m_sleepBetweenSamplesInMillis);
+			if (burstReason != null) {
+				endBurst();
+			}
+			isResetThreadSampledAt = true;
 			lastReportAt = System.currentTimeMillis();
-			printReportNow();
+			sampleOnce(m_sleepBetweenSamplesInMillis);
+			rollInterval();
 			isSampleOnceAndPrint = false;
 		}
 
@@ -168,6 +575,7 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 	}
 	
 	public void resumeSampling() {
+		isResetThreadSampledAt = true;
 		isActive = true;
 		lastReportAt = System.currentTimeMillis();
 	}
@@ -183,119 +591,626 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 		samplerThread.interrupt();
 	}
 	
-	private void sampleOnce(long duration)
+	private void sampleAndMeasure(long duration)
 	{
-		HashMap<Thread, StackTraceElement[]> sampledThreadsMap = null;
-		if (sampleTheseThreadOnly.size() > 0) {
-			sampledThreadsMap = new HashMap<>(sampleTheseThreadOnly.size() * 3);
-			for (Thread toBeSampled : sampleTheseThreadOnly) {
-				sampledThreadsMap.put(toBeSampled, toBeSampled.getStackTrace());
-			}
+		long samplerThreadId = samplerThread.getId();
+		long startCpuNanos = selfThreadMXBean != null ? selfThreadMXBean.getCurrentThreadCpuTime() : 0L;
+		long startAllocatedBytes = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(samplerThreadId) : 0L;
+		long startNanos = System.nanoTime();
+
+		int sampledThreads = sampleOnce(duration);
+
+		long latencyNanos = System.nanoTime() - startNanos;
+		long cpuNanos = selfThreadMXBean != null ? selfThreadMXBean.getCurrentThreadCpuTime() - startCpuNanos + poolCpuNanos : 0L;
+		long allocatedBytes = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(samplerThreadId) - startAllocatedBytes : 0L;
+		metrics.recordSample(latencyNanos, cpuNanos, allocatedBytes, sampledThreads);
+
+		if (cpuBudgetPercent > 0.0 && burstReason == null) {
+			adaptSamplingPeriod(selfThreadMXBean != null ? cpuNanos : latencyNanos);
+		}
+	}
+
+	/** Set the time between samples so that the moving average sample cost fits within the CPU budget. **/
+	private void adaptSamplingPeriod(long sampleCostNanos)
+	{
+		avgSampleCostNanos = avgSampleCostNanos < 0.0 ? sampleCostNanos : avgSampleCostNanos + 0.2 * (sampleCostNanos - avgSampleCostNanos);
+		long budgetPeriodMillis = (long) Math.ceil(avgSampleCostNanos * 100.0 / cpuBudgetPercent / 1000000.0);
+		samplingPeriodMillis = Math.max(m_sleepBetweenSamplesInMillis, Math.min(maxSamplingPeriodMillis, budgetPeriodMillis));
+		metrics.setSamplingFrequencyMillis(samplingPeriodMillis);
+	}
+
+	/**
+	 * Sample all threads once. Package-private for benchmarks. Invoked only by the sampler thread.
+	 * @return number of sampled threads.<br>**/
+	int sampleOnce(long duration)
+	{
+		if (aggregators == null) {
+			createAggregators();
+		}
+
+		int sampledThreads = 0;
+		int runnableThreads = 0;
+		PackageMatcher packageMatcher = m_packageMatcher;
+		long sampleTime = System.currentTimeMillis();
+		if (isResetThreadSampledAt) {
+			isResetThreadSampledAt = false;
+			threadSampledAt.clear();
+			lastSampleAt = 0L;
 		}
-		Collection<Map.Entry<Thread, StackTraceElement[]>> threadEntries = sampleTheseThreadOnly.size() > 0 ?
-				sampledThreadsMap.entrySet() : Thread.getAllStackTraces().entrySet();
-		for (Map.Entry<Thread, StackTraceElement[]> threadEntry : threadEntries)
+		List<ThreadSnapshot> threadSnapshots = stackCapturer.capture(sampleTheseThreadOnly);
+		threadNameManipulator.beginSample();
+		for (ThreadSnapshot threadSnapshot : threadSnapshots)
 		{
-			Thread sampledThread = threadEntry.getKey();
+			Thread sampledThread = threadSnapshot.getThread();
 			if (sampleTheseThreadOnly.size() > 0 && ! sampleTheseThreadOnly.contains(sampledThread)) {
 				continue;
 			}
 
+			ThreadSnapshot.Kind kind = threadSnapshot.getKind();
 			String aggregatedThreadName = threadNameManipulator.getManipulatedThreadName(sampledThread);
-			if (aggregatedThreadName == null || (skipDaemonThreads && sampledThread.isDaemon())) {
+			if (kind == ThreadSnapshot.Kind.VIRTUAL) {
+				// Virtual threads are daemon threads and are unnamed by default
+				if (aggregatedThreadName == null && sampledThread.getName().isEmpty()) {
+					aggregatedThreadName = UNNAMED_VIRTUAL_THREADS;
+				}
+			}
+			else if (skipDaemonThreads && sampledThread.isDaemon() && kind != ThreadSnapshot.Kind.CARRIER) {
+				continue;
+			}
+
+			if (aggregatedThreadName == null) {
 				continue;
 			}
 
-			ThreadGroupSamples threadGroupSamples = m_samplingMap.get(aggregatedThreadName);
+			if (kind == ThreadSnapshot.Kind.CARRIER) {
+				aggregatedThreadName = carrierThreadNames.computeIfAbsent(aggregatedThreadName, name -> CARRIER_PREFIX + name);
+			}
+
+			Aggregator aggregator = aggregators[sampledThreads % aggregators.length];
+			HashMap<String, ThreadGroupSamples> shard = aggregator.getShard();
+			ThreadGroupSamples threadGroupSamples = shard.get(aggregatedThreadName);
 			if (threadGroupSamples == null)
 			{
 				threadGroupSamples = new ThreadGroupSamples();
-				m_samplingMap.put(aggregatedThreadName, threadGroupSamples);
+				shard.put(aggregatedThreadName, threadGroupSamples);
+			}
+
+			sampledThreads++;
+			SampleState state = SampleState.of(threadSnapshot.getState());
+			if (state == SampleState.RUNNING) {
+				runnableThreads++;
+			}
+			long cpuNanos = isMeasureCpuTime ? getCpuNanosDelta(sampledThread.getId()) : 0L;
+			long threadDuration = getThreadDuration(sampledThread.getId(), sampleTime, duration);
+			if (aggregators.length == 1) {
+				aggregator.aggregate(threadSnapshot, threadGroupSamples, threadDuration, cpuNanos, state, packageMatcher);
+			} else {
+				aggregator.add(threadSnapshot, threadGroupSamples, threadDuration, cpuNanos, state);
+			}
+
+			if (isReportLockContention && state == SampleState.BLOCKED && threadSnapshot.getLockInfo() != null && threadSnapshot.getStackTrace().length > 0) {
+				if (blockedSnapshots.size() == blockedDurations.length) {
+					blockedDurations = Arrays.copyOf(blockedDurations, blockedDurations.length * 2);
+				}
+				blockedDurations[blockedSnapshots.size()] = threadDuration;
+				blockedSnapshots.add(threadSnapshot);
+				blockedThreadGroups.add(threadGroupSamples);
+			}
+		}
+
+		if (aggregators.length > 1) {
+			aggregateInParallel(packageMatcher);
+		}
+		for (Aggregator aggregator : aggregators) {
+			intervalNodeCount += aggregator.addedNodes;
+			aggregator.addedNodes = 0;
+			aggregator.frameCache.flushHits();
+		}
+
+		if (blockedSnapshots.size() > 0) {
+			sampleLockContention(threadSnapshots);
+		}
+
+		if (maxNodes > 0 && intervalNodeCount > maxNodes) {
+			intervalNodeCount -= CallTreePruner.prune(getShardedThreadGroups(), maxNodes / 4 * 3);
+		}
+
+		this.runnableThreads = runnableThreads;
+		lastSampleAt = sampleTime;
+		return sampledThreads;
+	}
+
+	private void createAggregators()
+	{
+		aggregators = new Aggregator[Math.max(1, aggregationThreads)];
+		for (int i = 0; i < aggregators.length; i++) {
+			aggregators[i] = new Aggregator(i == 0);
+		}
+
+		if (aggregators.length > 1)
+		{
+			aggregationPool = Executors.newFixedThreadPool(aggregators.length - 1, r -> {
+				Thread aggregatorThread = new Thread(r);
+				aggregatorThread.setDaemon(true);
+				aggregatorThread.setName("Performance Sampler Aggregator");
+				return aggregatorThread;
+			});
+		}
+	}
+
+	/** Aggregate the staged snapshots of all aggregators, and wait for the pool even if interrupted. **/
+	private void aggregateInParallel(PackageMatcher packageMatcher)
+	{
+		CountDownLatch done = new CountDownLatch(aggregators.length - 1);
+		for (int i = 1; i < aggregators.length; i++) {
+			aggregators[i].start(packageMatcher, done);
+		}
+		aggregators[0].aggregateStaged(packageMatcher);
+
+		boolean isInterrupted = false;
+		while (true)
+		{
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		poolCpuNanos = 0L;
+		for (int i = 1; i < aggregators.length; i++)
+		{
+			Aggregator aggregator = aggregators[i];
+			poolCpuNanos += aggregator.cpuNanos;
+			if (aggregator.failure != null) {
+				RuntimeException failure = aggregator.failure;
+				aggregator.failure = null;
+				throw failure;
+			}
+		}
+	}
+
+	/** @return thread groups of the current aggregation, including those of shards not merged yet. **/
+	private Collection<ThreadGroupSamples> getShardedThreadGroups()
+	{
+		if (aggregators.length == 1) {
+			return m_samplingMap.values();
+		}
+
+		ArrayList<ThreadGroupSamples> threadGroups = new ArrayList<>(m_samplingMap.values());
+		for (int i = 1; i < aggregators.length; i++) {
+			threadGroups.addAll(aggregators[i].shard.values());
+		}
+		return threadGroups;
+	}
+
+	/** Merge the shards of parallel aggregation into the current aggregation, and apply the node budget per aggregated thread. **/
+	private void mergeShards()
+	{
+		if (aggregators == null || aggregators.length == 1) {
+			return;
+		}
+
+		for (int i = 1; i < aggregators.length; i++)
+		{
+			HashMap<String, ThreadGroupSamples> shard = aggregators[i].shard;
+			if (shard.isEmpty()) {
+				continue;
+			}
+
+			// The shard's nodes are already counted, and merging counts only the nodes it adds
+			for (ThreadGroupSamples threadGroupSamples : shard.values()) {
+				intervalNodeCount -= threadGroupSamples.nodeCount;
+			}
+			mergeSamples(shard);
+			shard.clear();
+		}
+
+		if (maxNodesPerThreadGroup > 0) {
+			for (ThreadGroupSamples threadGroupSamples : m_samplingMap.values()) {
+				if (threadGroupSamples.nodeCount > maxNodesPerThreadGroup) {
+					intervalNodeCount -= CallTreePruner.prune(threadGroupSamples, maxNodesPerThreadGroup / 4 * 3);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return time represented by a thread's sample: the time since the thread was last sampled. A thread absent from
+	 * the previous sample started, or was mapped by the thread name manipulator again, at an unknown moment since, so
+	 * it is credited half the time since that sample.<br>**/
+	private long getThreadDuration(long threadId, long sampleTime, long duration)
+	{
+		long[] sampledAt = threadSampledAt.get(threadId);
+		if (sampledAt == null) {
+			threadSampledAt.put(threadId, new long[] {sampleTime});
+			return lastSampleAt == 0L ? duration : (duration + 1) / 2;
+		}
+		if (sampledAt[0] != lastSampleAt) {
+			sampledAt[0] = sampleTime;
+			return (duration + 1) / 2;
+		}
+
+		long elapsed = sampleTime - sampledAt[0];
+		sampledAt[0] = sampleTime;
+		return elapsed;
+	}
+	
+	private void checkBurstTriggers()
+	{
+		long now = System.currentTimeMillis();
+		if (now < lastBurstEndedAt + burstCooldownMillis) {
+			return;
+		}
+
+		for (BurstTrigger trigger : burstTriggers)
+		{
+			String reason = trigger.check(runnableThreads);
+			if (reason != null)
+			{
+				burstStartedAt = now;
+				burstEndsAt = now + burstDurationMillis;
+				mergeShards();
+				regularSamplingMap = m_samplingMap;
+				regularNodeCount = intervalNodeCount;
+				m_samplingMap = new HashMap<>();
+				intervalNodeCount = 0;
+				synchronized (samplingPeriodLock)
+				{
+					burstReason = reason;
+					regularSamplingPeriodMillis = samplingPeriodMillis;
+					samplingPeriodMillis = Math.min(samplingPeriodMillis, burstSamplingPeriodMillis);
+				}
+				metrics.setSamplingFrequencyMillis(samplingPeriodMillis);
+				return;
+			}
+		}
+	}
+
+	/** Report the burst as a separate interval, and add its samples to the regular aggregation. **/
+	private void endBurst()
+	{
+		long now = System.currentTimeMillis();
+		mergeShards();
+		HashMap<String, ThreadGroupSamples> burstSamplingMap = m_samplingMap;
+		SamplingInterval burst = new SamplingInterval(burstStartedAt, now, burstSamplingMap, frameTable.getFrameTexts(), burstReason);
+		m_samplingMap = regularSamplingMap;
+		intervalNodeCount = regularNodeCount;
+		regularSamplingMap = null;
+		lastBurstEndedAt = now;
+		synchronized (samplingPeriodLock)
+		{
+			burstReason = null;
+			// Resume at the period in effect before the burst, which adaptive sampling may have backed off, unless the
+			// frequency was set during the burst
+			samplingPeriodMillis = regularSamplingPeriodMillis;
+		}
+		metrics.setSamplingFrequencyMillis(samplingPeriodMillis);
+
+		mergeSamples(burstSamplingMap);
+		if (burstSamplingMap.size() > 0) {
+			submitReport(() -> printBurstReport(burst));
+		}
+	}
+
+	/** Add samples aggregated by the same frame table to the current aggregation. The source is not modified. **/
+	private void mergeSamples(HashMap<String, ThreadGroupSamples> samplingMap)
+	{
+		for (Map.Entry<String, ThreadGroupSamples> aggregatedThread : samplingMap.entrySet())
+		{
+			ThreadGroupSamples source = aggregatedThread.getValue();
+			ThreadGroupSamples target = m_samplingMap.computeIfAbsent(aggregatedThread.getKey(), name -> new ThreadGroupSamples());
+			target.threadNamesMap.putAll(source.threadNamesMap);
+			target.maxDepth = Math.max(target.maxDepth, source.maxDepth);
+			target.foldedTime += source.foldedTime;
+			target.foldedNodes += source.foldedNodes;
+			int addedNodes = mergeCallTree(source.callTree, target.callTree);
+			target.nodeCount += addedNodes;
+			intervalNodeCount += addedNodes;
+			for (LockContention contention : source.contentionMap.values())
+			{
+				LockContention copy = new LockContention(contention.getLockClassName(), contention.getLockIdentityHashCode(),
+						contention.getWaitingFrameId(), contention.getOwnerFrameId());
+				LockContention existing = target.contentionMap.putIfAbsent(copy, copy);
+				(existing == null ? copy : existing).add(contention.getBlockedTime(), contention.getSamples(), contention.getOwnerThreadName());
+			}
+		}
+	}
+
+	private static int mergeCallTree(SampleCount source, SampleCount target)
+	{
+		int addedNodes = 0;
+		for (SampleCount sourceChild : source.getChildren())
+		{
+			int childCount = target.getChildCount();
+			SampleCount targetChild = target.getOrCreateChild(sourceChild.getFrameId());
+			addedNodes += target.getChildCount() - childCount;
+			targetChild.addCounts(sourceChild);
+			addedNodes += mergeCallTree(sourceChild, targetChild);
+		}
+		return addedNodes;
+	}
+
+	/** Invoked by the reporter. **/
+	private void printBurstReport(SamplingInterval burst)
+	{
+		try {
+			burst.report(reportOutputer, isSkipIdleThreads);
+			reportOutputer.flush();
+		} catch (Exception e) {
+			outputer.printError("ThreadsSampler - burst report failed", e);
+		}
+	}
+
+	/**
+	 * Aggregates thread snapshots into call trees. Each aggregator owns a shard of the current aggregation, so several
+	 * aggregators may run concurrently. The first aggregator's shard is the current aggregation itself, and runs on
+	 * the sampler thread. The others' shards are merged into it by mergeShards().<br>**/
+	private final class Aggregator implements Runnable
+	{
+		private final boolean isSamplerThread;
+		private HashMap<String, ThreadGroupSamples> shard = new HashMap<>();
+		private final FrameTable.FrameCache frameCache = frameTable.newCache();
+		// Copy of the sampler's package matcher, as matchers are not thread safe
+		private PackageMatcher packageMatcher = null;
+		private PackageMatcher sourcePackageMatcher = null;
+		// Frame IDs, and their method IDs, of the current sample's path from the bottom of the stack
+		private int[] pathFrameIds = new int[256];
+		private int[] pathMethodIds = new int[256];
+		// Index within the path per method ID. Stale entries are detected by comparing with pathMethodIds
+		private int[] methodPathIndexes = new int[1024];
+		// Call tree nodes added by the last sample, less pruned ones
+		private int addedNodes = 0;
+		// Snapshots of the current sample staged for parallel aggregation, and their sample values
+		private ThreadSnapshot[] snapshots = new ThreadSnapshot[64];
+		private ThreadGroupSamples[] threadGroups = new ThreadGroupSamples[64];
+		private long[] threadDurations = new long[64];
+		private long[] threadCpuNanos = new long[64];
+		private SampleState[] states = new SampleState[64];
+		private int stagedCount = 0;
+		private CountDownLatch done = null;
+		private long cpuNanos = 0L;
+		private RuntimeException failure = null;
+
+		Aggregator(boolean isSamplerThread) {
+			this.isSamplerThread = isSamplerThread;
+		}
+
+		HashMap<String, ThreadGroupSamples> getShard() {
+			return isSamplerThread ? m_samplingMap : shard;
+		}
+
+		void add(ThreadSnapshot threadSnapshot, ThreadGroupSamples threadGroupSamples, long threadDuration, long cpuNanos, SampleState state)
+		{
+			if (stagedCount == snapshots.length)
+			{
+				snapshots = Arrays.copyOf(snapshots, stagedCount * 2);
+				threadGroups = Arrays.copyOf(threadGroups, stagedCount * 2);
+				threadDurations = Arrays.copyOf(threadDurations, stagedCount * 2);
+				threadCpuNanos = Arrays.copyOf(threadCpuNanos, stagedCount * 2);
+				states = Arrays.copyOf(states, stagedCount * 2);
 			}
+			snapshots[stagedCount] = threadSnapshot;
+			threadGroups[stagedCount] = threadGroupSamples;
+			threadDurations[stagedCount] = threadDuration;
+			threadCpuNanos[stagedCount] = cpuNanos;
+			states[stagedCount] = state;
+			stagedCount++;
+		}
 
-			StackTraceElement[] stackTrace = threadEntry.getValue();
-			StringBuilder sb = new StringBuilder();
+		/** Aggregate the staged snapshots on the pool. **/
+		void start(PackageMatcher packageMatcher, CountDownLatch done)
+		{
+			if (packageMatcher != sourcePackageMatcher) {
+				this.packageMatcher = packageMatcher.copy();
+				sourcePackageMatcher = packageMatcher;
+			}
+			this.done = done;
+			aggregationPool.execute(this);
+		}
+
+		@Override
+		public void run()
+		{
+			long startCpuNanos = selfThreadMXBean != null ? selfThreadMXBean.getCurrentThreadCpuTime() : 0L;
+			try {
+				aggregateStaged(packageMatcher);
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				cpuNanos = selfThreadMXBean != null ? selfThreadMXBean.getCurrentThreadCpuTime() - startCpuNanos : 0L;
+				done.countDown();
+			}
+		}
+
+		void aggregateStaged(PackageMatcher packageMatcher)
+		{
+			try {
+				for (int i = 0; i < stagedCount; i++) {
+					aggregate(snapshots[i], threadGroups[i], threadDurations[i], threadCpuNanos[i], states[i], packageMatcher);
+				}
+			} finally {
+				Arrays.fill(snapshots, 0, stagedCount, null);
+				Arrays.fill(threadGroups, 0, stagedCount, null);
+				stagedCount = 0;
+			}
+		}
+
+		void aggregate(ThreadSnapshot threadSnapshot, ThreadGroupSamples threadGroupSamples, long threadDuration, long cpuNanos,
+				SampleState state, PackageMatcher packageMatcher)
+		{
+			Thread sampledThread = threadSnapshot.getThread();
+			StackTraceElement[] stackTrace = threadSnapshot.getStackTrace();
 			threadGroupSamples.threadNamesMap.put(sampledThread.getId(), sampledThread.getName());
 			if (stackTrace.length > threadGroupSamples.maxDepth) {
 				threadGroupSamples.maxDepth = stackTrace.length;
 			}
 
 			int deepestIndex = 0;
-			if (m_packagePrefixes.length > 0 && stackTrace.length > 0)
+			if (! packageMatcher.isEmpty() && stackTrace.length > 0)
 			{
+				// The current method is the one invoked by the topmost monitored frame
 				deepestIndex = (stackTrace.length < 2) ? stackTrace.length : stackTrace.length - 1;
-				for (int i = stackTrace.length - 1; i >= 1; i--)
+				for (int i = 1; i < stackTrace.length; i++)
 				{
-					if (isMonitoredPackageName(stackTrace[i].getClassName()))
+					if (packageMatcher.matches(stackTrace[i].getClassName()))
 					{
-						if (i < 2) {
-							deepestIndex = 0;
-						} else {
-							deepestIndex = i - 1;
-						}
+						deepestIndex = (i < 2) ? 0 : i - 1;
+						break;
 					}
 				}
 			}
 
-			for (int i = stackTrace.length - 1; i >= deepestIndex; i--)
+			int pathLength = collectPath(stackTrace, deepestIndex);
+			SampleCount count = threadGroupSamples.callTree;
+			for (int i = 0; i < pathLength; i++)
 			{
-				if (i < stackTrace.length - 1) {
-					sb.append(",");
-				}
-				
-				String packageClassMethodLine = stackTrace[i].toString();
-				if (stackTrace[i].getClassName().startsWith("sun.reflect.GeneratedMethodAccessor")) {
-					packageClassMethodLine = digitsRemover.matcher(packageClassMethodLine).replaceAll("");
+				SampleCount parent = count;
+				int childCount = parent.getChildCount();
+				count = parent.getOrCreateChild(pathFrameIds[i]);
+				if (parent.getChildCount() != childCount) {
+					threadGroupSamples.nodeCount++;
+					addedNodes++;
 				}
-				sb.append(packageClassMethodLine);
-				
-				String methodKey = sb.toString();
-				SampleCount count = threadGroupSamples.samplingMap.get(methodKey);
-				if (count == null)
+				count.increment(threadDuration, i == pathLength - 1, state, cpuNanos);
+			}
+
+			if (maxNodesPerThreadGroup > 0 && threadGroupSamples.nodeCount > maxNodesPerThreadGroup) {
+				addedNodes -= CallTreePruner.prune(threadGroupSamples, maxNodesPerThreadGroup / 4 * 3);
+			}
+		}
+
+		/**
+		 * Collect the frame IDs to be aggregated into pathFrameIds, from the bottom of the stack to the current method,
+		 * omitting transparent frames and folding recursive calls.
+		 * @return path length.<br>**/
+		private int collectPath(StackTraceElement[] stackTrace, int deepestIndex)
+		{
+			if (stackTrace.length > pathFrameIds.length) {
+				pathFrameIds = new int[stackTrace.length * 2];
+				pathMethodIds = new int[stackTrace.length * 2];
+			}
+
+			int pathLength = 0;
+			for (int i = stackTrace.length - 1; i >= deepestIndex; i--)
+			{
+				int frameId = frameCache.getFrameId(stackTrace[i]);
+				if (isFoldFrames)
 				{
-					count = new SampleCount(packageClassMethodLine, stackTrace.length - i - 1);
-					threadGroupSamples.samplingMap.put(methodKey, count);
+					if (i != deepestIndex && frameCache.isTransparent(frameId)) {
+						continue;
+					}
+
+					if (isCollapseRecursion)
+					{
+						int methodId = frameCache.getMethodId(frameId);
+						if (methodId >= methodPathIndexes.length) {
+							methodPathIndexes = Arrays.copyOf(methodPathIndexes, Math.max(methodId + 1, methodPathIndexes.length * 2));
+						}
+
+						int pathIndex = methodPathIndexes[methodId];
+						if (pathIndex < pathLength && pathMethodIds[pathIndex] == methodId) {
+							// Recursive call. Continue aggregating from the outermost invocation
+							pathLength = pathIndex + 1;
+							continue;
+						}
+						methodPathIndexes[methodId] = pathLength;
+						pathMethodIds[pathLength] = methodId;
+					}
 				}
 
-				count.increment(duration, i == deepestIndex);
+				pathFrameIds[pathLength++] = frameId;
 			}
+
+			return pathLength;
 		}
+	}
 
-		isEmptySamplingMap = m_samplingMap.size() == 0;
+	private void sampleLockContention(List<ThreadSnapshot> threadSnapshots)
+	{
+		HashMap<Long, ThreadSnapshot> snapshotsById = new HashMap<>(threadSnapshots.size() * 2);
+		for (ThreadSnapshot threadSnapshot : threadSnapshots) {
+			snapshotsById.put(threadSnapshot.getThread().getId(), threadSnapshot);
+		}
+
+		for (int i = 0; i < blockedSnapshots.size(); i++)
+		{
+			ThreadSnapshot blockedSnapshot = blockedSnapshots.get(i);
+			ThreadSnapshot ownerSnapshot = snapshotsById.get(blockedSnapshot.getLockOwnerId());
+			LockContention contention = new LockContention(blockedSnapshot.getLockInfo().getClassName(),
+					blockedSnapshot.getLockInfo().getIdentityHashCode(), getTopMonitoredFrameId(blockedSnapshot.getStackTrace()),
+					ownerSnapshot == null ? SampleCount.ROOT_FRAME_ID : getTopMonitoredFrameId(ownerSnapshot.getStackTrace()));
+			HashMap<LockContention, LockContention> contentionMap = blockedThreadGroups.get(i).contentionMap;
+			LockContention existing = contentionMap.putIfAbsent(contention, contention);
+			(existing == null ? contention : existing).increment(blockedDurations[i], blockedSnapshot.getLockOwnerName());
+		}
+
+		blockedSnapshots.clear();
+		blockedThreadGroups.clear();
 	}
-	
-	private boolean isMonitoredPackageName(String fullPackageName) 
+
+	private int getTopMonitoredFrameId(StackTraceElement[] stackTrace)
 	{
-		for (String monitoredPackagePrefix : m_packagePrefixes) {
-			if (fullPackageName.startsWith(monitoredPackagePrefix)) {
-				return true;
+		if (stackTrace.length == 0) {
+			return SampleCount.ROOT_FRAME_ID;
+		}
+
+		for (StackTraceElement element : stackTrace) {
+			if (m_packageMatcher.matches(element.getClassName())) {
+				return frameTable.getFrameId(element);
 			}
 		}
-		
-		return false;
+
+		return frameTable.getFrameId(stackTrace[0]);
 	}
-	
+
+	private long getCpuNanosDelta(long threadId)
+	{
+		long cpuNanos = threadMXBean.getThreadCpuTime(threadId);
+		if (cpuNanos < 0L) {
+			return 0L;
+		}
+
+		long[] prevCpuNanos = threadCpuNanos.get(threadId);
+		if (prevCpuNanos == null) {
+			threadCpuNanos.put(threadId, new long[] {cpuNanos});
+			return 0L;
+		}
+
+		long delta = cpuNanos - prevCpuNanos[0];
+		prevCpuNanos[0] = cpuNanos;
+		return delta;
+	}
+
 	public void shutdown()
 	{
-		if (samplerThread != null && samplerThread.isAlive())
+		try
 		{
-			try
+			if (samplerThread != null && samplerThread.isAlive())
 			{
 				m_continue = false;
 				isActive = false;
-
-				if (m_samplingMap.size() > 0) {
-					printReport();
-				}
 				samplerThread.interrupt();
-				for (int i = 0; i < 50 && samplerThread.isAlive(); i++) {
-					Thread.sleep(1L);
+				samplerThread.join(shutdownTimeoutMillis);
+			}
+			else {
+				rollInterval();
+				if (reporter != null) {
+					reporter.shutdown();
 				}
-			} catch (InterruptedException e) {}
-		}
-		else {
-			printReportNow();
-		}
+				if (aggregationPool != null) {
+					aggregationPool.shutdown();
+				}
+			}
+
+			if (reporter != null) {
+				reporter.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {}
 	}
 	
 	public void printReport()
@@ -303,69 +1218,134 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 		m_printRequested = true;
 	}
 
-	private static final Pattern packagePattern = Pattern.compile("([a-z]+\\.([a-z]+|)).*");
+	/**
+	 * Swap the current aggregation out as a frozen interval and hand it to the reporter.<br>
+	 * Invoked by the sampler thread, or by the caller if the sampler thread is not running.<br>**/
+	private void rollInterval()
+	{
+		long now = System.currentTimeMillis();
+		SamplingInterval interval = swapInterval(now, true);
+		if (retention != null) {
+			if (interval != null) {
+				submitReport(() -> retain(interval));
+			}
+			submitReport(this::printRetainedReport);
+		}
+		else if (interval != null) {
+			submitReport(() -> printReport(interval));
+		}
+
+		lastReportAt = now;
+	}
 
-	private synchronized void printReportNow()
+	/** Swap the current aggregation out as a retained slice, without reporting. **/
+	private void rollSlice()
 	{
-	    if (isEmptySamplingMap) {
-	    	return;
+		SamplingInterval slice = swapInterval(System.currentTimeMillis(), false);
+		if (slice != null) {
+			submitReport(() -> retain(slice));
 		}
-		String spaces = "                                                                                                                                                      ";
-		long[] depthMethodTime = new long[1000];
-		long[] depthCummulativeTime = new long[1000];
-		String[] depthPackage = new String[1000];
-		outputer.printIntervalTitle("Report interval: from " + new Date(lastReportAt) + " till " + new Date());
-		for (Map.Entry<String, ThreadGroupSamples> aggregatedThread : m_samplingMap.entrySet())
+	}
+
+	/**
+	 * @param isReportInterval - true if the report interval ends, or false for a retention slice within it. Frame
+	 * eviction counts report intervals only, so slices share the frame texts array until it is replaced.
+	 * @return the current aggregation as a frozen interval, or null if nothing was sampled.<br>**/
+	private SamplingInterval swapInterval(long now, boolean isReportInterval)
+	{
+		mergeShards();
+		SamplingInterval interval = null;
+		if (m_samplingMap.size() > 0)
 		{
-			ThreadGroupSamples  tgs = aggregatedThread.getValue();
-			String threadTitle = "Aggregated thread: " + aggregatedThread.getKey() + ". Max depth: " + tgs.maxDepth +
-					". Distinct threads: " + tgs.threadNamesMap.size() + " " + tgs.threadNamesMap.values();
-			StringBuilder sb = new StringBuilder();
-			
-			TreeMap<String, SampleCount> methodsMap = tgs.samplingMap;
-			for (Map.Entry<String, SampleCount> method: methodsMap.entrySet())
-			{
-				SampleCount sc = method.getValue();
-				if (sc.getDepth() < depthMethodTime.length) {
-					depthMethodTime[sc.getDepth()] = sc.getMethodTime();
-					depthCummulativeTime[sc.getDepth()] = sc.getCummulativeTime();
-					if (isReportZeroTimePackages) {
-                        Matcher packageMatcher = packagePattern.matcher(sc.getPackageClassMethodLine());
-                        depthPackage[sc.getDepth()] = packageMatcher.matches() ? packageMatcher.group(1) : sc.getPackageClassMethodLine();
-                    } else {
-                        depthPackage[sc.getDepth()] = "";
-                    }
-				}
-				
-				if (sc.getDepth() >= depthMethodTime.length || (sc.getMethodTime() == 0L &&
-						sc.getDepth() > 0 && sc.getCummulativeTime() == depthCummulativeTime[sc.getDepth() - 1] &&
-						depthPackage[sc.getDepth()].equals(depthPackage[sc.getDepth() - 1]))) {
-					continue;
-				}
-				
-				int collapsedDepth = 0;
-				String[] tokens = commaSplitter.split(method.getKey());
-				for (int i = 0; i < sc.getDepth(); i++)
-				{
-					if (depthCummulativeTime[i] != depthCummulativeTime[i + 1] || depthMethodTime[i + 1] > 0L ||
-							! depthPackage[i +1].equals(depthPackage[i])) {
-						collapsedDepth++;
-						sb.append("  ");
-					}
+			interval = new SamplingInterval(Math.max(lastReportAt, lastSliceAt), now, m_samplingMap, frameTable.getFrameTexts());
+			metrics.setNodeCount(intervalNodeCount);
+			intervalNodeCount = 0;
+			if (isMeasureCpuTime) {
+				HashSet<Long> sampledThreadIds = new HashSet<>();
+				for (ThreadGroupSamples tgs : m_samplingMap.values()) {
+					sampledThreadIds.addAll(tgs.threadNamesMap.keySet());
 				}
-				
-				int methodLength = 2 * collapsedDepth + tokens[sc.getDepth()].length();
-				
-				sb.append(tokens[sc.getDepth()]).append(" ").append(spaces.substring(0, methodLength < spaces.length() ? spaces.length() - methodLength : 0)).
-					append(" Cumulative time(ms): ").append(sc.getCummulativeTime()).append(", Method time(ms): ").append(sc.getMethodTime()).append("\n");
+				threadCpuNanos.keySet().retainAll(sampledThreadIds);
+			}
+			// Threads absent from the last sample are treated as new once they reappear
+			threadSampledAt.values().removeIf(sampledAt -> sampledAt[0] < lastSampleAt);
+			m_samplingMap = new HashMap<>();
+		}
+
+		if (isReportInterval) {
+			frameTable.endInterval();
+		}
+		lastSliceAt = now;
+		return interval;
+	}
+
+	private void submitReport(Runnable task)
+	{
+		if (reporter != null && ! reporter.isShutdown()) {
+			reporter.execute(task);
+		}
+		else {
+			task.run();
+		}
+	}
+
+	/** Invoked by the reporter. **/
+	private void retain(SamplingInterval slice)
+	{
+		try {
+			retention.add(slice);
+			reportMerger.merge(slice);
+		} catch (Exception e) {
+			outputer.printError("ThreadsSampler - retention failed", e);
+		}
+	}
+
+	/** Invoked by the reporter. **/
+	private void printRetainedReport()
+	{
+		if (! reportMerger.isEmpty()) {
+			SamplingInterval interval = reportMerger.toSamplingInterval();
+			reportMerger = new IntervalMerger();
+			printReport(interval);
+		}
+	}
+
+	private void printReport(SamplingInterval interval)
+	{
+		try {
+			long startNanos = System.nanoTime();
+			interval.report(reportOutputer, isSkipIdleThreads);
+			metrics.recordReport(System.nanoTime() - startNanos);
+			if (diffTopMethods > 0) {
+				printDiff(interval);
+			}
+			if (isReportSelfMetrics) {
+				reportOutputer.printIntervalTitle(metrics.toString());
+				reportOutputer.flush();
+			}
+		} catch (Exception e) {
+			outputer.printError("ThreadsSampler - report failed", e);
+		}
+	}
+
+	private void printDiff(SamplingInterval interval) throws IOException
+	{
+		SamplingInterval baseline = diffBaseline != null ? diffBaseline : previousInterval;
+		previousInterval = interval;
+		if (baseline == null) {
+			return;
+		}
+
+		ProfileDiff diff = new ProfileDiff(baseline, interval);
+		if (diffOutputer != null) {
+			diff.report(diffOutputer, diffTopMethods);
+			diffOutputer.flush();
+		}
+		if (diffFoldedFileName != null) {
+			try (Writer out = Files.newBufferedWriter(Paths.get(diffFoldedFileName), StandardCharsets.UTF_8)) {
+				diff.writeFolded(out, true);
 			}
-			
-			outputer.printThreadRecord(threadTitle, sb.toString());
 		}
-		
-		outputer.flush();
-		m_samplingMap.clear();
-		isEmptySamplingMap = true;
 	}
 
 	@Override
@@ -376,5 +1356,8 @@ public class ThreadsSampler implements Runnable, AutoCloseable
 		if (outputer != null) {
 			outputer.close();
 		}
+		if (diffOutputer != null && diffOutputer != reportOutputer) {
+			diffOutputer.close();
+		}
 	}
 }
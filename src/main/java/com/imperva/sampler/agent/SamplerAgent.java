@@ -0,0 +1,233 @@
+package com.imperva.sampler.agent;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.imperva.sampler.SampleRetention;
+import com.imperva.sampler.ThreadsSampler;
+import com.imperva.sampler.binary.RollingSampleLogOutputer;
+import com.imperva.sampler.capture.ThreadMXBeanCapturer;
+import com.imperva.sampler.collect.CollectorSamplingOutputer;
+import com.imperva.sampler.outputer.FoldedStackSamplingOutputer;
+import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.schedule.JitteredSamplingScheduler;
+import com.imperva.sampler.schedule.PoissonSamplingScheduler;
+import com.imperva.sampler.trigger.ProcessCpuTrigger;
+import com.imperva.sampler.trigger.RunnableThreadsTrigger;
+
+/**
+ * Starts a sampler in a JVM without code changes, either on startup or by attaching to a running JVM:<br>
+ * java -javaagent:perf-sampler.jar=monitoredPackages=com.acme.;samplingFrequencyMillis=50 ...<br>
+ * Agent arguments are semicolon separated. An argument without '=' is a properties file, whose properties are
+ * overridden by the other arguments. Properties are named after the sampler's setters, e.g. reportFrequencySeconds,
+ * as in Spring bean definitions. In addition:<br>
+ * outputFile, foldedFile or binaryLogDirectory - where to report. Defaults to stdout.<br>
+ * collector=host:port - send each report interval to a SampleCollector instead.<br>
+ * outputer - class name of a SamplingOutputer with a no argument constructor, instead.<br>
+ * At most one of these destinations may be set. A destination argument replaces the properties file's destination.<br>
+ * stackCapturer=threadMXBean - capture stacks, thread states and locks using ThreadMXBean.<br>
+ * retention=true - retain recent samples, so recent minutes may be reported over JMX.<br>
+ * samplingScheduler=poisson or jittered - randomize the delays between samples.<br>
+ * burstCpuPercent, burstRunnableThreads - burst sampling thresholds, see ThreadsSampler.addBurstTrigger().<br>
+ * jmx=false - do not register the ThreadsSamplerMXBean.<br>
+ * Attaching again replaces the running sampler.<br>**/
+public class SamplerAgent
+{
+	public static final String OBJECT_NAME = "com.imperva.sampler:type=ThreadsSampler";
+	private static final List<String> OUTPUT_PROPERTIES = Arrays.asList("outputFile", "foldedFile", "binaryLogDirectory", "collector", "outputer");
+
+	private static ThreadsSampler sampler = null;
+
+	public static void premain(String agentArgs, Instrumentation instrumentation) {
+		start(agentArgs);
+	}
+
+	public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+		start(agentArgs);
+	}
+
+	/** Start a sampler configured by agent arguments, replacing the sampler started previously, if any. **/
+	public static synchronized ThreadsSampler start(String agentArgs)
+	{
+		ThreadsSampler threadsSampler = null;
+		try
+		{
+			stop();
+			Properties properties = parseArguments(agentArgs);
+			threadsSampler = new ThreadsSampler();
+			configure(threadsSampler, properties);
+			threadsSampler.init();
+			if (! "false".equals(properties.getProperty("jmx"))) {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(new ThreadsSamplerControl(threadsSampler), new ObjectName(OBJECT_NAME));
+			}
+			sampler = threadsSampler;
+		}
+		catch (Exception e)
+		{
+			// Never fail the application's startup
+			System.out.println("com.imperva.sampler.agent.SamplerAgent - Failed to start the sampler.");
+			e.printStackTrace(System.out);
+			// Nothing else references a sampler which failed to start, so it would never be closed
+			if (threadsSampler != null && sampler != threadsSampler) {
+				try {
+					threadsSampler.close();
+				} catch (Exception closeException) {}
+			}
+		}
+
+		return sampler;
+	}
+
+	/** Stop the sampler started by the agent, if any, and unregister its MBean. **/
+	public static synchronized void stop() throws Exception
+	{
+		if (sampler == null) {
+			return;
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+		sampler.close();
+		sampler = null;
+	}
+
+	static Properties parseArguments(String agentArgs) throws IOException
+	{
+		Properties properties = new Properties();
+		Properties overrides = new Properties();
+		if (agentArgs != null)
+		{
+			for (String argument : agentArgs.split(";"))
+			{
+				argument = argument.trim();
+				int separator = argument.indexOf('=');
+				if (separator > 0) {
+					overrides.setProperty(argument.substring(0, separator).trim(), argument.substring(separator + 1).trim());
+				}
+				else if (argument.length() > 0) {
+					try (InputStream in = new FileInputStream(argument)) {
+						properties.load(in);
+					}
+				}
+			}
+		}
+
+		if (! Collections.disjoint(overrides.keySet(), OUTPUT_PROPERTIES)) {
+			properties.keySet().removeAll(OUTPUT_PROPERTIES);
+		}
+		properties.putAll(overrides);
+		return properties;
+	}
+
+	static void configure(ThreadsSampler threadsSampler, Properties properties) throws Exception
+	{
+		// Checked up front, as properties are unordered and the last destination set would win arbitrarily
+		List<String> outputs = new ArrayList<>(OUTPUT_PROPERTIES);
+		outputs.retainAll(properties.stringPropertyNames());
+		if (outputs.size() > 1) {
+			throw new IllegalArgumentException("Only one of " + outputs + " may be set");
+		}
+
+		for (String name : properties.stringPropertyNames())
+		{
+			String value = properties.getProperty(name).trim();
+			switch (name) {
+				case "outputFile":
+					threadsSampler.setSamplingOutputer(new PrintStreamSamplingOutputer(value));
+					break;
+				case "foldedFile":
+					threadsSampler.setSamplingOutputer(new FoldedStackSamplingOutputer(value));
+					break;
+				case "binaryLogDirectory":
+					threadsSampler.setSamplingOutputer(new RollingSampleLogOutputer(value, "samples"));
+					break;
+				case "collector":
+					threadsSampler.setSamplingOutputer(new CollectorSamplingOutputer(value));
+					break;
+				case "outputer":
+					threadsSampler.setSamplingOutputer((SamplingOutputer) Class.forName(value).getDeclaredConstructor().newInstance());
+					break;
+				case "stackCapturer":
+					if (value.equalsIgnoreCase("threadMXBean")) {
+						threadsSampler.setStackCapturer(new ThreadMXBeanCapturer());
+					}
+					break;
+				case "retention":
+					if (Boolean.parseBoolean(value)) {
+						threadsSampler.setRetention(new SampleRetention());
+					}
+					break;
+				case "samplingScheduler":
+					if (value.equalsIgnoreCase("poisson")) {
+						threadsSampler.setSamplingScheduler(new PoissonSamplingScheduler());
+					} else if (value.equalsIgnoreCase("jittered")) {
+						threadsSampler.setSamplingScheduler(new JitteredSamplingScheduler(0.5));
+					}
+					break;
+				case "burstCpuPercent":
+					threadsSampler.addBurstTrigger(new ProcessCpuTrigger(Double.parseDouble(value)));
+					break;
+				case "burstRunnableThreads":
+					threadsSampler.addBurstTrigger(new RunnableThreadsTrigger(Integer.parseInt(value)));
+					break;
+				case "jmx":
+					break;
+				default:
+					if (! setProperty(threadsSampler, name, value)) {
+						System.out.println("com.imperva.sampler.agent.SamplerAgent - Unknown property " + name + ". Ignored.");
+					}
+			}
+		}
+	}
+
+	/** Invoke the sampler's setter of the given property, if it has a single String or primitive parameter. **/
+	private static boolean setProperty(ThreadsSampler threadsSampler, String name, String value) throws Exception
+	{
+		if (name.isEmpty()) {
+			return false;
+		}
+
+		String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		for (Method method : ThreadsSampler.class.getMethods())
+		{
+			if (! method.getName().equals(setterName) || method.getParameterCount() != 1) {
+				continue;
+			}
+
+			Class<?> type = method.getParameterTypes()[0];
+			if (type == String.class) {
+				method.invoke(threadsSampler, value);
+			} else if (type == long.class) {
+				method.invoke(threadsSampler, Long.parseLong(value));
+			} else if (type == int.class) {
+				method.invoke(threadsSampler, Integer.parseInt(value));
+			} else if (type == double.class) {
+				method.invoke(threadsSampler, Double.parseDouble(value));
+			} else if (type == boolean.class) {
+				method.invoke(threadsSampler, Boolean.parseBoolean(value));
+			} else {
+				continue;
+			}
+			return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,79 @@
+package com.imperva.sampler.agent;
+
+import com.imperva.sampler.ThreadsSampler;
+
+public class ThreadsSamplerControl implements ThreadsSamplerMXBean
+{
+	private final ThreadsSampler sampler;
+
+	public ThreadsSamplerControl(ThreadsSampler sampler) {
+		this.sampler = sampler;
+	}
+
+	@Override
+	public void pauseSampling() {
+		sampler.pauseSampling();
+	}
+
+	@Override
+	public void resumeSampling() {
+		sampler.resumeSampling();
+	}
+
+	@Override
+	public void sampleOnceAndPrint() {
+		sampler.sampleOnceAndPrint();
+	}
+
+	@Override
+	public void printReport() {
+		sampler.printReport();
+	}
+
+	@Override
+	public void printRecentMinutesReport(int minutes)
+	{
+		long now = System.currentTimeMillis();
+		sampler.printWindowReport(now - minutes * 60000L, now);
+	}
+
+	@Override
+	public boolean isActive() {
+		return sampler.isActive();
+	}
+
+	@Override
+	public long getSamplingFrequencyMillis() {
+		return sampler.getSamplingFrequencyMillis();
+	}
+
+	@Override
+	public void setSamplingFrequencyMillis(long samplingFrequencyMillis) {
+		sampler.setSamplingFrequencyMillis(samplingFrequencyMillis);
+	}
+
+	@Override
+	public long getReportFrequencySeconds() {
+		return sampler.getReportFrequencySeconds();
+	}
+
+	@Override
+	public void setReportFrequencySeconds(long reportFrequencySeconds) {
+		sampler.setReportFrequencySeconds(reportFrequencySeconds);
+	}
+
+	@Override
+	public String getMonitoredPackages() {
+		return sampler.getMonitoredPackages();
+	}
+
+	@Override
+	public void setMonitoredPackages(String monitoredPackages) {
+		sampler.setMonitoredPackages(monitoredPackages);
+	}
+
+	@Override
+	public String getMetrics() {
+		return sampler.getMetrics().toString();
+	}
+}
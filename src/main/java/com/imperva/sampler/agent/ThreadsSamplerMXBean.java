@@ -0,0 +1,34 @@
+package com.imperva.sampler.agent;
+
+/**
+ * Live control of a running sampler, e.g. from JConsole or jmxterm during an incident.<br>
+ * Registered by the agent as com.imperva.sampler:type=ThreadsSampler.<br>**/
+public interface ThreadsSamplerMXBean
+{
+	void pauseSampling();
+	void resumeSampling();
+
+	/** Sample once and print the current interval. Sampling must be paused first. **/
+	void sampleOnceAndPrint();
+
+	/** Print the current interval now and start a new one. **/
+	void printReport();
+
+	/** Print the retained samples of the last given minutes. Requires retention. **/
+	void printRecentMinutesReport(int minutes);
+
+	boolean isActive();
+
+	long getSamplingFrequencyMillis();
+	void setSamplingFrequencyMillis(long samplingFrequencyMillis);
+
+	long getReportFrequencySeconds();
+	void setReportFrequencySeconds(long reportFrequencySeconds);
+
+	/** Package prefixes of the monitored code, e.g. "com.acme.,-com.acme.generated.". **/
+	String getMonitoredPackages();
+	void setMonitoredPackages(String monitoredPackages);
+
+	/** @return the sampler's own overhead metrics. **/
+	String getMetrics();
+}
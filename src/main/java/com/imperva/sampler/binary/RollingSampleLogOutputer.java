@@ -0,0 +1,253 @@
+package com.imperva.sampler.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+/**
+ * Writes report intervals to a rolling binary sample log, through memory mapped files.<br>
+ * Each interval is encoded in memory and appended as a whole, preceded by the frames it uses which the current file
+ * does not define yet. A new file is started when the current one is full or older than the configured age, and
+ * the oldest files are deleted above the configured amount of files.<br>
+ * Use SampleLogReader to merge and render the log.<br>**/
+public class RollingSampleLogOutputer implements StructuredSamplingOutputer
+{
+	public static final String FILE_SUFFIX = ".psmp";
+
+	private final File directory;
+	private final String filePrefix;
+	private long maxFileBytes = 64L * 1024 * 1024;
+	private long maxFileAgeMillis = 24L * 3600 * 1000;
+	private int maxFiles = 30;
+
+	private final SampleLogEncoder intervalEncoder = new SampleLogEncoder();
+	private final SampleLogEncoder framesEncoder = new SampleLogEncoder();
+	private final HashMap<String, Integer> frameIds = new HashMap<>();
+	private final ArrayList<String> frameTexts = new ArrayList<>();
+	private final ArrayDeque<Integer> freeFrameIds = new ArrayDeque<>();
+	private final BitSet fileFrames = new BitSet();
+	private final BitSet intervalFrames = new BitSet();
+
+	private FileChannel channel = null;
+	private MappedByteBuffer mappedBuffer = null;
+	private long fileOpenedAt = 0L;
+	private final ArrayDeque<File> files = new ArrayDeque<>();
+
+	public RollingSampleLogOutputer(String directory, String filePrefix)
+	{
+		this.directory = new File(directory);
+		this.filePrefix = filePrefix;
+		File[] existingFiles = this.directory.listFiles((dir, name) -> name.startsWith(filePrefix + "-") && name.endsWith(FILE_SUFFIX));
+		if (existingFiles != null) {
+			Arrays.sort(existingFiles);
+			files.addAll(Arrays.asList(existingFiles));
+		}
+	}
+
+	public void setMaxFileBytes(long maxFileBytes) {
+		this.maxFileBytes = maxFileBytes;
+	}
+
+	public void setMaxFileAgeMillis(long maxFileAgeMillis) {
+		this.maxFileAgeMillis = maxFileAgeMillis;
+	}
+
+	/** Amount of files to keep. Zero keeps all files. **/
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	@Override
+	public void beginInterval(long startTime, long endTime) {
+		intervalEncoder.clear();
+		intervalFrames.clear();
+		intervalEncoder.beginInterval(startTime, endTime);
+	}
+
+	@Override
+	public void beginBurstInterval(long startTime, long endTime, String reason) {
+		intervalEncoder.clear();
+		intervalFrames.clear();
+		intervalEncoder.beginBurstInterval(startTime, endTime, reason);
+	}
+
+	@Override
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+		intervalEncoder.beginThreadGroup(aggregatedThreadName, maxDepth, threadNames);
+	}
+
+	@Override
+	public void foldedTime(long foldedTime, int foldedNodes) {
+		intervalEncoder.foldedTime(foldedTime, foldedNodes);
+	}
+
+	@Override
+	public void node(int depth, String frame, SampleCount count) {
+		intervalEncoder.node(depth, getFrameId(frame), count);
+	}
+
+	@Override
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {
+		intervalEncoder.lockContention(contention, getFrameId(waitingFrame), ownerFrame == null ? SampleCount.ROOT_FRAME_ID : getFrameId(ownerFrame));
+	}
+
+	@Override
+	public void endThreadGroup() {
+		intervalEncoder.endThreadGroup();
+	}
+
+	@Override
+	public void endInterval()
+	{
+		intervalEncoder.endInterval();
+		try
+		{
+			if (mappedBuffer == null || System.currentTimeMillis() - fileOpenedAt > maxFileAgeMillis ||
+					mappedBuffer.remaining() < encodeNewFrames() + intervalEncoder.getBuffer().position() + 1) {
+				rollFile();
+			}
+
+			ByteBuffer frames = framesEncoder.getBuffer();
+			ByteBuffer interval = intervalEncoder.getBuffer();
+			frames.flip();
+			interval.flip();
+			mappedBuffer.put(frames);
+			mappedBuffer.put(interval);
+			fileFrames.or(intervalFrames);
+			mappedBuffer.force();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private int getFrameId(String frame)
+	{
+		Integer frameId = frameIds.get(frame);
+		if (frameId == null)
+		{
+			if (freeFrameIds.isEmpty()) {
+				frameId = frameTexts.size();
+				frameTexts.add(frame);
+			} else {
+				frameId = freeFrameIds.poll();
+				frameTexts.set(frameId, frame);
+			}
+			frameIds.put(frame, frameId);
+		}
+
+		intervalFrames.set(frameId);
+		return frameId;
+	}
+
+	/** @return size of the frame definitions the current interval needs in the current file. **/
+	private int encodeNewFrames()
+	{
+		framesEncoder.clear();
+		for (int frameId = intervalFrames.nextSetBit(0); frameId >= 0; frameId = intervalFrames.nextSetBit(frameId + 1)) {
+			if (! fileFrames.get(frameId)) {
+				framesEncoder.frame(frameId, frameTexts.get(frameId));
+			}
+		}
+
+		return framesEncoder.getBuffer().position();
+	}
+
+	private void rollFile() throws IOException
+	{
+		closeFile();
+
+		// The new file only has to define frames of the current interval, so forget all others
+		fileFrames.clear();
+		for (int frameId = 0; frameId < frameTexts.size(); frameId++) {
+			if (frameTexts.get(frameId) != null && ! intervalFrames.get(frameId)) {
+				frameIds.remove(frameTexts.get(frameId));
+				frameTexts.set(frameId, null);
+				freeFrameIds.add(frameId);
+			}
+		}
+
+		int requiredBytes = 5 + encodeNewFrames() + intervalEncoder.getBuffer().position() + 1;
+		if (! directory.exists() && ! directory.mkdirs()) {
+			throw new IOException("RollingSampleLogOutputer: failed to make dirs " + directory);
+		}
+
+		fileOpenedAt = System.currentTimeMillis();
+		File file = new File(directory, filePrefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(fileOpenedAt)) + FILE_SUFFIX);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, Math.max(maxFileBytes, requiredBytes));
+		mappedBuffer.putInt(SampleLogEncoder.MAGIC);
+		mappedBuffer.put(SampleLogEncoder.VERSION);
+		files.add(file);
+
+		while (maxFiles > 0 && files.size() > maxFiles) {
+			files.poll().delete();
+		}
+	}
+
+	private void closeFile() throws IOException
+	{
+		if (mappedBuffer == null) {
+			return;
+		}
+
+		long size = mappedBuffer.position();
+		mappedBuffer.put(SampleLogEncoder.END);
+		mappedBuffer.force();
+		mappedBuffer = null;
+		try {
+			// Unused mapped space is zero filled, which reads as END, so failing to truncate is harmless
+			channel.truncate(size + 1);
+		} catch (IOException e) {}
+		channel.close();
+		channel = null;
+	}
+
+	@Override
+	public void printIntervalTitle(String title) {
+	}
+
+	@Override
+	public void printThreadRecord(String threadName, String record) {
+	}
+
+	@Override
+	public void printError(String message, Throwable t) {
+		System.err.println(message);
+		t.printStackTrace(System.err);
+	}
+
+	@Override
+	public void flush() {
+		if (mappedBuffer != null) {
+			mappedBuffer.force();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try {
+			closeFile();
+		} catch (IOException e) {
+			printError("RollingSampleLogOutputer - failed to close file", e);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package com.imperva.sampler.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.imperva.sampler.IntervalMerger;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import com.imperva.sampler.ThreadGroupSamples;
+
+/**
+ * Decodes a binary sample log and merges its intervals into an IntervalMerger while reading, so memory is
+ * proportional to the merged call trees rather than to the log size.<br>
+ * A decoder keeps the log's frame dictionary, so a new decoder is needed per log.<br>
+ * Burst intervals are skipped by default, since their samples are also included in the enclosing report interval.<br>**/
+public class SampleLogDecoder
+{
+	private final InputStream in;
+	private final IntervalMerger merger;
+	private long fromTime = Long.MIN_VALUE;
+	private long toTime = Long.MAX_VALUE;
+	private boolean isBurstIntervals = false;
+
+	private int[] frameIds = new int[1024];
+	private SampleCount[] path = new SampleCount[64];
+	private long[] depthCounters = new long[64 * SampleLogEncoder.COUNTERS];
+	private final long[] counters = new long[SampleLogEncoder.COUNTERS * 2];
+
+	public SampleLogDecoder(InputStream in, IntervalMerger merger) {
+		this.in = in;
+		this.merger = merger;
+	}
+
+	/** Merge only intervals overlapping the given time range. **/
+	public void setTimeRange(long fromTime, long toTime) {
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+	}
+
+	/** Merge only burst intervals instead of report intervals. **/
+	public void setBurstIntervals(boolean isBurstIntervals) {
+		this.isBurstIntervals = isBurstIntervals;
+	}
+
+	public void readHeader() throws IOException
+	{
+		int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+		if (magic != SampleLogEncoder.MAGIC) {
+			throw new IOException("Not a sample log");
+		}
+		int version = readByte();
+		if (version < 1 || version > SampleLogEncoder.VERSION) {
+			throw new IOException("Unsupported sample log version " + version);
+		}
+	}
+
+	/**
+	 * Read records until the end of the log or the end of the next interval.
+	 * @return false when the end of the log was reached.<br>**/
+	public boolean readInterval() throws IOException
+	{
+		boolean isMerged = false;
+		ThreadGroupSamples threadGroup = null;
+		int prevDepth = -1;
+		while (true)
+		{
+			int tag = in.read();
+			switch (tag)
+			{
+				case -1:
+				case SampleLogEncoder.END:
+					return false;
+				case SampleLogEncoder.FRAME:
+				{
+					int localId = (int) readVarLong();
+					if (localId >= frameIds.length) {
+						frameIds = Arrays.copyOf(frameIds, Math.max(localId + 1, frameIds.length * 2));
+					}
+					frameIds[localId] = merger.getFrameId(readString());
+					break;
+				}
+				case SampleLogEncoder.INTERVAL_BEGIN:
+				case SampleLogEncoder.BURST_INTERVAL_BEGIN:
+				{
+					long startTime = readVarLong();
+					long endTime = startTime + readVarLong();
+					boolean isBurst = tag == SampleLogEncoder.BURST_INTERVAL_BEGIN;
+					if (isBurst) {
+						readString();
+					}
+					isMerged = isBurst == isBurstIntervals && startTime <= toTime && endTime >= fromTime;
+					if (isMerged) {
+						merger.addTimeRange(startTime, endTime);
+					}
+					break;
+				}
+				case SampleLogEncoder.GROUP_BEGIN:
+				{
+					String aggregatedThreadName = readString();
+					int maxDepth = (int) readVarLong();
+					threadGroup = isMerged ? merger.getThreadGroup(aggregatedThreadName) : null;
+					for (long i = readVarLong(); i > 0; i--) {
+						long threadId = readVarLong();
+						String threadName = readString();
+						if (threadGroup != null) {
+							threadGroup.threadNamesMap.put(threadId, threadName);
+						}
+					}
+					if (threadGroup != null) {
+						threadGroup.maxDepth = Math.max(threadGroup.maxDepth, maxDepth);
+					}
+					prevDepth = -1;
+					break;
+				}
+				case SampleLogEncoder.GROUP_FOLDED:
+				{
+					long foldedTime = readVarLong();
+					int foldedNodes = (int) readVarLong();
+					if (threadGroup != null) {
+						threadGroup.foldedTime += foldedTime;
+						threadGroup.foldedNodes += foldedNodes;
+					}
+					break;
+				}
+				case SampleLogEncoder.NODE:
+					prevDepth = readNode(threadGroup, prevDepth);
+					break;
+				case SampleLogEncoder.LOCK_CONTENTION:
+				{
+					String lockClassName = readString();
+					int lockIdentityHashCode = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+					int waitingFrameId = frameIds[(int) readVarLong()];
+					int ownerLocalId = (int) readVarLong() - 1;
+					String ownerThreadName = readString();
+					long blockedTime = readVarLong();
+					long samples = readVarLong();
+					if (threadGroup != null) {
+						merger.mergeLockContention(threadGroup, lockClassName, lockIdentityHashCode, waitingFrameId,
+								ownerLocalId < 0 ? SampleCount.ROOT_FRAME_ID : frameIds[ownerLocalId]).
+								add(blockedTime, samples, ownerThreadName);
+					}
+					break;
+				}
+				case SampleLogEncoder.GROUP_END:
+					threadGroup = null;
+					break;
+				case SampleLogEncoder.INTERVAL_END:
+					return true;
+				default:
+					throw new IOException("Corrupted sample log. Unknown record " + tag);
+			}
+		}
+	}
+
+	private int readNode(ThreadGroupSamples threadGroup, int prevDepth) throws IOException
+	{
+		int depth = prevDepth + (int) SampleLogEncoder.unzigzag(readVarLong());
+		int frameId = frameIds[(int) readVarLong()];
+		int flags = readByte();
+		if (depth + 1 > path.length) {
+			path = Arrays.copyOf(path, (depth + 1) * 2);
+			depthCounters = Arrays.copyOf(depthCounters, (depth + 1) * 2 * SampleLogEncoder.COUNTERS);
+		}
+
+		int offset = depth * SampleLogEncoder.COUNTERS;
+		int parentOffset = offset - SampleLogEncoder.COUNTERS;
+		Arrays.fill(counters, 0L);
+		counters[0] = parentCounter(parentOffset) - SampleLogEncoder.unzigzag(readVarLong());
+		counters[1] = readVarLong();
+		if ((flags & SampleLogEncoder.HAS_CPU) != 0) {
+			counters[2] = parentCounter(parentOffset + 1) - SampleLogEncoder.unzigzag(readVarLong());
+			counters[3] = readVarLong();
+		}
+		if ((flags & SampleLogEncoder.HAS_STATES) != 0) {
+			for (SampleState state : SampleState.values()) {
+				counters[4 + 2 * state.ordinal()] = parentCounter(parentOffset + 2 + state.ordinal()) - SampleLogEncoder.unzigzag(readVarLong());
+				counters[5 + 2 * state.ordinal()] = readVarLong();
+			}
+		}
+
+		depthCounters[offset] = counters[0];
+		depthCounters[offset + 1] = counters[2];
+		for (SampleState state : SampleState.values()) {
+			depthCounters[offset + 2 + state.ordinal()] = counters[4 + 2 * state.ordinal()];
+		}
+
+		if (threadGroup != null)
+		{
+			SampleCount node = (depth == 0 ? threadGroup.callTree : path[depth - 1]).getOrCreateChild(frameId);
+			node.addCounts(counters[0], counters[1], counters[2], counters[3]);
+			if ((flags & SampleLogEncoder.HAS_STATES) != 0) {
+				for (SampleState state : SampleState.values()) {
+					node.addStateTimes(state, counters[4 + 2 * state.ordinal()], counters[5 + 2 * state.ordinal()]);
+				}
+			}
+			path[depth] = node;
+		}
+
+		return depth;
+	}
+
+	private long parentCounter(int index) {
+		return index < 0 ? 0L : depthCounters[index];
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated sample log");
+		}
+		return b;
+	}
+
+	private long readVarLong() throws IOException
+	{
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupted sample log. Malformed varint");
+	}
+
+	private String readString() throws IOException
+	{
+		int length = (int) readVarLong() - 1;
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		for (int read = 0; read < length; ) {
+			int n = in.read(bytes, read, length - read);
+			if (n < 0) {
+				throw new EOFException("Truncated sample log");
+			}
+			read += n;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,211 @@
+package com.imperva.sampler.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+
+/**
+ * Encodes report intervals into the binary sample log format.<br>
+ * A log is a header followed by tagged records. Frames are defined once by FRAME records and referenced by ID.
+ * Methods are written in pre-order. Their depth is encoded relative to the previous method and their cumulative
+ * counters relative to their caller, so long call chains cost a few bytes per method. Numbers are varints.<br>
+ * Version 2 added burst intervals, whose samples are also included in the enclosing report interval.<br>**/
+public class SampleLogEncoder
+{
+	static final int MAGIC = 0x50534D50;
+	static final byte VERSION = 2;
+
+	static final byte END = 0;
+	static final byte FRAME = 1;
+	static final byte INTERVAL_BEGIN = 2;
+	static final byte GROUP_BEGIN = 3;
+	static final byte NODE = 4;
+	static final byte LOCK_CONTENTION = 5;
+	static final byte GROUP_END = 6;
+	static final byte INTERVAL_END = 7;
+	static final byte GROUP_FOLDED = 8;
+	static final byte BURST_INTERVAL_BEGIN = 9;
+
+	static final int HAS_CPU = 1;
+	static final int HAS_STATES = 2;
+	// Cumulative counters kept per depth: time, CPU and time per state
+	static final int COUNTERS = 2 + SampleState.values().length;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private long[] depthCounters = new long[64 * COUNTERS];
+	private int prevDepth = -1;
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public void clear() {
+		buffer.clear();
+	}
+
+	public void header() {
+		ensureCapacity(5);
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+	}
+
+	public void end() {
+		ensureCapacity(1);
+		buffer.put(END);
+	}
+
+	public void frame(int frameId, String frameText) {
+		ensureCapacity(1);
+		buffer.put(FRAME);
+		putVarLong(frameId);
+		putString(frameText);
+	}
+
+	public void beginInterval(long startTime, long endTime) {
+		ensureCapacity(1);
+		buffer.put(INTERVAL_BEGIN);
+		putVarLong(startTime);
+		putVarLong(endTime - startTime);
+	}
+
+	public void beginBurstInterval(long startTime, long endTime, String reason) {
+		ensureCapacity(1);
+		buffer.put(BURST_INTERVAL_BEGIN);
+		putVarLong(startTime);
+		putVarLong(endTime - startTime);
+		putString(reason);
+	}
+
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames)
+	{
+		ensureCapacity(1);
+		buffer.put(GROUP_BEGIN);
+		putString(aggregatedThreadName);
+		putVarLong(maxDepth);
+		putVarLong(threadNames.size());
+		for (Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+			putVarLong(threadName.getKey());
+			putString(threadName.getValue());
+		}
+		prevDepth = -1;
+	}
+
+	public void foldedTime(long foldedTime, int foldedNodes) {
+		ensureCapacity(1);
+		buffer.put(GROUP_FOLDED);
+		putVarLong(foldedTime);
+		putVarLong(foldedNodes);
+	}
+
+	public void node(int depth, int frameId, SampleCount count)
+	{
+		if ((depth + 1) * COUNTERS > depthCounters.length) {
+			depthCounters = Arrays.copyOf(depthCounters, (depth + 1) * COUNTERS * 2);
+		}
+
+		int flags = (count.getCummulativeCpuNanos() != 0L ? HAS_CPU : 0) | (count.hasStateTimes() ? HAS_STATES : 0);
+		ensureCapacity(2);
+		buffer.put(NODE);
+		putVarLong(zigzag(depth - prevDepth));
+		putVarLong(frameId);
+		ensureCapacity(1);
+		buffer.put((byte) flags);
+
+		int offset = depth * COUNTERS;
+		int parentOffset = offset - COUNTERS;
+		depthCounters[offset] = count.getCummulativeTime();
+		putVarLong(zigzag(parentCounter(parentOffset) - count.getCummulativeTime()));
+		putVarLong(count.getMethodTime());
+
+		depthCounters[offset + 1] = count.getCummulativeCpuNanos();
+		if ((flags & HAS_CPU) != 0) {
+			putVarLong(zigzag(parentCounter(parentOffset + 1) - count.getCummulativeCpuNanos()));
+			putVarLong(count.getMethodCpuNanos());
+		}
+
+		for (SampleState state : SampleState.values())
+		{
+			depthCounters[offset + 2 + state.ordinal()] = count.getCummulativeTime(state);
+			if ((flags & HAS_STATES) != 0) {
+				putVarLong(zigzag(parentCounter(parentOffset + 2 + state.ordinal()) - count.getCummulativeTime(state)));
+				putVarLong(count.getMethodTime(state));
+			}
+		}
+
+		prevDepth = depth;
+	}
+
+	private long parentCounter(int index) {
+		return index < 0 ? 0L : depthCounters[index];
+	}
+
+	public void lockContention(LockContention contention, int waitingFrameId, int ownerFrameId)
+	{
+		ensureCapacity(1);
+		buffer.put(LOCK_CONTENTION);
+		putString(contention.getLockClassName());
+		ensureCapacity(4);
+		buffer.putInt(contention.getLockIdentityHashCode());
+		putVarLong(waitingFrameId);
+		putVarLong(ownerFrameId + 1L);
+		putString(contention.getOwnerThreadName());
+		putVarLong(contention.getBlockedTime());
+		putVarLong(contention.getSamples());
+	}
+
+	public void endThreadGroup() {
+		ensureCapacity(1);
+		buffer.put(GROUP_END);
+	}
+
+	public void endInterval() {
+		ensureCapacity(1);
+		buffer.put(INTERVAL_END);
+	}
+
+	private void putString(String value)
+	{
+		if (value == null) {
+			putVarLong(0L);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarLong(bytes.length + 1L);
+		ensureCapacity(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private void putVarLong(long value)
+	{
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0L) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void ensureCapacity(int bytes)
+	{
+		if (buffer.remaining() < bytes) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+}
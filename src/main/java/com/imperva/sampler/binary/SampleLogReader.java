@@ -0,0 +1,133 @@
+package com.imperva.sampler.binary;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.imperva.sampler.IntervalMerger;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputerAdapter;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+/**
+ * Merges the intervals of binary sample logs within a time range and renders them through a SamplingOutputer.<br>
+ * Usage: SampleLogReader [--from time] [--to time] [--outputer className] [--skip-idle] [--bursts] file-or-directory...<br>
+ * With --bursts, only burst intervals are merged instead of report intervals.<br>
+ * Times are either epoch millis or local date-times such as 2020-01-31T14:30. The outputer class must have a no
+ * argument constructor and defaults to PrintStreamSamplingOutputer, which prints to stdout.<br>**/
+public class SampleLogReader
+{
+	private final IntervalMerger merger = new IntervalMerger();
+	private long fromTime = Long.MIN_VALUE;
+	private long toTime = Long.MAX_VALUE;
+	private boolean isBurstIntervals = false;
+
+	public void setTimeRange(long fromTime, long toTime) {
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+	}
+
+	/** Merge only burst intervals instead of report intervals. **/
+	public void setBurstIntervals(boolean isBurstIntervals) {
+		this.isBurstIntervals = isBurstIntervals;
+	}
+
+	public void read(File file) throws IOException
+	{
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+			read(in);
+		}
+	}
+
+	public void read(InputStream in) throws IOException
+	{
+		SampleLogDecoder decoder = new SampleLogDecoder(in, merger);
+		decoder.setTimeRange(fromTime, toTime);
+		decoder.setBurstIntervals(isBurstIntervals);
+		decoder.readHeader();
+		while (decoder.readInterval()) {
+			// Intervals are merged while read
+		}
+	}
+
+	/** @return the merged interval, or null if no interval was within the time range. **/
+	public SamplingInterval getMergedInterval() {
+		return merger.isEmpty() ? null : merger.toSamplingInterval();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		SampleLogReader reader = new SampleLogReader();
+		long fromTime = Long.MIN_VALUE;
+		long toTime = Long.MAX_VALUE;
+		String outputerClassName = PrintStreamSamplingOutputer.class.getName();
+		boolean isSkipIdleThreads = false;
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i]) {
+				case "--from":
+					fromTime = parseTime(args[++i]);
+					break;
+				case "--to":
+					toTime = parseTime(args[++i]);
+					break;
+				case "--outputer":
+					outputerClassName = args[++i];
+					break;
+				case "--skip-idle":
+					isSkipIdleThreads = true;
+					break;
+				case "--bursts":
+					reader.setBurstIntervals(true);
+					break;
+				default:
+					File file = new File(args[i]);
+					File[] logFiles = file.listFiles((dir, name) -> name.endsWith(RollingSampleLogOutputer.FILE_SUFFIX));
+					if (logFiles != null) {
+						Arrays.sort(logFiles);
+						files.addAll(Arrays.asList(logFiles));
+					} else {
+						files.add(file);
+					}
+			}
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("Usage: " + SampleLogReader.class.getName() +
+					" [--from time] [--to time] [--outputer className] [--skip-idle] [--bursts] file-or-directory...");
+			System.exit(1);
+		}
+
+		reader.setTimeRange(fromTime, toTime);
+		for (File file : files) {
+			reader.read(file);
+		}
+
+		SamplingOutputer outputer = (SamplingOutputer) Class.forName(outputerClassName).getDeclaredConstructor().newInstance();
+		SamplingInterval interval = reader.getMergedInterval();
+		if (interval != null) {
+			interval.report(outputer instanceof StructuredSamplingOutputer ?
+					(StructuredSamplingOutputer) outputer : new SamplingOutputerAdapter(outputer), isSkipIdleThreads);
+		}
+		outputer.close();
+	}
+
+	private static long parseTime(String time)
+	{
+		try {
+			return Long.parseLong(time);
+		} catch (NumberFormatException e) {
+			return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+	}
+}
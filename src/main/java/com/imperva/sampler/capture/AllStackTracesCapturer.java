@@ -0,0 +1,41 @@
+package com.imperva.sampler.capture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Default capturer.<br>
+ * Uses Thread.getAllStackTraces() when all threads are sampled, or Thread.getStackTrace() per selected thread.<br>
+ * Thread states are approximate: each thread's state is read after its stack was captured, which with thousands of
+ * threads may be milliseconds after the dump. Use ThreadMXBeanCapturer, which captures each state with its stack,
+ * for thread state reports.<br>**/
+public class AllStackTracesCapturer implements StackCapturer
+{
+	private final ArrayList<ThreadSnapshot> snapshots = new ArrayList<>();
+
+	@Override
+	public List<ThreadSnapshot> capture(Collection<Thread> threads)
+	{
+		snapshots.clear();
+		if (threads.size() > 0) {
+			for (Thread toBeSampled : threads) {
+				snapshots.add(new ThreadSnapshot(toBeSampled, toBeSampled.getStackTrace(), toBeSampled.getState()));
+			}
+		}
+		else {
+			for (Map.Entry<Thread, StackTraceElement[]> threadEntry : Thread.getAllStackTraces().entrySet()) {
+				Thread thread = threadEntry.getKey();
+				snapshots.add(new ThreadSnapshot(thread, threadEntry.getValue(), thread.getState()));
+			}
+		}
+
+		return snapshots;
+	}
+
+	@Override
+	public void init()
+	{
+	}
+}
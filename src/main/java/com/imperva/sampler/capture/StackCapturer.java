@@ -0,0 +1,14 @@
+package com.imperva.sampler.capture;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface StackCapturer
+{
+	/**
+	 * Capture the stack traces of the threads to be sampled.
+	 * @param threads - threads to be sampled. If empty, all live threads are captured.
+	 * @return one snapshot per captured thread.<br> The returned list may be reused by the next invocation.<br>**/
+	public List<ThreadSnapshot> capture(Collection<Thread> threads);
+	public void init();
+}
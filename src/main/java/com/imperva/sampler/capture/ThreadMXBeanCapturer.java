@@ -0,0 +1,78 @@
+package com.imperva.sampler.capture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Capturer based on ThreadMXBean.getThreadInfo(long[], int).<br>
+ * All requested threads are captured in a single call, captured depth may be capped, and each snapshot
+ * carries the thread state plus the lock and lock owner the thread is blocked on.<br>
+ * When the depth is capped, only the top-most frames are kept, so the bottom of deep stacks is lost.<br>**/
+public class ThreadMXBeanCapturer implements StackCapturer
+{
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	private final ArrayList<ThreadSnapshot> snapshots = new ArrayList<>();
+	private int maxDepth = Integer.MAX_VALUE;
+	private ThreadGroup rootThreadGroup = null;
+	private Thread[] threadsBuffer = new Thread[256];
+
+	public void setMaxDepth(int maxDepth)
+	{
+		this.maxDepth = maxDepth;
+	}
+
+	@Override
+	public void init()
+	{
+		ThreadGroup threadGroup = Thread.currentThread().getThreadGroup();
+		while (threadGroup.getParent() != null) {
+			threadGroup = threadGroup.getParent();
+		}
+		rootThreadGroup = threadGroup;
+	}
+
+	@Override
+	public List<ThreadSnapshot> capture(Collection<Thread> threads)
+	{
+		snapshots.clear();
+		int threadsCount;
+		if (threads.size() > 0)
+		{
+			threadsCount = threads.size();
+			if (threadsBuffer.length < threadsCount) {
+				threadsBuffer = new Thread[threadsCount * 2];
+			}
+			threads.toArray(threadsBuffer);
+		}
+		else
+		{
+			threadsCount = rootThreadGroup.enumerate(threadsBuffer, true);
+			while (threadsCount == threadsBuffer.length) {
+				threadsBuffer = new Thread[threadsBuffer.length * 2];
+				threadsCount = rootThreadGroup.enumerate(threadsBuffer, true);
+			}
+		}
+
+		long[] threadIds = new long[threadsCount];
+		for (int i = 0; i < threadsCount; i++) {
+			threadIds[i] = threadsBuffer[i].getId();
+		}
+
+		ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(threadIds, maxDepth);
+		for (int i = 0; i < threadsCount; i++)
+		{
+			ThreadInfo threadInfo = threadInfos[i];
+			if (threadInfo != null) {
+				snapshots.add(new ThreadSnapshot(threadsBuffer[i], threadInfo.getStackTrace(), threadInfo.getThreadState(),
+						threadInfo.getLockInfo(), threadInfo.getLockOwnerId(), threadInfo.getLockOwnerName()));
+			}
+			threadsBuffer[i] = null;
+		}
+
+		return snapshots;
+	}
+}
@@ -0,0 +1,63 @@
+package com.imperva.sampler.capture;
+
+import java.lang.management.LockInfo;
+
+public class ThreadSnapshot
+{
+	public enum Kind { PLATFORM, VIRTUAL, CARRIER }
+
+	private final Thread thread;
+	private final StackTraceElement[] stackTrace;
+	private final Thread.State state;
+	private final LockInfo lockInfo;
+	private final long lockOwnerId;
+	private final String lockOwnerName;
+	private final Kind kind;
+
+	public ThreadSnapshot(Thread thread, StackTraceElement[] stackTrace, Thread.State state)
+	{
+		this(thread, stackTrace, state, null, -1L, null);
+	}
+
+	public ThreadSnapshot(Thread thread, StackTraceElement[] stackTrace, Thread.State state,
+						  LockInfo lockInfo, long lockOwnerId, String lockOwnerName)
+	{
+		this.thread = thread;
+		this.stackTrace = stackTrace;
+		this.state = state;
+		this.lockInfo = lockInfo;
+		this.lockOwnerId = lockOwnerId;
+		this.lockOwnerName = lockOwnerName;
+		this.kind = Kind.PLATFORM;
+	}
+
+	/** Snapshot of the given kind, e.g. a carrier thread with virtual threads mounted on it. **/
+	public ThreadSnapshot(ThreadSnapshot snapshot, Kind kind)
+	{
+		this.thread = snapshot.thread;
+		this.stackTrace = snapshot.stackTrace;
+		this.state = snapshot.state;
+		this.lockInfo = snapshot.lockInfo;
+		this.lockOwnerId = snapshot.lockOwnerId;
+		this.lockOwnerName = snapshot.lockOwnerName;
+		this.kind = kind;
+	}
+
+	public Thread getThread() { return thread; }
+
+	/** @return stack trace, top frame first. **/
+	public StackTraceElement[] getStackTrace() { return stackTrace; }
+
+	/** @return thread state at capture time, or null if unknown. **/
+	public Thread.State getState() { return state; }
+
+	/** @return the lock this thread is blocked on or waiting for, or null. **/
+	public LockInfo getLockInfo() { return lockInfo; }
+
+	/** @return ID of the thread owning the lock this thread is blocked on, or -1. **/
+	public long getLockOwnerId() { return lockOwnerId; }
+
+	public String getLockOwnerName() { return lockOwnerName; }
+
+	public Kind getKind() { return kind; }
+}
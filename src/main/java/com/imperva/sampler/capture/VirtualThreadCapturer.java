@@ -0,0 +1,59 @@
+package com.imperva.sampler.capture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Captures platform threads by another capturer, plus the registered virtual threads.<br>
+ * Carrier threads are marked as such, so time spent running virtual threads is attributed to the carriers separately
+ * from the virtual threads themselves.<br>**/
+public class VirtualThreadCapturer implements StackCapturer
+{
+	private final StackCapturer platformCapturer;
+	private final VirtualThreadRegistry registry;
+	private final ArrayList<ThreadSnapshot> snapshots = new ArrayList<>();
+
+	public VirtualThreadCapturer(StackCapturer platformCapturer, VirtualThreadRegistry registry)
+	{
+		this.platformCapturer = platformCapturer;
+		this.registry = registry;
+	}
+
+	@Override
+	public List<ThreadSnapshot> capture(Collection<Thread> threads)
+	{
+		snapshots.clear();
+		for (ThreadSnapshot snapshot : platformCapturer.capture(threads))
+		{
+			// Selected threads are captured by the platform capturer, virtual or not
+			if (VirtualThreadRegistry.isCarrier(snapshot.getThread())) {
+				snapshots.add(new ThreadSnapshot(snapshot, ThreadSnapshot.Kind.CARRIER));
+			} else if (VirtualThreadRegistry.isVirtual(snapshot.getThread())) {
+				snapshots.add(new ThreadSnapshot(snapshot, ThreadSnapshot.Kind.VIRTUAL));
+			} else {
+				snapshots.add(snapshot);
+			}
+		}
+
+		if (threads.size() > 0) {
+			return snapshots;
+		}
+
+		for (Thread thread : registry.getLiveThreads())
+		{
+			StackTraceElement[] stackTrace = thread.getStackTrace();
+			// A virtual thread that has not started yet or has just terminated has no stack
+			if (stackTrace.length > 0) {
+				snapshots.add(new ThreadSnapshot(new ThreadSnapshot(thread, stackTrace, thread.getState()), ThreadSnapshot.Kind.VIRTUAL));
+			}
+		}
+
+		return snapshots;
+	}
+
+	@Override
+	public void init() {
+		platformCapturer.init();
+	}
+}
@@ -0,0 +1,118 @@
+package com.imperva.sampler.capture;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads to be sampled.<br>
+ * Thread.getAllStackTraces() and ThreadMXBean do not return virtual threads, so they are registered as they are
+ * created, e.g. by decorating the thread factory of a thread per task executor, or by registering the current thread.
+ * Terminated threads are dropped when captured, and as threads register once the registry has grown, so the
+ * registry stays bounded while sampling is paused or the registry is not sampled at all.<br>
+ * Virtual threads are detected by reflection, so the registry may be used on JDKs without virtual threads, where it
+ * simply remains empty.<br>**/
+public class VirtualThreadRegistry
+{
+	private static final MethodHandle isVirtualHandle = findIsVirtual();
+	private static final String carrierThreadClassName = "jdk.internal.misc.CarrierThread";
+
+	private final ConcurrentHashMap<Thread, Boolean> threads = new ConcurrentHashMap<>();
+	private final ArrayList<Thread> liveThreads = new ArrayList<>();
+	private volatile int purgeThreshold = 1024;
+
+	private static MethodHandle findIsVirtual()
+	{
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	public static boolean isVirtual(Thread thread)
+	{
+		if (isVirtualHandle == null) {
+			return false;
+		}
+
+		try {
+			return (boolean) isVirtualHandle.invokeExact(thread);
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	/** @return true if the given platform thread is a carrier thread of the virtual thread scheduler. **/
+	public static boolean isCarrier(Thread thread) {
+		return thread.getClass().getName().equals(carrierThreadClassName);
+	}
+
+	/** Register a virtual thread. Platform threads are ignored as they are captured anyway. **/
+	public void register(Thread thread)
+	{
+		if (isVirtual(thread)) {
+			add(thread);
+		}
+	}
+
+	/** Add a thread regardless of its kind. **/
+	void add(Thread thread)
+	{
+		threads.put(thread, Boolean.TRUE);
+		if (threads.size() > purgeThreshold) {
+			purgeTerminated();
+		}
+	}
+
+	private synchronized void purgeTerminated()
+	{
+		if (threads.size() <= purgeThreshold) {
+			// Purged by a concurrent registration meanwhile
+			return;
+		}
+		threads.keySet().removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+		purgeThreshold = Math.max(1024, threads.size() * 2);
+	}
+
+	public void registerCurrentThread() {
+		register(Thread.currentThread());
+	}
+
+	/** @return a thread factory registering each thread created by the given factory. **/
+	public ThreadFactory decorate(ThreadFactory threadFactory)
+	{
+		return runnable -> {
+			Thread thread = threadFactory.newThread(runnable);
+			register(thread);
+			return thread;
+		};
+	}
+
+	/**
+	 * Drop terminated threads.
+	 * @return registered threads which are still alive.<br> The returned list is reused by the next invocation.<br>**/
+	public List<Thread> getLiveThreads()
+	{
+		liveThreads.clear();
+		for (Thread thread : threads.keySet())
+		{
+			if (thread.getState() == Thread.State.TERMINATED) {
+				threads.remove(thread);
+			}
+			else {
+				liveThreads.add(thread);
+			}
+		}
+
+		return liveThreads;
+	}
+
+	public int size() {
+		return threads.size();
+	}
+}
@@ -0,0 +1,160 @@
+package com.imperva.sampler.collect;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Sends each report interval as a snapshot to a SampleCollector, which merges the snapshots of many samplers.<br>
+ * Snapshots are queued to a dedicated sender thread, so the reporter never does socket IO. When the queue is full,
+ * e.g. while the collector is stalled, new snapshots are dropped. A send which takes longer than the write timeout
+ * is aborted by closing the connection, which is reopened for the next snapshot. An unavailable collector therefore
+ * never blocks the sampler.<br>**/
+public class CollectorSamplingOutputer extends SnapshotEncoder
+{
+	private final String host;
+	private final int port;
+	private int connectTimeoutMillis = 1000;
+	private long writeTimeoutMillis = 10000L;
+	private BlockingQueue<byte[]> sendQueue = new ArrayBlockingQueue<>(4);
+	private Thread senderThread = null;
+	private volatile Socket socket = null;
+	private volatile long sendStartMillis = 0L;
+	private volatile long droppedSnapshots = 0L;
+	private boolean isDropping = false;
+	private volatile boolean isClosed = false;
+
+	public CollectorSamplingOutputer(String host, int port)
+	{
+		this.host = host;
+		this.port = port;
+	}
+
+	/** @param hostAndPort - e.g. "localhost:7391". **/
+	public CollectorSamplingOutputer(String hostAndPort)
+	{
+		this(hostAndPort.substring(0, hostAndPort.lastIndexOf(':')), Integer.parseInt(hostAndPort.substring(hostAndPort.lastIndexOf(':') + 1)));
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/** @param writeTimeoutMillis - a send taking longer is aborted when the next snapshot is reported. Default 10 seconds. **/
+	public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+		this.writeTimeoutMillis = writeTimeoutMillis;
+	}
+
+	/** @param sendQueueCapacity - snapshots waiting to be sent, beyond which new snapshots are dropped. Default 4. Set before the first interval. **/
+	public void setSendQueueCapacity(int sendQueueCapacity) {
+		sendQueue = new ArrayBlockingQueue<>(sendQueueCapacity);
+	}
+
+	/** @return the number of snapshots dropped since the send queue was full. **/
+	public long getDroppedSnapshots() {
+		return droppedSnapshots;
+	}
+
+	@Override
+	public void endInterval()
+	{
+		super.endInterval();
+		if (isBurst() || isClosed) {
+			return;
+		}
+
+		if (senderThread == null) {
+			senderThread = new Thread(this::sendSnapshots);
+			senderThread.setDaemon(true);
+			senderThread.setName("Performance Sampler Collector Sender");
+			senderThread.start();
+		}
+
+		long sendStart = sendStartMillis;
+		if (sendStart != 0L && System.currentTimeMillis() - sendStart > writeTimeoutMillis) {
+			// Unblocks the sender, which reconnects for the next snapshot
+			closeSocket();
+		}
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream(16 * 1024);
+		try {
+			writeSnapshot(snapshot);
+		} catch (IOException e) {} // Not thrown by ByteArrayOutputStream
+
+		if (sendQueue.offer(snapshot.toByteArray())) {
+			isDropping = false;
+		}
+		else {
+			droppedSnapshots++;
+			if (!isDropping) {
+				isDropping = true;
+				printError("CollectorSamplingOutputer - snapshots dropped while the send queue is full. Collector " + host + ":" + port + " is stalled",
+						new IOException("Send queue full"));
+			}
+		}
+	}
+
+	private void sendSnapshots()
+	{
+		OutputStream out = null;
+		while (!isClosed)
+		{
+			byte[] snapshot;
+			try {
+				snapshot = sendQueue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			sendStartMillis = System.currentTimeMillis();
+			try
+			{
+				if (socket == null) {
+					Socket newSocket = new Socket();
+					newSocket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+					out = new BufferedOutputStream(newSocket.getOutputStream(), 64 * 1024);
+					socket = newSocket;
+				}
+				out.write(snapshot);
+				out.flush();
+			}
+			catch (IOException e) {
+				if (!isClosed) {
+					printError("CollectorSamplingOutputer - snapshot dropped. Failed to send to " + host + ":" + port, e);
+				}
+				closeSocket();
+			}
+			finally {
+				sendStartMillis = 0L;
+			}
+		}
+
+		closeSocket();
+	}
+
+	private void closeSocket()
+	{
+		Socket s = socket;
+		if (s != null) {
+			socket = null;
+			try {
+				s.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		isClosed = true;
+		if (senderThread != null) {
+			senderThread.interrupt();
+		}
+		closeSocket();
+	}
+}
@@ -0,0 +1,320 @@
+package com.imperva.sampler.collect;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.imperva.sampler.IntervalMerger;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import com.imperva.sampler.binary.SampleLogDecoder;
+import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputerAdapter;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+/**
+ * Collects the snapshots of many samplers, e.g. of all replicas of a service, over loopback TCP, and periodically
+ * reports their merged call trees through a SamplingOutputer. Samplers send their snapshots using
+ * CollectorSamplingOutputer.<br>
+ * Merging is streaming: each snapshot is merged node by node while read from its connection, and then merged into the
+ * current report interval. Memory is bounded by the node budget of the merged call trees, and by the snapshots being
+ * read, one per connection.<br>
+ * Usage: SampleCollector [--port port] [--report-seconds seconds] [--max-nodes nodes] [--outputer className] [--skip-idle]<br>
+ * The outputer class must have a no argument constructor and defaults to PrintStreamSamplingOutputer, which prints
+ * to stdout.<br>**/
+public class SampleCollector implements Runnable, AutoCloseable
+{
+	public static final int DEFAULT_PORT = 7391;
+
+	private final ServerSocket serverSocket;
+	private SamplingOutputer outputer = null;
+	private StructuredSamplingOutputer reportOutputer = null;
+	private long reportIntervalMillis = 60000L;
+	private int maxNodes = 500000;
+	private int maxConnections = 256;
+	private boolean isSkipIdleThreads = false;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private ExecutorService connectionPool = null;
+	private ScheduledExecutorService reporter = null;
+	private volatile boolean isClosed = false;
+
+	// Current report interval. Guarded by this
+	private IntervalMerger merger = new IntervalMerger();
+	private int mergedNodes = 0;
+	private int mergedSnapshots = 0;
+
+	/** Listen on the loopback interface. Port zero picks a free port, see getPort(). **/
+	public SampleCollector(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void setSamplingOutputer(SamplingOutputer outputer) {
+		this.outputer = outputer;
+	}
+
+	public void setReportFrequencySeconds(long frequencyInSeconds) {
+		reportIntervalMillis = 1000L * frequencyInSeconds;
+	}
+
+	/**
+	 * Bound the call tree nodes of the merged snapshots within a report interval. When exceeded, the subtrees with the
+	 * least cumulative time are folded into their callers' method time, down to 3/4 of the budget.<br>**/
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	/** Connections above this amount are closed as soon as they are accepted. **/
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/** Omit methods (and aggregated threads) whose entire time was spent waiting or sleeping. **/
+	public void setSkipIdleThreads(boolean isSkipIdleThreads) {
+		this.isSkipIdleThreads = isSkipIdleThreads;
+	}
+
+	/** Accept connections and report periodically, on daemon threads. **/
+	public void start()
+	{
+		if (outputer == null) {
+			outputer = new PrintStreamSamplingOutputer();
+		}
+		reportOutputer = outputer instanceof StructuredSamplingOutputer ?
+				(StructuredSamplingOutputer) outputer : new SamplingOutputerAdapter(outputer);
+
+		connectionPool = Executors.newCachedThreadPool(r -> {
+			Thread connectionThread = new Thread(r);
+			connectionThread.setDaemon(true);
+			connectionThread.setName("Performance Sampler Collector Connection");
+			return connectionThread;
+		});
+		reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread reporterThread = new Thread(r);
+			reporterThread.setDaemon(true);
+			reporterThread.setName("Performance Sampler Collector Reporter");
+			return reporterThread;
+		});
+		if (reportIntervalMillis > 0) {
+			reporter.scheduleAtFixedRate(this::printReport, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		Thread t = new Thread(this);
+		t.setDaemon(true);
+		t.setName("Performance Sampler Collector");
+		t.start();
+	}
+
+	@Override
+	public void run()
+	{
+		while (! isClosed)
+		{
+			try {
+				Socket socket = serverSocket.accept();
+				if (connections.size() >= maxConnections) {
+					socket.close();
+					continue;
+				}
+				connections.add(socket);
+				connectionPool.execute(() -> readConnection(socket));
+			} catch (IOException e) {
+				if (! isClosed) {
+					outputer.printError("SampleCollector - accept failed", e);
+				}
+			}
+		}
+	}
+
+	private void readConnection(Socket socket)
+	{
+		try (InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024)) {
+			merge(in);
+		} catch (IOException e) {
+			if (! isClosed) {
+				outputer.printError("SampleCollector - connection from " + socket.getRemoteSocketAddress() + " failed", e);
+			}
+		} finally {
+			connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Merge the snapshots of a stream into the current report interval, until the stream ends.
+	 * @return amount of merged snapshots.<br>**/
+	public int merge(InputStream in) throws IOException
+	{
+		if (! in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+
+		int snapshots = 0;
+		while (true)
+		{
+			in.mark(1);
+			if (in.read() < 0) {
+				return snapshots;
+			}
+			in.reset();
+
+			IntervalMerger snapshotMerger = new IntervalMerger();
+			SampleLogDecoder decoder = new SampleLogDecoder(in, snapshotMerger);
+			decoder.readHeader();
+			while (decoder.readInterval()) {
+				// The snapshot is merged while read
+			}
+			if (! snapshotMerger.isEmpty()) {
+				merge(snapshotMerger.toSamplingInterval());
+			}
+			snapshots++;
+		}
+	}
+
+	/** Merge a snapshot into the current report interval. The snapshot is not modified. **/
+	public synchronized void merge(SamplingInterval snapshot)
+	{
+		merger.merge(snapshot);
+		mergedSnapshots++;
+		// Merging adds at most the snapshot's nodes, so the merged nodes are counted only when the budget may be exceeded
+		for (ThreadGroupSamples threadGroup : snapshot.getThreadGroups().values()) {
+			mergedNodes += threadGroup.callTree.getNodeCount() - 1;
+		}
+		if (maxNodes > 0 && mergedNodes > maxNodes) {
+			mergedNodes = merger.prune(maxNodes / 4 * 3);
+		}
+	}
+
+	/** @return the snapshots merged since the last call, or null if none, and start a new report interval. **/
+	public SamplingInterval takeInterval()
+	{
+		IntervalMerger merged;
+		synchronized (this) {
+			merged = swapMerger();
+		}
+
+		return merged.isEmpty() ? null : merged.toSamplingInterval();
+	}
+
+	/** @return amount of snapshots merged into the current report interval. **/
+	public synchronized int getMergedSnapshots() {
+		return mergedSnapshots;
+	}
+
+	/** Report the snapshots merged since the last report and start a new report interval. **/
+	public void printReport()
+	{
+		IntervalMerger merged;
+		int snapshots;
+		synchronized (this) {
+			snapshots = mergedSnapshots;
+			merged = swapMerger();
+		}
+
+		try {
+			if (! merged.isEmpty()) {
+				SamplingInterval interval = merged.toSamplingInterval();
+				reportOutputer.printIntervalTitle("Collected interval: from " + new Date(interval.getStartTime()) + " till " +
+						new Date(interval.getEndTime()) + ". Merged " + snapshots + " snapshots");
+				interval.report(reportOutputer, isSkipIdleThreads);
+				reportOutputer.flush();
+			}
+		} catch (Exception e) {
+			outputer.printError("SampleCollector - report failed", e);
+		}
+	}
+
+	// Invoked while synchronized
+	private IntervalMerger swapMerger()
+	{
+		IntervalMerger merged = merger;
+		merger = new IntervalMerger();
+		mergedNodes = 0;
+		mergedSnapshots = 0;
+		return merged;
+	}
+
+	/** Stop accepting snapshots and report the last interval. **/
+	@Override
+	public void close()
+	{
+		isClosed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {}
+		for (Socket socket : connections) {
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+
+		if (connectionPool != null) {
+			connectionPool.shutdown();
+			reporter.shutdown();
+			try {
+				connectionPool.awaitTermination(10L, TimeUnit.SECONDS);
+				reporter.awaitTermination(10L, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {}
+			printReport();
+			outputer.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int port = DEFAULT_PORT;
+		long reportSeconds = 60L;
+		int maxNodes = 500000;
+		String outputerClassName = PrintStreamSamplingOutputer.class.getName();
+		boolean isSkipIdleThreads = false;
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--report-seconds":
+					reportSeconds = Long.parseLong(args[++i]);
+					break;
+				case "--max-nodes":
+					maxNodes = Integer.parseInt(args[++i]);
+					break;
+				case "--outputer":
+					outputerClassName = args[++i];
+					break;
+				case "--skip-idle":
+					isSkipIdleThreads = true;
+					break;
+				default:
+					System.err.println("Usage: " + SampleCollector.class.getName() +
+							" [--port port] [--report-seconds seconds] [--max-nodes nodes] [--outputer className] [--skip-idle]");
+					System.exit(1);
+			}
+		}
+
+		SampleCollector collector = new SampleCollector(port);
+		collector.setReportFrequencySeconds(reportSeconds);
+		collector.setMaxNodes(maxNodes);
+		collector.setSkipIdleThreads(isSkipIdleThreads);
+		collector.setSamplingOutputer((SamplingOutputer) Class.forName(outputerClassName).getDeclaredConstructor().newInstance());
+		Runtime.getRuntime().addShutdownHook(new Thread(collector::close));
+		collector.start();
+		Thread.currentThread().join();
+	}
+}
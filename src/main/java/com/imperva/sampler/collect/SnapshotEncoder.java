@@ -0,0 +1,138 @@
+package com.imperva.sampler.collect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.binary.SampleLogEncoder;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+/**
+ * Encodes each reported interval as a self-contained snapshot: a binary sample log of that interval alone, defining
+ * every frame it uses. Snapshots of different samplers are merged by frame text, so merging is associative and
+ * commutative, see SampleCollector.merge().<br>
+ * The snapshot of the last interval is available from endInterval() until the next beginInterval().<br>**/
+public class SnapshotEncoder implements StructuredSamplingOutputer
+{
+	private final SampleLogEncoder framesEncoder = new SampleLogEncoder();
+	private final SampleLogEncoder intervalEncoder = new SampleLogEncoder();
+	private final HashMap<String, Integer> frameIds = new HashMap<>();
+	private boolean isBurst = false;
+
+	/** @return the given interval as a snapshot. **/
+	public static byte[] encode(SamplingInterval interval)
+	{
+		SnapshotEncoder encoder = new SnapshotEncoder();
+		interval.report(encoder, false);
+		ByteBuffer frames = encoder.framesEncoder.getBuffer();
+		ByteBuffer intervalRecords = encoder.intervalEncoder.getBuffer();
+		byte[] snapshot = new byte[frames.position() + intervalRecords.position()];
+		System.arraycopy(frames.array(), 0, snapshot, 0, frames.position());
+		System.arraycopy(intervalRecords.array(), 0, snapshot, frames.position(), intervalRecords.position());
+		return snapshot;
+	}
+
+	/** Write the snapshot of the last interval. **/
+	public void writeSnapshot(OutputStream out) throws IOException
+	{
+		ByteBuffer frames = framesEncoder.getBuffer();
+		ByteBuffer intervalRecords = intervalEncoder.getBuffer();
+		out.write(frames.array(), 0, frames.position());
+		out.write(intervalRecords.array(), 0, intervalRecords.position());
+	}
+
+	@Override
+	public void beginInterval(long startTime, long endTime)
+	{
+		framesEncoder.clear();
+		intervalEncoder.clear();
+		frameIds.clear();
+		isBurst = false;
+		framesEncoder.header();
+		intervalEncoder.beginInterval(startTime, endTime);
+	}
+
+	@Override
+	public void beginBurstInterval(long startTime, long endTime, String reason)
+	{
+		beginInterval(startTime, endTime);
+		intervalEncoder.clear();
+		intervalEncoder.beginBurstInterval(startTime, endTime, reason);
+		isBurst = true;
+	}
+
+	/** @return true if the last interval is a burst. SampleCollector skips bursts, as they are included in report intervals. **/
+	public boolean isBurst() {
+		return isBurst;
+	}
+
+	@Override
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+		intervalEncoder.beginThreadGroup(aggregatedThreadName, maxDepth, threadNames);
+	}
+
+	@Override
+	public void foldedTime(long foldedTime, int foldedNodes) {
+		intervalEncoder.foldedTime(foldedTime, foldedNodes);
+	}
+
+	@Override
+	public void node(int depth, String frame, SampleCount count) {
+		intervalEncoder.node(depth, getFrameId(frame), count);
+	}
+
+	@Override
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {
+		intervalEncoder.lockContention(contention, getFrameId(waitingFrame), ownerFrame == null ? SampleCount.ROOT_FRAME_ID : getFrameId(ownerFrame));
+	}
+
+	@Override
+	public void endThreadGroup() {
+		intervalEncoder.endThreadGroup();
+	}
+
+	@Override
+	public void endInterval() {
+		intervalEncoder.endInterval();
+		intervalEncoder.end();
+	}
+
+	private int getFrameId(String frame)
+	{
+		Integer frameId = frameIds.get(frame);
+		if (frameId == null) {
+			frameId = frameIds.size();
+			frameIds.put(frame, frameId);
+			framesEncoder.frame(frameId, frame);
+		}
+
+		return frameId;
+	}
+
+	@Override
+	public void printIntervalTitle(String title) {
+	}
+
+	@Override
+	public void printThreadRecord(String threadName, String record) {
+	}
+
+	@Override
+	public void printError(String message, Throwable t) {
+		System.err.println(message);
+		t.printStackTrace(System.err);
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,77 @@
+package com.imperva.sampler.diff;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.imperva.sampler.IntervalMerger;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+
+/**
+ * Reads collapsed stacks ("folded") files, such as written by FoldedStackSamplingOutputer, into an interval.<br>
+ * Each line's value is taken as the method time of its top frame. Stacks are aggregated under a single aggregated
+ * thread, unless their root frame is the aggregated thread name.<br>**/
+public class FoldedStackReader
+{
+	public static final String DEFAULT_THREAD_GROUP = "folded";
+
+	private final IntervalMerger merger = new IntervalMerger();
+	private boolean isThreadNameRootFrame = false;
+
+	/** Take the root frame of each stack as its aggregated thread name, see FoldedStackSamplingOutputer.setThreadNameRootFrame(). **/
+	public void setThreadNameRootFrame(boolean isThreadNameRootFrame) {
+		this.isThreadNameRootFrame = isThreadNameRootFrame;
+	}
+
+	public void read(File file) throws IOException
+	{
+		merger.addTimeRange(file.lastModified(), file.lastModified());
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+		{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				readLine(line);
+			}
+		}
+	}
+
+	/** @param line - "frame;frame;frame value". Malformed lines are ignored. **/
+	public void readLine(String line)
+	{
+		int valueIndex = line.lastIndexOf(' ');
+		if (valueIndex <= 0) {
+			return;
+		}
+
+		long value;
+		try {
+			value = Long.parseLong(line.substring(valueIndex + 1).trim());
+		} catch (NumberFormatException e) {
+			return;
+		}
+
+		String[] frames = line.substring(0, valueIndex).split(";");
+		int firstFrame = isThreadNameRootFrame && frames.length > 1 ? 1 : 0;
+		ThreadGroupSamples tgs = merger.getThreadGroup(firstFrame == 1 ? frames[0] : DEFAULT_THREAD_GROUP);
+		SampleCount node = tgs.callTree;
+		for (int i = firstFrame; i < frames.length; i++)
+		{
+			int childCount = node.getChildCount();
+			SampleCount child = node.getOrCreateChild(merger.getFrameId(frames[i]));
+			tgs.nodeCount += node.getChildCount() - childCount;
+			boolean isCurrentMethod = i == frames.length - 1;
+			child.addCounts(value, isCurrentMethod ? value : 0L, 0L, 0L);
+			node = child;
+		}
+		tgs.maxDepth = Math.max(tgs.maxDepth, frames.length - firstFrame);
+	}
+
+	/** @return the read stacks, or null if none were read. The reader must not be used afterwards. **/
+	public SamplingInterval getInterval() {
+		return merger.isEmpty() ? null : merger.toSamplingInterval();
+	}
+}
@@ -0,0 +1,335 @@
+package com.imperva.sampler.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import com.imperva.sampler.binary.RollingSampleLogOutputer;
+import com.imperva.sampler.binary.SampleLogReader;
+import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputer;
+
+/**
+ * Compares two report intervals, e.g. the current interval against the previous one or against a stored baseline.<br>
+ * Each method's time is normalized by the total sampled time of its aggregated thread, so intervals of different
+ * length or sampling frequency are comparable. Methods are compared by inclusive time, counting recursive calls once,
+ * and ranked by the change of their share.<br>
+ * Usage: ProfileDiff [--top n] [--folded file] [--thread-root] before after<br>
+ * Files ending with ".folded" or ".txt" are read as collapsed stacks, others as binary sample logs or directories.
+ * --thread-root applies both to the collapsed stacks read and written.<br>**/
+public class ProfileDiff
+{
+	public static class MethodDelta
+	{
+		private final String frame;
+		private final long beforeTime;
+		private final long afterTime;
+		private final double beforeShare;
+		private final double afterShare;
+
+		MethodDelta(String frame, long beforeTime, long beforeTotal, long afterTime, long afterTotal)
+		{
+			this.frame = frame;
+			this.beforeTime = beforeTime;
+			this.afterTime = afterTime;
+			this.beforeShare = beforeTotal == 0L ? 0.0 : (double) beforeTime / beforeTotal;
+			this.afterShare = afterTotal == 0L ? 0.0 : (double) afterTime / afterTotal;
+		}
+
+		public String getFrame() { return frame; }
+
+		/** @return inclusive time in milliseconds. **/
+		public long getBeforeTime() { return beforeTime; }
+
+		public long getAfterTime() { return afterTime; }
+
+		/** @return inclusive time as a fraction of the aggregated thread's sampled time. **/
+		public double getBeforeShare() { return beforeShare; }
+
+		public double getAfterShare() { return afterShare; }
+
+		/** @return positive for regressions, negative for improvements. **/
+		public double getShareDelta() { return afterShare - beforeShare; }
+	}
+
+	private final SamplingInterval before;
+	private final SamplingInterval after;
+	// Method deltas per aggregated thread, regressions first
+	private final TreeMap<String, List<MethodDelta>> groupDeltas = new TreeMap<>();
+
+	public ProfileDiff(SamplingInterval before, SamplingInterval after)
+	{
+		this.before = before;
+		this.after = after;
+		TreeMap<String, Boolean> groups = new TreeMap<>();
+		before.getThreadGroups().keySet().forEach(group -> groups.put(group, Boolean.TRUE));
+		after.getThreadGroups().keySet().forEach(group -> groups.put(group, Boolean.TRUE));
+		for (String group : groups.keySet())
+		{
+			HashMap<String, Long> beforeTimes = inclusiveTimes(before, group);
+			HashMap<String, Long> afterTimes = inclusiveTimes(after, group);
+			long beforeTotal = totalTime(before, group);
+			long afterTotal = totalTime(after, group);
+			List<MethodDelta> deltas = new ArrayList<>();
+			for (Map.Entry<String, Long> method : afterTimes.entrySet()) {
+				deltas.add(new MethodDelta(method.getKey(), beforeTimes.getOrDefault(method.getKey(), 0L), beforeTotal,
+						method.getValue(), afterTotal));
+			}
+			for (Map.Entry<String, Long> method : beforeTimes.entrySet()) {
+				if (! afterTimes.containsKey(method.getKey())) {
+					deltas.add(new MethodDelta(method.getKey(), method.getValue(), beforeTotal, 0L, afterTotal));
+				}
+			}
+			deltas.removeIf(delta -> delta.getShareDelta() == 0.0);
+			deltas.sort((d1, d2) -> Double.compare(d2.getShareDelta(), d1.getShareDelta()));
+			groupDeltas.put(group, deltas);
+		}
+	}
+
+	/** @return aggregated thread names of both intervals, sorted. **/
+	public Set<String> getThreadGroups() {
+		return groupDeltas.keySet();
+	}
+
+	/** @return up to the given amount of methods whose share grew the most, largest growth first. **/
+	public List<MethodDelta> getRegressions(String aggregatedThreadName, int topMethods)
+	{
+		List<MethodDelta> regressions = new ArrayList<>();
+		for (MethodDelta delta : groupDeltas.getOrDefault(aggregatedThreadName, new ArrayList<>())) {
+			if (delta.getShareDelta() <= 0.0 || regressions.size() == topMethods) {
+				break;
+			}
+			regressions.add(delta);
+		}
+		return regressions;
+	}
+
+	/** @return up to the given amount of methods whose share shrank the most, largest decrease first. **/
+	public List<MethodDelta> getImprovements(String aggregatedThreadName, int topMethods)
+	{
+		List<MethodDelta> improvements = new ArrayList<>();
+		List<MethodDelta> deltas = groupDeltas.getOrDefault(aggregatedThreadName, new ArrayList<>());
+		for (int i = deltas.size() - 1; i >= 0; i--) {
+			if (deltas.get(i).getShareDelta() >= 0.0 || improvements.size() == topMethods) {
+				break;
+			}
+			improvements.add(deltas.get(i));
+		}
+		return improvements;
+	}
+
+	/** Print the top regressions and improvements of each aggregated thread. **/
+	public void report(SamplingOutputer outputer, int topMethods)
+	{
+		outputer.printIntervalTitle("Profile diff: from " + new Date(after.getStartTime()) + " till " + new Date(after.getEndTime()) +
+				" against " + new Date(before.getStartTime()) + " till " + new Date(before.getEndTime()));
+		StringBuilder record = new StringBuilder(1024);
+		for (String group : groupDeltas.keySet())
+		{
+			List<MethodDelta> regressions = getRegressions(group, topMethods);
+			List<MethodDelta> improvements = getImprovements(group, topMethods);
+			if (regressions.isEmpty() && improvements.isEmpty()) {
+				continue;
+			}
+
+			record.setLength(0);
+			appendDeltas(record, "Regressions", regressions);
+			appendDeltas(record, "Improvements", improvements);
+			outputer.printThreadRecord("Aggregated thread: " + group, record.toString());
+		}
+		outputer.flush();
+	}
+
+	private static void appendDeltas(StringBuilder record, String title, List<MethodDelta> deltas)
+	{
+		if (deltas.isEmpty()) {
+			return;
+		}
+
+		record.append(title).append(" (share of sampled time, inclusive time(ms)):\n");
+		for (MethodDelta delta : deltas) {
+			record.append(String.format(Locale.ROOT, "  %+6.2f%%  %6.2f%% -> %6.2f%%  %d -> %d  ",
+					100.0 * delta.getShareDelta(), 100.0 * delta.getBeforeShare(), 100.0 * delta.getAfterShare(),
+					delta.getBeforeTime(), delta.getAfterTime())).append(delta.getFrame()).append('\n');
+		}
+	}
+
+	/**
+	 * Write differential collapsed stacks, "frame;frame;frame before after" per line, as consumed by flamegraph.pl
+	 * to draw red/blue differential flame graphs. Method times before are scaled to the total time of the aggregated
+	 * thread after, so only changes of shares are colored.<br>
+	 * @param isThreadNameRootFrame - prefix each stack with the aggregated thread name as its root frame.<br>**/
+	public void writeFolded(Writer out, boolean isThreadNameRootFrame) throws IOException
+	{
+		TreeMap<String, long[]> stacks = new TreeMap<>();
+		for (String group : groupDeltas.keySet())
+		{
+			long beforeTotal = totalTime(before, group);
+			long afterTotal = totalTime(after, group);
+			double scale = beforeTotal == 0L || afterTotal == 0L ? 1.0 : (double) afterTotal / beforeTotal;
+			String rootFrame = isThreadNameRootFrame ? toFrame(group) : null;
+			collectStacks(before, group, rootFrame, stacks, 0, scale);
+			collectStacks(after, group, rootFrame, stacks, 1, 1.0);
+		}
+
+		for (Map.Entry<String, long[]> stack : stacks.entrySet()) {
+			out.append(stack.getKey()).append(' ').append(Long.toString(stack.getValue()[0])).append(' ').
+					append(Long.toString(stack.getValue()[1])).append('\n');
+		}
+		out.flush();
+	}
+
+	private static long totalTime(SamplingInterval interval, String group)
+	{
+		ThreadGroupSamples tgs = interval.getThreadGroups().get(group);
+		long totalTime = 0L;
+		if (tgs != null) {
+			for (SampleCount root : tgs.callTree.getChildren()) {
+				totalTime += root.getCummulativeTime();
+			}
+		}
+		return totalTime;
+	}
+
+	private static HashMap<String, Long> inclusiveTimes(SamplingInterval interval, String group)
+	{
+		HashMap<String, Long> inclusiveTimes = new HashMap<>();
+		ThreadGroupSamples tgs = interval.getThreadGroups().get(group);
+		if (tgs != null) {
+			HashMap<String, Integer> pathFrames = new HashMap<>();
+			for (SampleCount root : tgs.callTree.getChildren()) {
+				collectInclusiveTimes(interval, root, pathFrames, inclusiveTimes);
+			}
+		}
+		return inclusiveTimes;
+	}
+
+	private static void collectInclusiveTimes(SamplingInterval interval, SampleCount node,
+											  HashMap<String, Integer> pathFrames, HashMap<String, Long> inclusiveTimes)
+	{
+		String frame = interval.getFrameText(node.getFrameId());
+		// Recursive calls are already included in their outermost invocation
+		if (pathFrames.merge(frame, 1, Integer::sum) == 1) {
+			inclusiveTimes.merge(frame, node.getCummulativeTime(), Long::sum);
+		}
+		for (SampleCount child : node.getChildren()) {
+			collectInclusiveTimes(interval, child, pathFrames, inclusiveTimes);
+		}
+		pathFrames.compute(frame, (key, count) -> count == 1 ? null : count - 1);
+	}
+
+	private static void collectStacks(SamplingInterval interval, String group, String rootFrame,
+									  TreeMap<String, long[]> stacks, int side, double scale)
+	{
+		ThreadGroupSamples tgs = interval.getThreadGroups().get(group);
+		if (tgs != null) {
+			for (SampleCount root : tgs.callTree.getChildren()) {
+				collectStacks(interval, root, rootFrame, stacks, side, scale);
+			}
+		}
+	}
+
+	private static void collectStacks(SamplingInterval interval, SampleCount node, String stack,
+									  TreeMap<String, long[]> stacks, int side, double scale)
+	{
+		String frame = toFrame(interval.getFrameText(node.getFrameId()));
+		stack = stack == null ? frame : stack + ';' + frame;
+		long methodTime = Math.round(node.getMethodTime() * scale);
+		if (methodTime > 0L) {
+			stacks.computeIfAbsent(stack, key -> new long[2])[side] += methodTime;
+		}
+		for (SampleCount child : node.getChildren()) {
+			collectStacks(interval, child, stack, stacks, side, scale);
+		}
+	}
+
+	private static String toFrame(String frame) {
+		return frame.indexOf(';') < 0 ? frame : frame.replace(';', ':');
+	}
+
+	/**
+	 * @return the merged intervals of a binary sample log file or directory, or of a collapsed stacks file.
+	 * @param isThreadNameRootFrame - whether the root frames of collapsed stacks are aggregated thread names.<br>**/
+	public static SamplingInterval read(File file, boolean isThreadNameRootFrame) throws IOException
+	{
+		String name = file.getName();
+		if (name.endsWith(".folded") || name.endsWith(".txt")) {
+			FoldedStackReader reader = new FoldedStackReader();
+			reader.setThreadNameRootFrame(isThreadNameRootFrame);
+			reader.read(file);
+			return reader.getInterval();
+		}
+
+		SampleLogReader reader = new SampleLogReader();
+		File[] logFiles = file.listFiles();
+		if (logFiles != null) {
+			Arrays.sort(logFiles);
+			for (File logFile : logFiles) {
+				if (logFile.getName().endsWith(RollingSampleLogOutputer.FILE_SUFFIX)) {
+					reader.read(logFile);
+				}
+			}
+		} else {
+			reader.read(file);
+		}
+		return reader.getMergedInterval();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int topMethods = 20;
+		String foldedFileName = null;
+		boolean isThreadNameRootFrame = false;
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i]) {
+				case "--top":
+					topMethods = Integer.parseInt(args[++i]);
+					break;
+				case "--folded":
+					foldedFileName = args[++i];
+					break;
+				case "--thread-root":
+					isThreadNameRootFrame = true;
+					break;
+				default:
+					files.add(new File(args[i]));
+			}
+		}
+
+		if (files.size() != 2) {
+			System.err.println("Usage: " + ProfileDiff.class.getName() + " [--top n] [--folded file] [--thread-root] before after");
+			System.exit(1);
+		}
+
+		SamplingInterval before = read(files.get(0), isThreadNameRootFrame);
+		SamplingInterval after = read(files.get(1), isThreadNameRootFrame);
+		if (before == null || after == null) {
+			System.err.println("No samples in " + (before == null ? files.get(0) : files.get(1)));
+			System.exit(1);
+		}
+
+		ProfileDiff diff = new ProfileDiff(before, after);
+		diff.report(new PrintStreamSamplingOutputer(), topMethods);
+		if (foldedFileName != null) {
+			try (Writer out = Files.newBufferedWriter(new File(foldedFileName).toPath(), StandardCharsets.UTF_8)) {
+				diff.writeFolded(out, isThreadNameRootFrame);
+			}
+		}
+	}
+}
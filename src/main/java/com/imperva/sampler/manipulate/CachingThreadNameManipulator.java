@@ -0,0 +1,144 @@
+package com.imperva.sampler.manipulate;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Caches the aggregated thread names of another manipulator per thread, until the thread is renamed.<br>
+ * Entries are keyed by thread ID and hit only if the thread's current name is the very same String instance, so a
+ * lookup allocates nothing. Threads are weakly referenced, and entries of terminated threads are purged whenever the
+ * cache would otherwise grow.<br>
+ * Wrap only manipulators whose result depends on the thread name alone. Invoked by the sampler thread only.<br>**/
+public class CachingThreadNameManipulator implements ThreadNameManipulator
+{
+	private static final String EXCLUDED = new String("excluded");
+
+	private static final class Entry
+	{
+		final WeakReference<Thread> thread;
+		final String threadName;
+		final String aggregatedThreadName;
+
+		Entry(Thread thread, String threadName, String aggregatedThreadName)
+		{
+			this.thread = new WeakReference<>(thread);
+			this.threadName = threadName;
+			this.aggregatedThreadName = aggregatedThreadName;
+		}
+	}
+
+	private final ThreadNameManipulator manipulator;
+	// Open addressing table keyed by thread ID
+	private long[] threadIds = new long[256];
+	private Entry[] entries = new Entry[256];
+	private int size = 0;
+	private long hits = 0L;
+	private long misses = 0L;
+
+	public CachingThreadNameManipulator(ThreadNameManipulator manipulator) {
+		this.manipulator = manipulator;
+	}
+
+	@Override
+	public String getManipulatedThreadName(Thread thread)
+	{
+		long threadId = thread.getId();
+		String threadName = thread.getName();
+		int mask = entries.length - 1;
+		int i = slot(threadId, mask);
+		for (; entries[i] != null; i = (i + 1) & mask)
+		{
+			if (threadIds[i] == threadId)
+			{
+				Entry entry = entries[i];
+				if (entry.threadName == threadName && entry.thread.get() == thread) {
+					hits++;
+					return entry.aggregatedThreadName == EXCLUDED ? null : entry.aggregatedThreadName;
+				}
+				break;
+			}
+		}
+
+		misses++;
+		String aggregatedThreadName = manipulator.getManipulatedThreadName(thread);
+		Entry entry = new Entry(thread, threadName, aggregatedThreadName == null ? EXCLUDED : aggregatedThreadName);
+		if (entries[i] != null) {
+			entries[i] = entry;
+		}
+		else
+		{
+			threadIds[i] = threadId;
+			entries[i] = entry;
+			if (++size * 4 > entries.length * 3) {
+				purge();
+			}
+		}
+
+		return aggregatedThreadName;
+	}
+
+	/** Drop entries of collected and terminated threads, and grow the table if most entries are alive. **/
+	private void purge()
+	{
+		int liveEntries = 0;
+		for (Entry entry : entries) {
+			if (entry != null && isAlive(entry)) {
+				liveEntries++;
+			}
+		}
+
+		long[] oldThreadIds = threadIds;
+		Entry[] oldEntries = entries;
+		int capacity = liveEntries * 2 > oldEntries.length ? oldEntries.length * 2 : oldEntries.length;
+		threadIds = new long[capacity];
+		entries = new Entry[capacity];
+		size = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldEntries.length; j++)
+		{
+			if (oldEntries[j] != null && isAlive(oldEntries[j]))
+			{
+				int i = slot(oldThreadIds[j], mask);
+				while (entries[i] != null) {
+					i = (i + 1) & mask;
+				}
+				threadIds[i] = oldThreadIds[j];
+				entries[i] = oldEntries[j];
+				size++;
+			}
+		}
+	}
+
+	private static boolean isAlive(Entry entry)
+	{
+		Thread thread = entry.thread.get();
+		return thread != null && thread.getState() != Thread.State.TERMINATED;
+	}
+
+	private static int slot(long threadId, int mask)
+	{
+		long h = threadId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public void init() {
+		manipulator.init();
+	}
+
+	@Override
+	public void beginSample() {
+		manipulator.beginSample();
+	}
+}
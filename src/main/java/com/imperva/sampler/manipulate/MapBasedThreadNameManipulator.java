@@ -1,31 +1,38 @@
 package com.imperva.sampler.manipulate;
 
-import java.util.concurrent.ConcurrentHashMap;
-
+/**
+ * Aggregates each thread by the string it mapped itself to, e.g. the URL of the request it serves.<br>
+ * Unmapped threads are not aggregated. Mapping is a write into the thread's own ThreadTagRegistry slot.<br>**/
 public class MapBasedThreadNameManipulator implements ThreadNameManipulator {
 
-	private ConcurrentHashMap<Thread, String> threadsMap = new ConcurrentHashMap<>(100);
+	private final ThreadTagRegistry registry = new ThreadTagRegistry("mapping");
 
 	@Override
 	public String getManipulatedThreadName(Thread thread) 
 	{
-		return threadsMap.get(thread);
+		ThreadTags tags = registry.getThreadTags(thread);
+		return tags == null ? null : tags.getTag(0);
 	}
 
 	@Override
 	public void init() 
 	{
 	}
+
+	@Override
+	public void beginSample() {
+		registry.drainRegistrations();
+	}
 	
 	public void mapCurrentThread(String mappedString) {
-		threadsMap.put(Thread.currentThread(), mappedString);
+		registry.setTag(0, mappedString);
 	}
 	
 	public void unmapCurrentThread() {
-		threadsMap.remove(Thread.currentThread());
+		registry.setTag(0, null);
 	}
 	
 	public int getMappingsCount() {
-		return threadsMap.size();
+		return registry.getTaggedCount(0);
 	}
 }
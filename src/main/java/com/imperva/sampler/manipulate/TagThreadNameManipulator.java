@@ -0,0 +1,98 @@
+package com.imperva.sampler.manipulate;
+
+/**
+ * Aggregates threads by a combination of their request context tags, e.g. "endpoint=/login, tenant=acme".<br>
+ * Threads without any of these tags are aggregated by a fallback manipulator. Aggregated names are cached per tags
+ * version, so they are rebuilt only after a thread changes its tags.<br>
+ * A registry should be read by a single TagThreadNameManipulator.<br>**/
+public class TagThreadNameManipulator implements ThreadNameManipulator
+{
+	private final ThreadTagRegistry registry;
+	private final String[] groupByTagNames;
+	private final int[] groupByTagIndexes;
+	private ThreadNameManipulator fallbackManipulator = null;
+	private boolean isPrefixThreadName = false;
+	private final StringBuilder nameBuilder = new StringBuilder(128);
+
+	/**
+	 * @param registry - tags written by the application threads.
+	 * @param groupByTagNames - tags to aggregate by, in the order they appear in the aggregated name.<br>**/
+	public TagThreadNameManipulator(ThreadTagRegistry registry, String... groupByTagNames)
+	{
+		this.registry = registry;
+		this.groupByTagNames = groupByTagNames.clone();
+		groupByTagIndexes = new int[groupByTagNames.length];
+		for (int i = 0; i < groupByTagNames.length; i++)
+		{
+			groupByTagIndexes[i] = registry.getTagIndex(groupByTagNames[i]);
+			if (groupByTagIndexes[i] < 0) {
+				throw new IllegalArgumentException("Unknown tag " + groupByTagNames[i]);
+			}
+		}
+	}
+
+	/** Manipulator of threads without tags. Defaults to the cached regex manipulator. **/
+	public void setFallbackManipulator(ThreadNameManipulator fallbackManipulator) {
+		this.fallbackManipulator = fallbackManipulator;
+	}
+
+	/** Prefix tagged threads' aggregated names by the fallback manipulator's name, e.g. "http-nio-exec- endpoint=/login". **/
+	public void setPrefixThreadName(boolean isPrefixThreadName) {
+		this.isPrefixThreadName = isPrefixThreadName;
+	}
+
+	@Override
+	public String getManipulatedThreadName(Thread thread)
+	{
+		ThreadTags tags = registry.getThreadTags(thread);
+		if (tags == null) {
+			return fallbackManipulator.getManipulatedThreadName(thread);
+		}
+
+		String prefix = isPrefixThreadName ? fallbackManipulator.getManipulatedThreadName(thread) : null;
+		int version = tags.getVersion();
+		if (tags.cachedVersion != version || tags.cachedPrefix != prefix)
+		{
+			nameBuilder.setLength(0);
+			if (prefix != null) {
+				nameBuilder.append(prefix);
+			}
+			boolean isTagged = false;
+			for (int i = 0; i < groupByTagIndexes.length; i++)
+			{
+				String value = tags.getTag(groupByTagIndexes[i]);
+				if (value != null) {
+					nameBuilder.append(nameBuilder.length() == 0 ? "" : isTagged ? ", " : " ").
+							append(groupByTagNames[i]).append('=').append(value);
+					isTagged = true;
+				}
+			}
+
+			tags.cachedName = isTagged ? nameBuilder.toString() : null;
+			tags.cachedPrefix = prefix;
+			tags.cachedVersion = version;
+		}
+
+		if (tags.cachedName == null) {
+			return isPrefixThreadName ? prefix : fallbackManipulator.getManipulatedThreadName(thread);
+		}
+
+		return tags.cachedName;
+	}
+
+	@Override
+	public void init()
+	{
+		if (fallbackManipulator == null) {
+			fallbackManipulator = new CachingThreadNameManipulator(new RegexThreadNameManipulator());
+		}
+		fallbackManipulator.init();
+	}
+
+	@Override
+	public void beginSample()
+	{
+		registry.drainRegistrations();
+		fallbackManipulator.beginSample();
+	}
+}
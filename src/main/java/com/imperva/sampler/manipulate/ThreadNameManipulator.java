@@ -8,4 +8,8 @@ public interface ThreadNameManipulator
 	 * @return manipulated thread name string.<br> If null is returned, this thread will not be aggregated at all.<br>**/
 	public String getManipulatedThreadName(Thread thread);
 	public void init();
+
+	/** Invoked by the sampler thread before the threads of each sample are manipulated. **/
+	public default void beginSample() {
+	}
 }
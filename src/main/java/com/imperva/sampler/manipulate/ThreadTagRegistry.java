@@ -0,0 +1,142 @@
+package com.imperva.sampler.manipulate;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request context tags of application threads, to be read by the sampler.<br>
+ * Each thread registers its ThreadTags slot once, on its first write, by pushing it onto one of several lock-free
+ * lists striped by thread id. Afterwards, setting and clearing tags are volatile writes into the thread's own slot, so
+ * neither new threads nor request boundaries contend on a shared map.<br>
+ * The sampler moves registered slots into its own map once per sample, see drainRegistrations(), and forgets
+ * terminated threads there, so application threads never walk the registered threads.<br>
+ * Slots belong to the Thread object that wrote them. A virtual thread has its own slot regardless of the carrier
+ * thread it is mounted on.<br>**/
+public class ThreadTagRegistry
+{
+	private final String[] tagNames;
+	private final ThreadLocal<ThreadTags> currentThreadTags;
+	private final AtomicReferenceArray<Registration> registrations;
+	private final ConcurrentHashMap<Thread, ThreadTags> threadTags = new ConcurrentHashMap<>();
+	private int purgeThreshold = 1024;
+
+	/** @param tagNames - names of the tags each thread may set, e.g. "endpoint", "tenant", "operation". **/
+	public ThreadTagRegistry(String... tagNames)
+	{
+		this.tagNames = tagNames.clone();
+		// At least twice as many stripes as cores, a power of two
+		registrations = new AtomicReferenceArray<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1));
+		currentThreadTags = ThreadLocal.withInitial(this::register);
+	}
+
+	public String[] getTagNames() {
+		return tagNames.clone();
+	}
+
+	/** @return index of the given tag name, or -1 if not defined. **/
+	public int getTagIndex(String tagName) {
+		return Arrays.asList(tagNames).indexOf(tagName);
+	}
+
+	/** Set a tag of the current thread. A null value clears the tag. **/
+	public void setTag(int tagIndex, String value) {
+		currentThreadTags.get().setTag(tagIndex, value);
+	}
+
+	public void setTag(String tagName, String value)
+	{
+		int tagIndex = getTagIndex(tagName);
+		if (tagIndex < 0) {
+			throw new IllegalArgumentException("Unknown tag " + tagName);
+		}
+		setTag(tagIndex, value);
+	}
+
+	/** Clear all tags of the current thread, e.g. when it completes a request. **/
+	public void clearTags() {
+		currentThreadTags.get().clear();
+	}
+
+	/** @return the tags of the given thread, or null if it never set a tag or registered after the last drain. **/
+	public ThreadTags getThreadTags(Thread thread) {
+		return threadTags.get(thread);
+	}
+
+	/** @return number of registered threads which currently have the given tag set. **/
+	public int getTaggedCount(int tagIndex)
+	{
+		drainRegistrations();
+		int taggedCount = 0;
+		for (ThreadTags tags : threadTags.values()) {
+			if (tags.getTag(tagIndex) != null) {
+				taggedCount++;
+			}
+		}
+		return taggedCount;
+	}
+
+	/** @return number of registered threads. **/
+	public int size()
+	{
+		drainRegistrations();
+		return threadTags.size();
+	}
+
+	/** Forget terminated threads. Invoked automatically as registrations are drained. **/
+	public synchronized void purge()
+	{
+		drainRegistrations();
+		threadTags.keySet().removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+		purgeThreshold = Math.max(1024, threadTags.size() * 2);
+	}
+
+	/**
+	 * Make the threads registered since the last drain visible to getThreadTags(). Invoked by the sampler once per
+	 * sample, through ThreadNameManipulator.beginSample(), so looking up untagged threads costs a map miss only.<br>
+	 * @return true if any registration was moved.<br>**/
+	public synchronized boolean drainRegistrations()
+	{
+		boolean isDrained = false;
+		for (int i = 0; i < registrations.length(); i++)
+		{
+			if (registrations.get(i) == null) {
+				continue;
+			}
+			for (Registration registration = registrations.getAndSet(i, null); registration != null; registration = registration.next) {
+				threadTags.put(registration.thread, registration.tags);
+			}
+			isDrained = true;
+		}
+
+		if (isDrained && threadTags.size() > purgeThreshold) {
+			purge();
+		}
+		return isDrained;
+	}
+
+	private ThreadTags register()
+	{
+		Thread thread = Thread.currentThread();
+		Registration registration = new Registration(thread, new ThreadTags(tagNames.length));
+		int stripe = (int) (thread.getId() & (registrations.length() - 1));
+		Registration head;
+		do {
+			head = registrations.get(stripe);
+			registration.next = head;
+		} while (!registrations.compareAndSet(stripe, head, registration));
+		return registration.tags;
+	}
+
+	private static class Registration
+	{
+		final Thread thread;
+		final ThreadTags tags;
+		Registration next;
+
+		Registration(Thread thread, ThreadTags tags) {
+			this.thread = thread;
+			this.tags = tags;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.imperva.sampler.manipulate;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tags of a single thread, e.g. the endpoint, tenant and operation it currently serves.<br>
+ * Written only by the owning thread, using volatile writes, and read by the sampler thread.<br>**/
+public class ThreadTags
+{
+	private final AtomicReferenceArray<String> tags;
+	private volatile int version = 0;
+
+	// Aggregated thread name of the last version, owned by the sampler thread
+	int cachedVersion = -1;
+	String cachedPrefix = null;
+	String cachedName = null;
+
+	ThreadTags(int tagsCount) {
+		tags = new AtomicReferenceArray<>(tagsCount);
+	}
+
+	void setTag(int tagIndex, String value)
+	{
+		tags.set(tagIndex, value);
+		// Single writer, so the increment is not atomic. Readers see the tags written before the version
+		version = version + 1;
+	}
+
+	void clear()
+	{
+		for (int i = 0; i < tags.length(); i++) {
+			tags.set(i, null);
+		}
+		version = version + 1;
+	}
+
+	public String getTag(int tagIndex) {
+		return tags.get(tagIndex);
+	}
+
+	/** @return a number changed by each write, so readers may cache what they derive from the tags. **/
+	public int getVersion() {
+		return version;
+	}
+
+	public boolean isEmpty()
+	{
+		for (int i = 0; i < tags.length(); i++) {
+			if (tags.get(i) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
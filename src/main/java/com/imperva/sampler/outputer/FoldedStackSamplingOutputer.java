@@ -0,0 +1,220 @@
+package com.imperva.sampler.outputer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+
+/**
+ * Writes the collapsed stacks ("folded") format consumed by flamegraph.pl and speedscope.<br>
+ * Each method with non zero method time is written as a line of semicolon separated frames, from the bottom of the
+ * stack to the method, followed by a space and its method time in milliseconds.<br>**/
+public class FoldedStackSamplingOutputer implements StructuredSamplingOutputer
+{
+	public enum FoldedValue { WALL, CPU, RUNNING, BLOCKED, WAITING, TIMED_WAITING }
+
+	private WritableByteChannel channel = Channels.newChannel(System.out);
+	private boolean isFile = false;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().
+			onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final StringBuilder line = new StringBuilder(1024);
+	private FoldedValue foldedValue = FoldedValue.WALL;
+	private boolean isThreadNameRootFrame = false;
+	private String aggregatedThreadName = null;
+	// Bursts are skipped, as their samples are included in the report interval they occurred in
+	private boolean isBurst = false;
+	private String[] stack = new String[64];
+
+	public FoldedStackSamplingOutputer() {
+	}
+
+	public FoldedStackSamplingOutputer(String fileName)
+	{
+		try
+		{
+			File parentDir = new File(fileName).getParentFile();
+			if (parentDir != null && parentDir.exists() == false) {
+				if(!parentDir.mkdirs()){
+					throw new Exception("FoldedStackSamplingOutputer: failed to make dirs");
+				}
+			}
+			channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			isFile = true;
+		}
+		catch(Exception e)
+		{
+			System.out.println("com.imperva.sampler.FoldedStackSamplingOutputer - Failed to open file " + fileName + ". Will log sampler output to stdout instead.");
+			e.printStackTrace(System.out);
+		}
+	}
+
+	/** Value written per stack. Thread state values require a capturer providing thread states, CPU requires CPU time measurement. **/
+	public void setFoldedValue(FoldedValue foldedValue) {
+		this.foldedValue = foldedValue;
+	}
+
+	/** Prefix each stack with the aggregated thread name as its root frame. **/
+	public void setThreadNameRootFrame(boolean isThreadNameRootFrame) {
+		this.isThreadNameRootFrame = isThreadNameRootFrame;
+	}
+
+	@Override
+	public void beginInterval(long startTime, long endTime) {
+		isBurst = false;
+	}
+
+	@Override
+	public void beginBurstInterval(long startTime, long endTime, String reason) {
+		isBurst = true;
+	}
+
+	@Override
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+		this.aggregatedThreadName = toFrame(aggregatedThreadName);
+	}
+
+	@Override
+	public void node(int depth, String frame, SampleCount count)
+	{
+		if (isBurst) {
+			return;
+		}
+		if (depth >= stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth] = toFrame(frame);
+
+		long value = getValue(count);
+		if (value <= 0L) {
+			return;
+		}
+
+		line.setLength(0);
+		if (isThreadNameRootFrame) {
+			line.append(aggregatedThreadName).append(';');
+		}
+		for (int i = 0; i <= depth; i++) {
+			if (i > 0) {
+				line.append(';');
+			}
+			line.append(stack[i]);
+		}
+		line.append(' ').append(value).append('\n');
+		write(line);
+	}
+
+	private long getValue(SampleCount count)
+	{
+		switch (foldedValue) {
+			case CPU:
+				return count.getMethodCpuNanos() / 1000000L;
+			case RUNNING:
+				return count.getMethodTime(SampleState.RUNNING);
+			case BLOCKED:
+				return count.getMethodTime(SampleState.BLOCKED);
+			case WAITING:
+				return count.getMethodTime(SampleState.WAITING);
+			case TIMED_WAITING:
+				return count.getMethodTime(SampleState.TIMED_WAITING);
+			default:
+				return count.getMethodTime();
+		}
+	}
+
+	private static String toFrame(String frame) {
+		return frame.indexOf(';') < 0 ? frame : frame.replace(';', ':');
+	}
+
+	private void write(CharSequence chars)
+	{
+		CharBuffer charBuffer = CharBuffer.wrap(chars);
+		encoder.reset();
+		while (true)
+		{
+			CoderResult result = encoder.encode(charBuffer, buffer, true);
+			if (result.isOverflow()) {
+				drain();
+			}
+			else {
+				break;
+			}
+		}
+	}
+
+	private void drain()
+	{
+		try
+		{
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {
+	}
+
+	@Override
+	public void endThreadGroup() {
+	}
+
+	@Override
+	public void endInterval() {
+		flush();
+	}
+
+	@Override
+	public void printIntervalTitle(String title) {
+	}
+
+	@Override
+	public void printThreadRecord(String threadName, String record) {
+	}
+
+	@Override
+	public void printError(String message, Throwable t) {
+		System.err.println(message);
+		t.printStackTrace(System.err);
+	}
+
+	@Override
+	public void flush() {
+		drain();
+	}
+
+	@Override
+	public void close()
+	{
+		flush();
+		if (isFile) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				printError("FoldedStackSamplingOutputer - failed to close file", e);
+			}
+		}
+	}
+}
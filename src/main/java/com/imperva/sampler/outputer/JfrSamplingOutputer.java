@@ -0,0 +1,170 @@
+package com.imperva.sampler.outputer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import jdk.jfr.Recording;
+
+/**
+ * Emits each report interval as SampledMethodEvent JDK Flight Recorder events, so sampler data opens in JDK Mission
+ * Control alongside GC and allocation events.<br>
+ * By default, events are recorded by the recordings already running in the JVM (e.g. -XX:StartFlightRecording).
+ * When constructed with a file name, the outputer runs its own recording of sampler events and dumps it to that
+ * file after every interval.<br>
+ * Only methods with non zero method time are emitted unless setEmitAllMethods(true) is invoked.<br>**/
+public class JfrSamplingOutputer implements StructuredSamplingOutputer
+{
+	private Recording recording = null;
+	private String fileName = null;
+	private boolean isEmitAllMethods = false;
+	private long intervalStart;
+	private long intervalEnd;
+	private String aggregatedThreadName = null;
+	// Bursts are skipped, as their samples are included in the report interval they occurred in
+	private boolean isBurst = false;
+	private String[] stack = new String[64];
+	private final StringBuilder stackText = new StringBuilder(1024);
+
+	public JfrSamplingOutputer() {
+	}
+
+	public JfrSamplingOutputer(String fileName)
+	{
+		this.fileName = fileName;
+		recording = new Recording();
+		recording.setName("Perf Sampler");
+		recording.enable(SampledMethodEvent.class);
+		recording.setToDisk(true);
+		recording.start();
+	}
+
+	public void setEmitAllMethods(boolean isEmitAllMethods) {
+		this.isEmitAllMethods = isEmitAllMethods;
+	}
+
+	/** Discard events of the outputer's own recording older than the given age. **/
+	public void setMaxAge(Duration maxAge) {
+		if (recording != null) {
+			recording.setMaxAge(maxAge);
+		}
+	}
+
+	@Override
+	public void beginInterval(long startTime, long endTime) {
+		isBurst = false;
+		intervalStart = startTime;
+		intervalEnd = endTime;
+	}
+
+	@Override
+	public void beginBurstInterval(long startTime, long endTime, String reason) {
+		isBurst = true;
+	}
+
+	@Override
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+		this.aggregatedThreadName = aggregatedThreadName;
+	}
+
+	@Override
+	public void node(int depth, String frame, SampleCount count)
+	{
+		if (isBurst) {
+			return;
+		}
+		if (depth >= stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth] = frame;
+
+		if (! isEmitAllMethods && count.getMethodTime() == 0L) {
+			return;
+		}
+
+		SampledMethodEvent event = new SampledMethodEvent();
+		if (! event.isEnabled()) {
+			return;
+		}
+
+		stackText.setLength(0);
+		for (int i = 0; i <= depth; i++) {
+			if (i > 0) {
+				stackText.append(';');
+			}
+			stackText.append(stack[i]);
+		}
+
+		event.intervalStart = intervalStart;
+		event.intervalEnd = intervalEnd;
+		event.aggregatedThread = aggregatedThreadName;
+		event.stack = stackText.toString();
+		event.frame = frame;
+		event.depth = depth;
+		event.cumulativeTime = count.getCummulativeTime();
+		event.methodTime = count.getMethodTime();
+		event.cumulativeCpuTime = count.getCummulativeCpuNanos();
+		event.methodCpuTime = count.getMethodCpuNanos();
+		event.runningTime = count.getCummulativeTime(SampleState.RUNNING);
+		event.blockedTime = count.getCummulativeTime(SampleState.BLOCKED);
+		event.waitingTime = count.getCummulativeTime(SampleState.WAITING);
+		event.timedWaitingTime = count.getCummulativeTime(SampleState.TIMED_WAITING);
+		event.commit();
+	}
+
+	@Override
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {
+	}
+
+	@Override
+	public void endThreadGroup() {
+	}
+
+	@Override
+	public void endInterval() {
+		flush();
+	}
+
+	@Override
+	public void printIntervalTitle(String title) {
+	}
+
+	@Override
+	public void printThreadRecord(String threadName, String record) {
+	}
+
+	@Override
+	public void printError(String message, Throwable t) {
+		System.err.println(message);
+		t.printStackTrace(System.err);
+	}
+
+	@Override
+	public void flush()
+	{
+		if (recording != null) {
+			try {
+				recording.dump(Paths.get(fileName));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		if (recording != null) {
+			recording.stop();
+			flush();
+			recording.close();
+			recording = null;
+		}
+	}
+}
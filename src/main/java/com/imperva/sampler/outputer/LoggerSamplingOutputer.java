@@ -3,9 +3,11 @@ package com.imperva.sampler.outputer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class LoggerSamplingOutputer implements SamplingOutputer 
+public class LoggerSamplingOutputer extends TextSamplingOutputer
 {
     private static Logger logger = LoggerFactory.getLogger(LoggerSamplingOutputer.class);
+	// Each aggregated thread is logged as a single record
+	private StringBuilder record = null;
 
 	public LoggerSamplingOutputer() {
 	}
@@ -20,6 +22,22 @@ public class LoggerSamplingOutputer implements SamplingOutputer
 		logger.info(threadName + "\n" + record);
 	}
 
+	@Override
+	protected void beginThreadRecord(String threadTitle) {
+		record = new StringBuilder(threadTitle).append("\n");
+	}
+
+	@Override
+	protected void printRecordLine(CharSequence line) {
+		record.append(line).append("\n");
+	}
+
+	@Override
+	protected void endThreadRecord() {
+		logger.info(record.toString());
+		record = null;
+	}
+
 	@Override
 	public void flush() {
 	}
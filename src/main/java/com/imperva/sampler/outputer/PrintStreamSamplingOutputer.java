@@ -3,7 +3,7 @@ package com.imperva.sampler.outputer;
 import java.io.File;
 import java.io.PrintStream;
 
-public class PrintStreamSamplingOutputer implements SamplingOutputer 
+public class PrintStreamSamplingOutputer extends TextSamplingOutputer
 {
 	private PrintStream ps = System.out;
 	private boolean isFile = false;
@@ -42,6 +42,21 @@ public class PrintStreamSamplingOutputer implements SamplingOutputer
 		ps.println(record);
 	}
 
+	@Override
+	protected void beginThreadRecord(String threadTitle) {
+		ps.println(threadTitle);
+	}
+
+	@Override
+	protected void printRecordLine(CharSequence line) {
+		ps.append(line).append('\n');
+	}
+
+	@Override
+	protected void endThreadRecord() {
+		ps.println();
+	}
+
 	@Override
 	public void flush() {
 		ps.flush();
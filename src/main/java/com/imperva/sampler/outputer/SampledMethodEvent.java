@@ -0,0 +1,71 @@
+package com.imperva.sampler.outputer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+@Name("com.imperva.sampler.SampledMethod")
+@Label("Sampled Method")
+@Category("Perf Sampler")
+@Description("Aggregated samples of a method during a perf-sampler report interval")
+@StackTrace(false)
+public class SampledMethodEvent extends Event
+{
+	@Label("Interval Start")
+	@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+	long intervalStart;
+
+	@Label("Interval End")
+	@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+	long intervalEnd;
+
+	@Label("Aggregated Thread")
+	String aggregatedThread;
+
+	@Label("Stack")
+	@Description("Semicolon separated frames, from the bottom of the stack to the method")
+	String stack;
+
+	@Label("Method")
+	String frame;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Cumulative Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long cumulativeTime;
+
+	@Label("Method Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long methodTime;
+
+	@Label("Cumulative CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long cumulativeCpuTime;
+
+	@Label("Method CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long methodCpuTime;
+
+	@Label("Running Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long runningTime;
+
+	@Label("Blocked Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long blockedTime;
+
+	@Label("Waiting Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long waitingTime;
+
+	@Label("Timed Waiting Time")
+	@Timespan(Timespan.MILLISECONDS)
+	long timedWaitingTime;
+}
@@ -4,6 +4,9 @@ public interface SamplingOutputer
 {
 	public void printIntervalTitle(String title);
 	public void printThreadRecord(String threadName, String record);
+	public default void printContentionRecord(String threadName, String record) {
+		printThreadRecord(threadName, record);
+	}
 	public void printError(String message, Throwable t);
 	public void flush();
 	public void close();
@@ -0,0 +1,61 @@
+package com.imperva.sampler.outputer;
+
+/**
+ * Adapts a SamplingOutputer which is not structured, by formatting each aggregated thread into a single text record.<br>**/
+public class SamplingOutputerAdapter extends TextSamplingOutputer
+{
+	private final SamplingOutputer outputer;
+	private String threadTitle = null;
+	private StringBuilder record = null;
+
+	public SamplingOutputerAdapter(SamplingOutputer outputer) {
+		this.outputer = outputer;
+	}
+
+	@Override
+	protected void beginThreadRecord(String threadTitle) {
+		this.threadTitle = threadTitle;
+		record = new StringBuilder();
+	}
+
+	@Override
+	protected void printRecordLine(CharSequence line) {
+		record.append(line).append("\n");
+	}
+
+	@Override
+	protected void endThreadRecord() {
+		outputer.printThreadRecord(threadTitle, record.toString());
+		record = null;
+	}
+
+	@Override
+	public void printIntervalTitle(String title) {
+		outputer.printIntervalTitle(title);
+	}
+
+	@Override
+	public void printThreadRecord(String threadName, String record) {
+		outputer.printThreadRecord(threadName, record);
+	}
+
+	@Override
+	public void printContentionRecord(String threadName, String record) {
+		outputer.printContentionRecord(threadName, record);
+	}
+
+	@Override
+	public void printError(String message, Throwable t) {
+		outputer.printError(message, t);
+	}
+
+	@Override
+	public void flush() {
+		outputer.flush();
+	}
+
+	@Override
+	public void close() {
+		outputer.close();
+	}
+}
@@ -0,0 +1,37 @@
+package com.imperva.sampler.outputer;
+
+import java.util.Map;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+
+/**
+ * Outputer the sampler streams each report interval into, instead of pre-formatted records.<br>
+ * Per interval, the sampler invokes beginInterval(), then per aggregated thread beginThreadGroup(), node() for each
+ * method in pre-order (callers before callees, siblings sorted by frame), lockContention() for each contended monitor,
+ * and endThreadGroup(). Finally endInterval() is invoked. Burst intervals begin with beginBurstInterval() instead.<br>**/
+public interface StructuredSamplingOutputer extends SamplingOutputer
+{
+	public void beginInterval(long startTime, long endTime);
+	/**
+	 * Invoked instead of beginInterval() for a burst: samples taken at high frequency once a trigger fired. The burst's
+	 * samples are also included in the report interval it occurred in, so outputers which accumulate intervals should
+	 * not add bursts up. By default, a burst is output like any other interval.<br>**/
+	public default void beginBurstInterval(long startTime, long endTime, String reason) {
+		beginInterval(startTime, endTime);
+	}
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames);
+	/**
+	 * Invoked after beginThreadGroup() if methods of the aggregated thread were folded into their callers' method time
+	 * to fit the node budget.<br>**/
+	public default void foldedTime(long foldedTime, int foldedNodes) {
+	}
+	/**
+	 * @param depth - depth of the method in the call tree. Zero for the bottom frame of the stack.
+	 * @param frame - package, class, method and line of the method.
+	 * @param count - the method's counters. Valid only during this invocation.<br>**/
+	public void node(int depth, String frame, SampleCount count);
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame);
+	public void endThreadGroup();
+	public void endInterval();
+}
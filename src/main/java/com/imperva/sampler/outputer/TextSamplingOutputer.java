@@ -0,0 +1,171 @@
+package com.imperva.sampler.outputer;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+
+/**
+ * Formats the streamed report as the indented text report.<br>
+ * Methods with zero method time that pass their parent's entire time to a single callee are collapsed.
+ * Only the path from the bottom frame to the current method is kept, so memory is proportional to stack depth.<br>**/
+public abstract class TextSamplingOutputer implements StructuredSamplingOutputer
+{
+	private static final Pattern packagePattern = Pattern.compile("([a-z]+\\.([a-z]+|)).*");
+	private static final int reportColumnWidth = 150;
+	private static final int maxReportDepth = 1000;
+
+	private boolean isReportZeroTimePackages = false;
+	private boolean isReportCpuTime = false;
+	private boolean isReportThreadStates = false;
+
+	private long[] depthCummulativeTime = new long[64];
+	private String[] depthPackage = new String[64];
+	private int[] depthCollapsedDepth = new int[64];
+	private final StringBuilder line = new StringBuilder(256);
+	private String aggregatedThreadName = null;
+	// Title of the current aggregated thread until its record begins
+	private StringBuilder threadTitle = null;
+	private StringBuilder contentionRecord = null;
+
+	public void setReportZeroTimePackages(boolean isReportZeroTimePackages) {
+		this.isReportZeroTimePackages = isReportZeroTimePackages;
+	}
+
+	public void setReportCpuTime(boolean isReportCpuTime) {
+		this.isReportCpuTime = isReportCpuTime;
+	}
+
+	public void setReportThreadStates(boolean isReportThreadStates) {
+		this.isReportThreadStates = isReportThreadStates;
+	}
+
+	protected abstract void beginThreadRecord(String threadTitle);
+	/** @param line - a single report line without line terminator. Valid only during this invocation. **/
+	protected abstract void printRecordLine(CharSequence line);
+	protected abstract void endThreadRecord();
+
+	@Override
+	public void beginInterval(long startTime, long endTime) {
+		printIntervalTitle("Report interval: from " + new Date(startTime) + " till " + new Date(endTime));
+	}
+
+	@Override
+	public void beginBurstInterval(long startTime, long endTime, String reason) {
+		printIntervalTitle("Burst interval: from " + new Date(startTime) + " till " + new Date(endTime) + ". Triggered by " + reason);
+	}
+
+	@Override
+	public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+		this.aggregatedThreadName = aggregatedThreadName;
+		contentionRecord = null;
+		threadTitle = new StringBuilder().append("Aggregated thread: ").append(aggregatedThreadName).
+				append(". Max depth: ").append(maxDepth).
+				append(". Distinct threads: ").append(threadNames.size()).append(" ").append(threadNames.values());
+	}
+
+	@Override
+	public void foldedTime(long foldedTime, int foldedNodes) {
+		threadTitle.append(". Folded time(ms): ").append(foldedTime).append(" in ").append(foldedNodes).append(" methods");
+	}
+
+	private void beginPendingThreadRecord()
+	{
+		if (threadTitle != null) {
+			beginThreadRecord(threadTitle.toString());
+			threadTitle = null;
+		}
+	}
+
+	@Override
+	public void node(int depth, String frame, SampleCount count)
+	{
+		beginPendingThreadRecord();
+		if (depth >= maxReportDepth) {
+			return;
+		}
+
+		if (depth >= depthCummulativeTime.length) {
+			depthCummulativeTime = Arrays.copyOf(depthCummulativeTime, depth * 2);
+			depthPackage = Arrays.copyOf(depthPackage, depth * 2);
+			depthCollapsedDepth = Arrays.copyOf(depthCollapsedDepth, depth * 2);
+		}
+
+		String packageName = "";
+		if (isReportZeroTimePackages) {
+			Matcher packageMatcher = packagePattern.matcher(frame);
+			packageName = packageMatcher.matches() ? packageMatcher.group(1) : frame;
+		}
+
+		boolean isCollapsed = depth > 0 && count.getMethodTime() == 0L &&
+				count.getCummulativeTime() == depthCummulativeTime[depth - 1] && packageName.equals(depthPackage[depth - 1]);
+		int collapsedDepth = depth == 0 ? 0 : depthCollapsedDepth[depth - 1] + (isCollapsed ? 0 : 1);
+		depthCummulativeTime[depth] = count.getCummulativeTime();
+		depthPackage[depth] = packageName;
+		depthCollapsedDepth[depth] = collapsedDepth;
+		if (isCollapsed) {
+			return;
+		}
+
+		line.setLength(0);
+		for (int i = 0; i < collapsedDepth; i++) {
+			line.append("  ");
+		}
+		line.append(frame).append(' ');
+		for (int i = 2 * collapsedDepth + frame.length(); i < reportColumnWidth; i++) {
+			line.append(' ');
+		}
+
+		line.append(" Cumulative time(ms): ").append(count.getCummulativeTime());
+		if (isReportCpuTime) {
+			line.append(", CPU(ms): ").append(count.getCummulativeCpuNanos() / 1000000L);
+		}
+		line.append(", Method time(ms): ").append(count.getMethodTime());
+		if (isReportThreadStates) {
+			line.append(", Running: ").append(count.getCummulativeTime(SampleState.RUNNING)).
+				append(", Blocked: ").append(count.getCummulativeTime(SampleState.BLOCKED)).
+				append(", Waiting: ").append(count.getCummulativeTime(SampleState.WAITING)).
+				append(", Timed waiting: ").append(count.getCummulativeTime(SampleState.TIMED_WAITING));
+		}
+
+		printRecordLine(line);
+	}
+
+	@Override
+	public void lockContention(LockContention contention, String waitingFrame, String ownerFrame)
+	{
+		if (contentionRecord == null) {
+			contentionRecord = new StringBuilder();
+		}
+
+		contentionRecord.append(contention.getLockClassName()).append('@').append(Integer.toHexString(contention.getLockIdentityHashCode())).
+			append(" Blocked time(ms): ").append(contention.getBlockedTime()).append(", Samples: ").append(contention.getSamples()).
+			append(", Waiting at: ").append(waitingFrame).
+			append(", Owner: ").append(contention.getOwnerThreadName() == null ? "unknown" : contention.getOwnerThreadName());
+		if (ownerFrame != null) {
+			contentionRecord.append(" at ").append(ownerFrame);
+		}
+		contentionRecord.append("\n");
+	}
+
+	@Override
+	public void endThreadGroup()
+	{
+		beginPendingThreadRecord();
+		endThreadRecord();
+		if (contentionRecord != null) {
+			printContentionRecord("Lock contention of aggregated thread: " + aggregatedThreadName, contentionRecord.toString());
+			contentionRecord = null;
+		}
+	}
+
+	@Override
+	public void endInterval() {
+		flush();
+	}
+}
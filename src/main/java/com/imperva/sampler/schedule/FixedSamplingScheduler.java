@@ -0,0 +1,10 @@
+package com.imperva.sampler.schedule;
+
+/** Samples at a fixed period. The default. **/
+public class FixedSamplingScheduler implements SamplingScheduler
+{
+	@Override
+	public long nextDelayMillis(long periodMillis) {
+		return periodMillis;
+	}
+}
@@ -0,0 +1,26 @@
+package com.imperva.sampler.schedule;
+
+import java.util.Random;
+
+/** Delays are uniformly distributed around the period, e.g. within +-50% of it. **/
+public class JitteredSamplingScheduler implements SamplingScheduler
+{
+	private final double jitter;
+	private final Random random;
+
+	/** @param jitter - maximal deviation from the period, as a fraction of the period, up to 1. **/
+	public JitteredSamplingScheduler(double jitter) {
+		this(jitter, new Random());
+	}
+
+	public JitteredSamplingScheduler(double jitter, Random random)
+	{
+		this.jitter = Math.max(0.0, Math.min(1.0, jitter));
+		this.random = random;
+	}
+
+	@Override
+	public long nextDelayMillis(long periodMillis) {
+		return Math.round(periodMillis * (1.0 + jitter * (2.0 * random.nextDouble() - 1.0)));
+	}
+}
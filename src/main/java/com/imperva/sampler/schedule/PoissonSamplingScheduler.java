@@ -0,0 +1,27 @@
+package com.imperva.sampler.schedule;
+
+import java.util.Random;
+
+/**
+ * Samples as a Poisson process: delays are exponentially distributed with the period as their mean, so a sample is
+ * equally likely at any moment regardless of the time since the previous one.<br>
+ * Delays are capped at a multiple of the period, which slightly lowers their mean for the sake of bounded gaps.<br>**/
+public class PoissonSamplingScheduler implements SamplingScheduler
+{
+	private static final double maxPeriods = 8.0;
+
+	private final Random random;
+
+	public PoissonSamplingScheduler() {
+		this(new Random());
+	}
+
+	public PoissonSamplingScheduler(Random random) {
+		this.random = random;
+	}
+
+	@Override
+	public long nextDelayMillis(long periodMillis) {
+		return Math.round(periodMillis * Math.min(maxPeriods, -Math.log(1.0 - random.nextDouble())));
+	}
+}
@@ -0,0 +1,14 @@
+package com.imperva.sampler.schedule;
+
+/**
+ * Decides when the next sample is taken.<br>
+ * A fixed period aliases with periodic application work, such as schedulers and timers, systematically over or
+ * under counting the code running at the sampled phase. Randomized delays with the same mean sample every phase
+ * alike. Invoked by the sampler thread only.<br>**/
+public interface SamplingScheduler
+{
+	/**
+	 * @param periodMillis - mean time between samples.
+	 * @return delay from the previous sample to the next one, in milliseconds.<br>**/
+	long nextDelayMillis(long periodMillis);
+}
@@ -0,0 +1,12 @@
+package com.imperva.sampler.trigger;
+
+/**
+ * Decides when the sampler switches to high frequency burst sampling, see ThreadsSampler.addBurstTrigger().<br>
+ * Checked by the sampler thread after each regular sample, so checks should be cheap.<br>**/
+public interface BurstTrigger
+{
+	/**
+	 * @param runnableThreads - sampled threads which were runnable in the last sample.
+	 * @return a description of the crossed threshold, reported as the burst's title, or null.<br>**/
+	String check(int runnableThreads);
+}
@@ -0,0 +1,27 @@
+package com.imperva.sampler.trigger;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Triggers when an application supplied gauge, e.g. a request latency percentile, crosses a threshold.<br>
+ * The gauge is read by the sampler thread, so it must be thread safe and cheap.<br>**/
+public class GaugeTrigger implements BurstTrigger
+{
+	private final String name;
+	private final DoubleSupplier gauge;
+	private final double threshold;
+
+	public GaugeTrigger(String name, DoubleSupplier gauge, double threshold)
+	{
+		this.name = name;
+		this.gauge = gauge;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public String check(int runnableThreads)
+	{
+		double value = gauge.getAsDouble();
+		return value >= threshold ? name + " " + value + " >= " + threshold : null;
+	}
+}
@@ -0,0 +1,31 @@
+package com.imperva.sampler.trigger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+
+/** Triggers when the process CPU load, as a percentage of all cores, crosses a threshold. **/
+public class ProcessCpuTrigger implements BurstTrigger
+{
+	private final double cpuPercent;
+	private final com.sun.management.OperatingSystemMXBean osMXBean;
+
+	public ProcessCpuTrigger(double cpuPercent)
+	{
+		this.cpuPercent = cpuPercent;
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		osMXBean = osBean instanceof com.sun.management.OperatingSystemMXBean ? (com.sun.management.OperatingSystemMXBean) osBean : null;
+	}
+
+	@Override
+	public String check(int runnableThreads)
+	{
+		if (osMXBean == null) {
+			return null;
+		}
+
+		// Negative if not available yet
+		double processCpuPercent = 100.0 * osMXBean.getProcessCpuLoad();
+		return processCpuPercent >= cpuPercent ? String.format(Locale.ROOT, "process CPU %.1f%% >= %.1f%%", processCpuPercent, cpuPercent) : null;
+	}
+}
@@ -0,0 +1,16 @@
+package com.imperva.sampler.trigger;
+
+/** Triggers when the amount of runnable sampled threads crosses a threshold, e.g. the number of cores. **/
+public class RunnableThreadsTrigger implements BurstTrigger
+{
+	private final int threshold;
+
+	public RunnableThreadsTrigger(int threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public String check(int runnableThreads) {
+		return runnableThreads >= threshold ? "runnable threads " + runnableThreads + " >= " + threshold : null;
+	}
+}
@@ -0,0 +1,123 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputerAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CallTreePrunerTest
+{
+    /** A hot path 0-1-2 and 50 cold leaves under method 1, each sampled once. **/
+    private static ThreadGroupSamples createThreadGroup()
+    {
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        SampleCount bottom = tgs.callTree.getOrCreateChild(0);
+        SampleCount middle = bottom.getOrCreateChild(1);
+        SampleCount hot = middle.getOrCreateChild(2);
+        for (int i = 0; i < 100; i++) {
+            bottom.increment(10L, false, SampleState.RUNNING, 0L);
+            middle.increment(10L, false, SampleState.RUNNING, 0L);
+            hot.increment(10L, true, SampleState.RUNNING, 0L);
+        }
+        for (int frameId = 3; frameId < 53; frameId++) {
+            bottom.increment(10L, false, SampleState.WAITING, 0L);
+            middle.increment(10L, false, SampleState.WAITING, 0L);
+            SampleCount cold = middle.getOrCreateChild(frameId);
+            cold.increment(10L, false, SampleState.WAITING, 0L);
+            cold.getOrCreateChild(1000 + frameId).increment(10L, true, SampleState.WAITING, 0L);
+        }
+        tgs.nodeCount = 3 + 50 * 2;
+        return tgs;
+    }
+
+    @Test
+    public void testFoldColdSubtrees()
+    {
+        ThreadGroupSamples tgs = createThreadGroup();
+        int removedNodes = CallTreePruner.prune(tgs, 3);
+
+        Assert.assertEquals(100, removedNodes);
+        Assert.assertEquals(3, tgs.nodeCount);
+        Assert.assertEquals(100, tgs.foldedNodes);
+        Assert.assertEquals(500L, tgs.foldedTime);
+        Assert.assertEquals(3, tgs.callTree.getNodeCount() - 1);
+
+        // The hot path is exact, and the cold time became method time of its caller
+        SampleCount middle = tgs.callTree.getChild(0).getChild(1);
+        Assert.assertEquals(1500L, middle.getCummulativeTime());
+        Assert.assertEquals(500L, middle.getMethodTime());
+        Assert.assertEquals(500L, middle.getMethodTime(SampleState.WAITING));
+        Assert.assertEquals(1000L, middle.getChild(2).getMethodTime());
+        Assert.assertEquals(0, CallTreePruner.prune(tgs, 10));
+    }
+
+    @Test
+    public void testFoldOnlyEnoughTiedSubtrees()
+    {
+        // All 50 cold subtrees take the same time, so only as many are folded as needed to fit the target
+        ThreadGroupSamples tgs = createThreadGroup();
+        int removedNodes = CallTreePruner.prune(tgs, 10);
+
+        Assert.assertEquals(94, removedNodes);
+        Assert.assertEquals(9, tgs.nodeCount);
+        Assert.assertEquals(9, tgs.callTree.getNodeCount() - 1);
+        Assert.assertEquals(470L, tgs.foldedTime);
+        SampleCount middle = tgs.callTree.getChild(0).getChild(1);
+        Assert.assertEquals(4, middle.getChildren().length);
+        Assert.assertEquals(1500L, middle.getCummulativeTime());
+        Assert.assertEquals(470L, middle.getMethodTime());
+
+        // Cold leaves below the threshold are folded before any tied subtree
+        ThreadGroupSamples leaves = createThreadGroup();
+        leaves.callTree.getChild(0).getChild(1).getOrCreateChild(999).increment(5L, true, SampleState.RUNNING, 0L);
+        leaves.nodeCount++;
+        Assert.assertEquals(1, CallTreePruner.prune(leaves, 103));
+        Assert.assertNull(leaves.callTree.getChild(0).getChild(1).getChild(999));
+        Assert.assertEquals(5L, leaves.foldedTime);
+    }
+
+    @Test
+    public void testFoldedTimeReported()
+    {
+        ThreadGroupSamples tgs = createThreadGroup();
+        CallTreePruner.prune(Collections.singletonList(tgs), 3);
+        tgs.threadNamesMap.put(1L, "worker-1");
+        String[] frameTexts = new String[1053];
+        for (int i = 0; i < frameTexts.length; i++) {
+            frameTexts[i] = "com.imperva.Frame.method" + i + "(Frame.java:1)";
+        }
+
+        List<String> titles = new ArrayList<>();
+        SamplingOutputer outputer = new SamplingOutputer() {
+            public void printIntervalTitle(String title) {}
+            public void printThreadRecord(String threadName, String record) { titles.add(threadName); }
+            public void printError(String message, Throwable t) {}
+            public void flush() {}
+            public void close() {}
+        };
+        new SamplingInterval(0L, 1000L, Collections.singletonMap("worker-", tgs), frameTexts).report(new SamplingOutputerAdapter(outputer), false);
+
+        Assert.assertEquals(1, titles.size());
+        Assert.assertTrue(titles.get(0), titles.get(0).endsWith(". Folded time(ms): 500 in 100 methods"));
+    }
+
+    @Test
+    public void testSamplerNodeBudget() throws Exception
+    {
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(5L);
+            ts.setMaxNodesPerThreadGroup(20);
+            ts.setMaxNodes(40);
+            ts.setActive(true);
+            ts.init();
+            Thread.sleep(100L);
+        }
+    }
+}
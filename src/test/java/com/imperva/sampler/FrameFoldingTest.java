@@ -0,0 +1,71 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameFoldingTest
+{
+    private static final StackTraceElement[] STACK = {
+            new StackTraceElement("com.imperva.A", "a", "A.java", 1),
+            new StackTraceElement("com.imperva.C", "c", "C.java", 5),
+            new StackTraceElement("reactor.core.publisher.Mono", "subscribe", "Mono.java", 100),
+            new StackTraceElement("com.imperva.B", "b", "B.java", 3),
+            new StackTraceElement("com.imperva.A", "a", "A.java", 2),
+            new StackTraceElement("com.imperva.B", "b", "B.java", 4),
+            new StackTraceElement("com.imperva.Main", "main", "Main.java", 9)};
+
+    private static List<String> sample(boolean isFoldFrames) throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        List<String> nodes = new ArrayList<>();
+        try (ThreadsSampler ts = SamplerFixture.createSampler(new FixedStackCapturer(thread, STACK), new NodeCollector(nodes)))
+        {
+            ts.setSamplingFrequencyMillis(5L);
+            ts.setActive(true);
+            if (isFoldFrames) {
+                ts.setCollapseRecursion(true);
+                ts.setTransparentFrames("reactor.core.");
+            }
+            ts.init();
+            Thread.sleep(50L);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void testNoFolding() throws Exception
+    {
+        List<String> nodes = sample(false);
+        Assert.assertEquals(7, nodes.size());
+        Assert.assertTrue(nodes.get(6).startsWith("6 com.imperva.A.a(A.java:1) method"));
+    }
+
+    @Test
+    public void testRecursionAndTransparentFrames() throws Exception
+    {
+        List<String> nodes = sample(true);
+        Assert.assertEquals(4, nodes.size());
+        Assert.assertTrue(nodes.get(0).startsWith("0 com.imperva.Main.main(Main.java:9) "));
+        Assert.assertTrue(nodes.get(1).startsWith("1 com.imperva.B.b(B.java:4) "));
+        Assert.assertTrue(nodes.get(2).startsWith("2 com.imperva.C.c(C.java:5) "));
+        Assert.assertTrue(nodes.get(3).startsWith("3 com.imperva.A.a(A.java:1) method"));
+    }
+
+    private static class NodeCollector extends NoOpOutputer
+    {
+        private final List<String> nodes;
+
+        NodeCollector(List<String> nodes) {
+            this.nodes = nodes;
+        }
+
+        public void node(int depth, String frame, SampleCount count) {
+            nodes.add(depth + " " + frame + (count.getMethodTime() > 0L ? " method" : " caller"));
+        }
+    }
+}
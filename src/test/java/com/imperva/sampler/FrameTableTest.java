@@ -0,0 +1,146 @@
+package com.imperva.sampler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameTableTest
+{
+    @Test
+    public void testCountersAndNormalization()
+    {
+        FrameTable frameTable = new FrameTable();
+        StackTraceElement element = new StackTraceElement("com.imperva.Foo", "bar", "Foo.java", 10);
+        int frameId = frameTable.getFrameId(element);
+        Assert.assertEquals(frameId, frameTable.getFrameId(new StackTraceElement("com.imperva.Foo", "bar", "Foo.java", 10)));
+        Assert.assertNotEquals(frameId, frameTable.getFrameId(new StackTraceElement("com.imperva.Foo", "bar", "Foo.java", 11)));
+        Assert.assertEquals("com.imperva.Foo.bar(Foo.java:10)", frameTable.getFrameText(frameId));
+
+        int accessorId = frameTable.getFrameId(new StackTraceElement("sun.reflect.GeneratedMethodAccessor12", "invoke", null, -1));
+        Assert.assertEquals(accessorId, frameTable.getFrameId(new StackTraceElement("sun.reflect.GeneratedMethodAccessor345", "invoke", null, -1)));
+        Assert.assertEquals("sun.reflect.GeneratedMethodAccessor.invoke(Unknown Source)", frameTable.getFrameText(accessorId));
+
+        Assert.assertEquals(3, frameTable.size());
+        Assert.assertEquals(1, frameTable.getHits());
+        Assert.assertEquals(4, frameTable.getMisses());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        FrameTable frameTable = new FrameTable();
+        frameTable.setEvictionIntervals(2);
+        StackTraceElement hot = new StackTraceElement("com.imperva.Hot", "run", "Hot.java", 1);
+        StackTraceElement cold = new StackTraceElement("com.imperva.Cold", "run", "Cold.java", 1);
+        int hotId = frameTable.getFrameId(hot);
+        int coldId = frameTable.getFrameId(cold);
+
+        frameTable.endInterval();
+        frameTable.getFrameId(hot);
+        frameTable.endInterval();
+        Assert.assertEquals(2, frameTable.size());
+        frameTable.getFrameId(hot);
+        String[] frozenFrameTexts = frameTable.getFrameTexts();
+        frameTable.endInterval();
+        Assert.assertEquals(1, frameTable.size());
+        Assert.assertEquals("com.imperva.Cold.run(Cold.java:1)", frozenFrameTexts[coldId]);
+        Assert.assertEquals(1, frameTable.getEvictions());
+        Assert.assertNull(frameTable.getFrameText(coldId));
+
+        int reusedId = frameTable.getFrameId(new StackTraceElement("com.imperva.New", "run", "New.java", 1));
+        Assert.assertEquals(coldId, reusedId);
+        Assert.assertEquals(hotId, frameTable.getFrameId(hot));
+    }
+
+    @Test
+    public void testMaxFrames()
+    {
+        FrameTable frameTable = new FrameTable();
+        frameTable.setMaxFrames(10);
+        for (int i = 0; i < 20; i++) {
+            frameTable.getFrameId(new StackTraceElement("com.imperva.Old", "run", "Old.java", i));
+        }
+        frameTable.endInterval();
+        for (int i = 0; i < 5; i++) {
+            frameTable.getFrameId(new StackTraceElement("com.imperva.New", "run", "New.java", i));
+        }
+        frameTable.endInterval();
+        Assert.assertEquals(5, frameTable.size());
+    }
+
+    @Test
+    public void testMethodIdsAndTransparentFrames()
+    {
+        FrameTable frameTable = new FrameTable();
+        frameTable.setTransparentPrefixes(new String[]{"reactor.core.", "java.util.concurrent.CompletableFuture"});
+        int line1 = frameTable.getFrameId(new StackTraceElement("com.imperva.A", "a", "A.java", 1));
+        int line2 = frameTable.getFrameId(new StackTraceElement("com.imperva.A", "a", "A.java", 2));
+        int other = frameTable.getFrameId(new StackTraceElement("com.imperva.A", "b", "A.java", 3));
+        int mono = frameTable.getFrameId(new StackTraceElement("reactor.core.publisher.Mono", "subscribe", "Mono.java", 4));
+
+        Assert.assertNotEquals(line1, line2);
+        Assert.assertEquals(frameTable.getMethodId(line1), frameTable.getMethodId(line2));
+        Assert.assertNotEquals(frameTable.getMethodId(line1), frameTable.getMethodId(other));
+        Assert.assertFalse(frameTable.isTransparent(line1));
+        Assert.assertTrue(frameTable.isTransparent(mono));
+        Assert.assertEquals(3, frameTable.getMethodCount());
+    }
+
+    @Test
+    public void testConcurrentCaches() throws Exception
+    {
+        FrameTable frameTable = new FrameTable();
+        frameTable.setTransparentPrefixes(new String[]{"reactor.core."});
+        FrameTable.FrameCache[] caches = {frameTable.newCache(), frameTable.newCache(), frameTable.newCache()};
+        int[][] frameIds = new int[caches.length][2000];
+        Thread[] threads = new Thread[caches.length];
+        for (int t = 0; t < threads.length; t++)
+        {
+            FrameTable.FrameCache cache = caches[t];
+            int[] ids = frameIds[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = cache.getFrameId(new StackTraceElement(i % 2 == 0 ? "com.imperva.A" : "reactor.core.B", "run", "A.java", i % 500));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (FrameTable.FrameCache cache : caches) {
+            cache.flushHits();
+        }
+        Assert.assertEquals(500, frameTable.size());
+        Assert.assertEquals(3 * 2000, frameTable.getHits() + frameTable.getMisses());
+        for (int i = 0; i < 2000; i++)
+        {
+            int frameId = frameTable.getFrameId(new StackTraceElement(i % 2 == 0 ? "com.imperva.A" : "reactor.core.B", "run", "A.java", i % 500));
+            for (int t = 0; t < caches.length; t++) {
+                Assert.assertEquals(frameId, frameIds[t][i]);
+                Assert.assertEquals(frameTable.isTransparent(frameId), caches[t].isTransparent(frameId));
+                Assert.assertEquals(frameTable.getMethodId(frameId), caches[t].getMethodId(frameId));
+            }
+        }
+    }
+
+    @Test
+    public void testCacheEmptiedAtIntervalEnd()
+    {
+        FrameTable frameTable = new FrameTable();
+        frameTable.setEvictionIntervals(1);
+        FrameTable.FrameCache cache = frameTable.newCache();
+        StackTraceElement hot = new StackTraceElement("com.imperva.Hot", "run", "Hot.java", 1);
+        StackTraceElement cold = new StackTraceElement("com.imperva.Cold", "run", "Cold.java", 1);
+        int coldId = cache.getFrameId(cold);
+        frameTable.endInterval();
+        cache.getFrameId(hot);
+        frameTable.endInterval();
+
+        // The cold frame was evicted, so the cache must intern it again rather than return its reused ID
+        int reinternedId = cache.getFrameId(cold);
+        Assert.assertNotEquals(cache.getFrameId(hot), reinternedId);
+        Assert.assertEquals(frameTable.getFrameText(reinternedId), "com.imperva.Cold.run(Cold.java:1)");
+        Assert.assertEquals(coldId == reinternedId, frameTable.getFrameText(coldId) != null);
+    }
+}
@@ -0,0 +1,34 @@
+package com.imperva.sampler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackageMatcherTest
+{
+    @Test
+    public void testIncludeAndExclude()
+    {
+        PackageMatcher matcher = new PackageMatcher("com.acme.,-com.acme.generated.,com.acme.generated.api.,org.other");
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertTrue(matcher.matches("com.acme.Service"));
+        Assert.assertTrue(matcher.matches("com.acme.dao.Dao"));
+        Assert.assertFalse(matcher.matches("com.acme.generated.Stub"));
+        Assert.assertTrue(matcher.matches("com.acme.generated.api.Client"));
+        Assert.assertTrue(matcher.matches("org.other.Thing"));
+        Assert.assertTrue(matcher.matches("org.otherwise.Thing"));
+        Assert.assertFalse(matcher.matches("com.acm"));
+        Assert.assertFalse(matcher.matches("java.lang.Thread"));
+        // Cached results are stable
+        Assert.assertFalse(matcher.matches("com.acme.generated.Stub"));
+        Assert.assertTrue(matcher.matches("com.acme.Service"));
+    }
+
+    @Test
+    public void testEmptyPrefixMatchesAll()
+    {
+        PackageMatcher matcher = new PackageMatcher("");
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertTrue(matcher.matches("java.lang.Thread"));
+        Assert.assertTrue(new PackageMatcher(",").isEmpty());
+    }
+}
@@ -0,0 +1,102 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+import com.imperva.sampler.manipulate.RegexThreadNameManipulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class ParallelAggregationTest
+{
+    private static final String[] CLASS_NAMES = {
+            "com.imperva.Worker", "com.imperva.Dao", "com.imperva.Cache", "java.util.HashMap", "org.acme.Pool"};
+
+    @Test
+    public void testParallelAggregationEqualsSequential() throws Exception
+    {
+        List<ThreadSnapshot> snapshots = createSnapshots(500);
+        Map<String, Long> sequential = aggregate(snapshots, 1);
+        Map<String, Long> parallel = aggregate(snapshots, 4);
+
+        Assert.assertFalse(sequential.isEmpty());
+        Assert.assertEquals(sequential, parallel);
+    }
+
+    /** @return thread samples per aggregated thread and call path, of 3 samples of the given snapshots. **/
+    private static Map<String, Long> aggregate(List<ThreadSnapshot> snapshots, int aggregationThreads) throws Exception
+    {
+        Map<String, Long> pathTimes = new TreeMap<>();
+        ThreadsSampler ts = SamplerFixture.createSampler(new FixedStackCapturer(() -> snapshots), new PathTimeCollector(pathTimes));
+        ts.setSkipDaemonThreads(false);
+        ts.setActive(false);
+        ts.setCollapseRecursion(true);
+        ts.setAggregationThreads(aggregationThreads);
+        ts.setThreadNameManipulator(new RegexThreadNameManipulator());
+        ts.init();
+
+        // The sampler thread is inactive, so samples are taken by this thread
+        for (int i = 0; i < 3; i++) {
+            ts.sampleOnce(100L);
+        }
+        ts.close();
+
+        // Threads of the same sample are weighted alike, so convert times to samples of threads regardless of timing
+        long totalTime = 0L;
+        for (Map.Entry<String, Long> pathTime : pathTimes.entrySet()) {
+            if (pathTime.getKey().indexOf(';') == pathTime.getKey().lastIndexOf(';')) {
+                totalTime += pathTime.getValue();
+            }
+        }
+        for (Map.Entry<String, Long> pathTime : pathTimes.entrySet()) {
+            pathTime.setValue(Math.round(pathTime.getValue() * 3.0 * snapshots.size() / totalTime));
+        }
+        return pathTimes;
+    }
+
+    private static List<ThreadSnapshot> createSnapshots(int threadCount)
+    {
+        Random random = new Random(7);
+        List<ThreadSnapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++)
+        {
+            StackTraceElement[] stack = new StackTraceElement[5 + random.nextInt(20)];
+            for (int j = 0; j < stack.length; j++) {
+                String className = CLASS_NAMES[random.nextInt(CLASS_NAMES.length)];
+                stack[j] = new StackTraceElement(className, "call" + random.nextInt(3), null, random.nextInt(4));
+            }
+            Thread thread = new Thread(() -> {}, (i % 3 == 0 ? "pool-exec-" : "kafka-consumer-") + i);
+            snapshots.add(new ThreadSnapshot(thread, stack, i % 2 == 0 ? Thread.State.RUNNABLE : Thread.State.WAITING));
+        }
+        return snapshots;
+    }
+
+    private static class PathTimeCollector extends NoOpOutputer
+    {
+        private final Map<String, Long> pathTimes;
+        private final List<String> path = new ArrayList<>();
+
+        PathTimeCollector(Map<String, Long> pathTimes) {
+            this.pathTimes = pathTimes;
+        }
+
+        public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+            path.clear();
+            path.add(aggregatedThreadName + " (" + threadNames.size() + " threads)");
+        }
+
+        public void node(int depth, String frame, SampleCount count) {
+            while (path.size() > depth + 1) {
+                path.remove(path.size() - 1);
+            }
+            path.add(frame);
+            pathTimes.merge(String.join(";", path), count.getCummulativeTime(), Long::sum);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.imperva.sampler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SampleCountTest
+{
+    @Test
+    public void testChildrenLookup()
+    {
+        SampleCount root = new SampleCount(SampleCount.ROOT_FRAME_ID, -1);
+        for (int frameId = 0; frameId < 1000; frameId++) {
+            root.getOrCreateChild(frameId).increment(frameId, true);
+        }
+
+        Assert.assertEquals(1000, root.getChildCount());
+        Assert.assertEquals(1000, root.getChildren().length);
+        for (int frameId = 0; frameId < 1000; frameId++) {
+            SampleCount child = root.getChild(frameId);
+            Assert.assertNotNull(child);
+            Assert.assertEquals(frameId, child.getFrameId());
+            Assert.assertEquals(0, child.getDepth());
+            Assert.assertEquals(frameId, child.getMethodTime());
+            Assert.assertSame(child, root.getOrCreateChild(frameId));
+        }
+        Assert.assertNull(root.getChild(1000));
+    }
+
+    @Test
+    public void testCallTreeAggregation()
+    {
+        FrameTable frameTable = new FrameTable();
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        SampleCount root = new SampleCount(SampleCount.ROOT_FRAME_ID, -1);
+        for (int sample = 0; sample < 3; sample++) {
+            SampleCount count = root;
+            for (int i = stackTrace.length - 1; i >= 0; i--) {
+                count = count.getOrCreateChild(frameTable.getFrameId(stackTrace[i]));
+                count.increment(10L, i == 0);
+            }
+        }
+
+        SampleCount count = root;
+        for (int i = stackTrace.length - 1; i >= 0; i--) {
+            Assert.assertEquals(1, count.getChildCount());
+            count = count.getChild(frameTable.getFrameId(stackTrace[i]));
+            Assert.assertEquals(30L, count.getCummulativeTime());
+            Assert.assertEquals(i == 0 ? 30L : 0L, count.getMethodTime());
+            Assert.assertEquals(stackTrace[i].toString(), frameTable.getFrameText(count.getFrameId()));
+        }
+    }
+
+    @Test
+    public void testStateBuckets()
+    {
+        SampleCount sc = new SampleCount(0, 0);
+        sc.increment(10L, true, SampleState.WAITING, 0L);
+        sc.increment(20L, false, SampleState.TIMED_WAITING, 0L);
+        Assert.assertTrue(sc.isIdle());
+
+        sc.increment(5L, true, SampleState.RUNNING, 4000000L);
+        Assert.assertFalse(sc.isIdle());
+        Assert.assertEquals(35L, sc.getCummulativeTime());
+        Assert.assertEquals(15L, sc.getMethodTime());
+        Assert.assertEquals(10L, sc.getMethodTime(SampleState.WAITING));
+        Assert.assertEquals(20L, sc.getCummulativeTime(SampleState.TIMED_WAITING));
+        Assert.assertEquals(0L, sc.getMethodTime(SampleState.TIMED_WAITING));
+        Assert.assertEquals(5L, sc.getCummulativeTime(SampleState.RUNNING));
+        Assert.assertEquals(4000000L, sc.getMethodCpuNanos());
+        Assert.assertEquals(0L, sc.getCummulativeTime(SampleState.BLOCKED));
+    }
+
+    @Test
+    public void testFoldChildren()
+    {
+        SampleCount parent = new SampleCount(0, 0);
+        parent.increment(60L, false, SampleState.RUNNING, 6L);
+        for (int frameId = 1; frameId <= 3; frameId++) {
+            SampleCount child = parent.getOrCreateChild(frameId);
+            child.increment(frameId * 10L, false, SampleState.RUNNING, frameId);
+            child.getOrCreateChild(100 + frameId).increment(frameId * 10L, true, SampleState.RUNNING, frameId);
+        }
+
+        Assert.assertEquals(7, parent.getNodeCount());
+        Assert.assertEquals(4, parent.foldChildren(20L));
+        Assert.assertEquals(1, parent.getChildCount());
+        Assert.assertNull(parent.getChild(1));
+        Assert.assertNotNull(parent.getChild(3));
+        Assert.assertEquals(60L, parent.getCummulativeTime());
+        Assert.assertEquals(30L, parent.getMethodTime());
+        Assert.assertEquals(30L, parent.getMethodTime(SampleState.RUNNING));
+        Assert.assertEquals(3L, parent.getMethodCpuNanos());
+        Assert.assertEquals(2, parent.foldChildren(30L));
+        Assert.assertEquals(0, parent.getChildCount());
+        Assert.assertEquals(60L, parent.getMethodTime());
+    }
+}
@@ -0,0 +1,103 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.capture.StackCapturer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SampleRetentionTest
+{
+    private static SamplingInterval createSlice(long startTime, long endTime)
+    {
+        FrameTable frameTable = new FrameTable();
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        int runId = frameTable.getFrameId(new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10));
+        tgs.callTree.getOrCreateChild(runId).increment(1L, true);
+        tgs.nodeCount = 1;
+        return new SamplingInterval(startTime, endTime, Collections.singletonMap("worker-", tgs), frameTable.getFrameTexts());
+    }
+
+    private static long totalTime(SamplingInterval interval) {
+        return interval.getThreadGroups().get("worker-").callTree.getChildren()[0].getCummulativeTime();
+    }
+
+    private static SampleRetention createRetention()
+    {
+        // Slices 0..990, 1ms each. Slices from 870, 1 minute analogs from 360, 15 minute analogs from 0 are retained
+        SampleRetention retention = new SampleRetention(new long[] {10L, 60L, 300L}, new int[] {12, 10, 4});
+        for (long startTime = 0L; startTime < 1000L; startTime += 10L) {
+            retention.add(createSlice(startTime, startTime + 10L));
+        }
+        return retention;
+    }
+
+    @Test
+    public void testEachSampleCountedOnce()
+    {
+        SamplingInterval interval = createRetention().getInterval(Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertEquals(100L, totalTime(interval));
+        Assert.assertEquals(0L, interval.getStartTime());
+        Assert.assertEquals(1000L, interval.getEndTime());
+    }
+
+    @Test
+    public void testWindowResolution()
+    {
+        SampleRetention retention = createRetention();
+        SamplingInterval recent = retention.getInterval(965L, 975L);
+        Assert.assertEquals(2L, totalTime(recent));
+        Assert.assertEquals(960L, recent.getStartTime());
+        Assert.assertEquals(980L, recent.getEndTime());
+
+        SamplingInterval old = retention.getInterval(0L, 10L);
+        Assert.assertEquals(30L, totalTime(old));
+        Assert.assertEquals(300L, old.getEndTime());
+
+        Assert.assertNull(retention.getInterval(2000L, 3000L));
+        Assert.assertEquals(0L, retention.getOldestTime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTierTooShort() {
+        new SampleRetention(new long[] {10L, 60L}, new int[] {6, 10});
+    }
+
+    @Test
+    public void testSamplerWindowReport() throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        StackTraceElement[] stack = {
+                new StackTraceElement("com.imperva.Dao", "query", "Dao.java", 5),
+                new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10)};
+        StackTraceElement[] firstStack = {
+                new StackTraceElement("com.imperva.Dao", "connect", "Dao.java", 3),
+                new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10)};
+        AtomicBoolean isFirst = new AtomicBoolean(true);
+        StackCapturer capturer = new FixedStackCapturer(() -> Collections.singletonList(
+                new ThreadSnapshot(thread, isFirst.getAndSet(false) ? firstStack : stack, Thread.State.RUNNABLE)));
+        try (ThreadsSampler ts = SamplerFixture.createSampler(capturer, new NoOpOutputer()))
+        {
+            ts.setSamplingFrequencyMillis(5L);
+            ts.setRetention(new SampleRetention(new long[] {20L, 100L}, new int[] {20, 5}));
+            ts.setFrameEvictionIntervals(1);
+            long startTime = System.currentTimeMillis();
+            ts.init();
+            Thread.sleep(200L);
+
+            SamplingInterval interval = null;
+            for (int i = 0; i < 100 && interval == null; i++) {
+                interval = ts.getRetainedInterval(startTime, System.currentTimeMillis());
+                Thread.sleep(10L);
+            }
+            Assert.assertNotNull(interval);
+            Assert.assertTrue(interval.getThreadGroups().values().iterator().next().callTree.getChildCount() > 0);
+            // Frames are evicted by report intervals, not by the retention slices within them
+            Assert.assertEquals(0L, ts.getFrameTable().getEvictions());
+        }
+    }
+}
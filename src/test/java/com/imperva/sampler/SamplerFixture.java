@@ -0,0 +1,66 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.capture.StackCapturer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+import com.imperva.sampler.outputer.SamplingOutputer;
+import com.imperva.sampler.outputer.StructuredSamplingOutputer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/** Sampler, capturer and outputer shared by tests which sample fixed stacks of com.imperva methods. **/
+public final class SamplerFixture
+{
+    private SamplerFixture() {}
+
+    /** @return a sampler of com.imperva methods, reporting on close only. Not initialized yet. **/
+    public static ThreadsSampler createSampler(StackCapturer capturer, SamplingOutputer outputer)
+    {
+        ThreadsSampler ts = new ThreadsSampler();
+        ts.setMonitoredPackages("com.imperva");
+        ts.setReportFrequencySeconds(0);
+        ts.setStackCapturer(capturer);
+        ts.setSamplingOutputer(outputer);
+        return ts;
+    }
+
+    /** Captures the given snapshots regardless of the live threads. **/
+    public static class FixedStackCapturer implements StackCapturer
+    {
+        private final Supplier<List<ThreadSnapshot>> snapshots;
+
+        public FixedStackCapturer(Supplier<List<ThreadSnapshot>> snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        /** Captures the given thread as running the given stack. **/
+        public FixedStackCapturer(Thread thread, StackTraceElement[] stack) {
+            this(() -> Collections.singletonList(new ThreadSnapshot(thread, stack, Thread.State.RUNNABLE)));
+        }
+
+        public List<ThreadSnapshot> capture(Collection<Thread> threads) {
+            return snapshots.get();
+        }
+
+        public void init() {}
+    }
+
+    /** Ignores the report. Tests override the events they collect. **/
+    public static class NoOpOutputer implements StructuredSamplingOutputer
+    {
+        public void beginInterval(long startTime, long endTime) {}
+        public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {}
+        public void node(int depth, String frame, SampleCount count) {}
+        public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {}
+        public void endThreadGroup() {}
+        public void endInterval() {}
+        public void printIntervalTitle(String title) {}
+        public void printThreadRecord(String threadName, String record) {}
+        public void printError(String message, Throwable t) {}
+        public void flush() {}
+        public void close() {}
+    }
+}
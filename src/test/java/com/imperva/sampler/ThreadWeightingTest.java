@@ -0,0 +1,107 @@
+package com.imperva.sampler;
+
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.capture.ThreadSnapshot;
+import com.imperva.sampler.manipulate.RegexThreadNameManipulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ThreadWeightingTest
+{
+    private static final StackTraceElement[] STACK = {
+            new StackTraceElement("com.imperva.Dao", "query", "Dao.java", 5),
+            new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10)};
+
+    @Test
+    public void testNewThreadsCreditedHalfTheElapsedTime() throws Exception
+    {
+        Thread existing = new Thread(() -> {}, "existing");
+        Thread started = new Thread(() -> {}, "started");
+        List<Thread> threads = new ArrayList<>();
+        threads.add(existing);
+        Map<String, Long> groupTimes = new ConcurrentHashMap<>();
+
+        ThreadsSampler ts = createSampler(threads, groupTimes);
+
+        // The sampler thread is inactive, so samples are taken by this thread
+        ts.sampleOnce(100L);
+        Thread.sleep(100L);
+        threads.add(started);
+        ts.sampleOnce(100L);
+        ts.close();
+
+        Assert.assertEquals(50L, (long) groupTimes.get("started"));
+        Assert.assertTrue(groupTimes.get("existing") + " ms", groupTimes.get("existing") >= 200L);
+    }
+
+    @Test
+    public void testReturningThreadCreditedHalfTheElapsedTime() throws Exception
+    {
+        Thread existing = new Thread(() -> {}, "existing");
+        Thread returning = new Thread(() -> {}, "returning");
+        List<Thread> threads = new ArrayList<>();
+        threads.add(existing);
+        threads.add(returning);
+        Map<String, Long> groupTimes = new ConcurrentHashMap<>();
+
+        ThreadsSampler ts = createSampler(threads, groupTimes);
+
+        // The returning thread leaves for a few samples within the interval, e.g. while it serves no request
+        ts.sampleOnce(100L);
+        threads.remove(returning);
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(100L);
+            ts.sampleOnce(100L);
+        }
+        threads.add(returning);
+        Thread.sleep(100L);
+        ts.sampleOnce(100L);
+        ts.close();
+
+        Assert.assertEquals(150L, (long) groupTimes.get("returning"));
+        Assert.assertTrue(groupTimes.get("existing") + " ms", groupTimes.get("existing") >= 400L);
+    }
+
+    /** @return an initialized, inactive sampler of the given threads, all running STACK. **/
+    private static ThreadsSampler createSampler(List<Thread> threads, Map<String, Long> groupTimes)
+    {
+        ThreadsSampler ts = SamplerFixture.createSampler(new FixedStackCapturer(() -> {
+            List<ThreadSnapshot> snapshots = new ArrayList<>();
+            for (Thread thread : threads) {
+                snapshots.add(new ThreadSnapshot(thread, STACK, Thread.State.RUNNABLE));
+            }
+            return snapshots;
+        }), new GroupTimeCollector(groupTimes));
+        ts.setSkipDaemonThreads(false);
+        ts.setActive(false);
+        ts.setThreadNameManipulator(new RegexThreadNameManipulator());
+        ts.init();
+        return ts;
+    }
+
+    private static class GroupTimeCollector extends NoOpOutputer
+    {
+        private final Map<String, Long> groupTimes;
+        private String aggregatedThreadName = null;
+
+        GroupTimeCollector(Map<String, Long> groupTimes) {
+            this.groupTimes = groupTimes;
+        }
+
+        public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+            this.aggregatedThreadName = aggregatedThreadName;
+        }
+
+        public void node(int depth, String frame, SampleCount count) {
+            if (depth == 0) {
+                groupTimes.merge(aggregatedThreadName, count.getCummulativeTime(), Long::sum);
+            }
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package com.imperva.sampler;
 
+import com.imperva.sampler.capture.ThreadMXBeanCapturer;
+import com.imperva.sampler.capture.ThreadSnapshot;
 import com.imperva.sampler.manipulate.RegexThreadNameManipulator;
+import com.imperva.sampler.outputer.FoldedStackSamplingOutputer;
 import com.imperva.sampler.outputer.PrintStreamSamplingOutputer;
+import com.imperva.sampler.outputer.SamplingOutputer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ThreadsSamplerTest
 {
@@ -47,6 +58,191 @@ public class ThreadsSamplerTest
         }
     }
 
+    @Test
+    public void testSelfMetricsAndAdaptiveSampling() throws InterruptedException, IOException
+    {
+        ThreadsSampler ts = new ThreadsSampler();
+        try
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(1L);
+            ts.setMaxSamplingFrequencyMillis(30L);
+            ts.setCpuBudgetPercent(0.00001);
+            ts.setActive(true);
+            ts.init();
+            Thread.sleep(200L);
+        }
+        finally {
+            ts.close();
+        }
+
+        SamplerMetrics metrics = ts.getMetrics();
+        Assert.assertTrue(metrics.getSamples() > 0L);
+        Assert.assertEquals(metrics.getSamples(), Arrays.stream(metrics.getLatencyHistogram()).sum());
+        Assert.assertTrue(metrics.getTotalThreads() > 0L);
+        Assert.assertTrue(metrics.getNodeCount() > 0);
+        Assert.assertEquals(1L, metrics.getReports());
+        // A budget of 0.00001% of a core cannot be met, so sampling backs off to the maximum period
+        Assert.assertEquals(30L, metrics.getSamplingFrequencyMillis());
+        Assert.assertTrue(metrics.getSamples() < 100L);
+    }
+
+    @Test
+    public void testThreadMXBeanCapturer() throws InterruptedException, IOException
+    {
+        ThreadMXBeanCapturer capturer = new ThreadMXBeanCapturer();
+        capturer.setMaxDepth(5);
+        capturer.init();
+        List<ThreadSnapshot> snapshots = capturer.capture(Collections.singletonList(Thread.currentThread()));
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertSame(Thread.currentThread(), snapshots.get(0).getThread());
+        Assert.assertEquals(5, snapshots.get(0).getStackTrace().length);
+        Assert.assertEquals(Thread.State.RUNNABLE, snapshots.get(0).getState());
+        Assert.assertTrue(capturer.capture(Collections.emptyList()).size() > 1);
+
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(20L);
+            ts.setActive(true);
+            ts.setStackCapturer(new ThreadMXBeanCapturer());
+            ts.init();
+            Thread.sleep(40L);
+        }
+    }
+
+    @Test
+    public void testCpuTimeAndThreadStates() throws InterruptedException, IOException
+    {
+        File reportFile = File.createTempFile("sampler", ".log");
+        reportFile.deleteOnExit();
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(10L);
+            ts.setActive(true);
+            ts.setThreadToBeSampled(Thread.currentThread());
+            ts.setMeasureCpuTime(true);
+            ts.setReportThreadStates(true);
+            ts.setSamplingOutputer(new PrintStreamSamplingOutputer(reportFile.getPath()));
+            ts.init();
+            new CpuBoundTask().call();
+        }
+
+        String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(report, report.contains("CPU(ms): "));
+        Assert.assertTrue(report, report.contains("Running: "));
+    }
+
+    @Test
+    public void testLockContention() throws InterruptedException, IOException
+    {
+        File reportFile = File.createTempFile("sampler", ".log");
+        reportFile.deleteOnExit();
+        Object monitor = new Object();
+        Thread waiter = new Thread(() -> { synchronized (monitor) { } }, "contention-waiter");
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(10L);
+            ts.setActive(true);
+            ts.setStackCapturer(new ThreadMXBeanCapturer());
+            ts.setSamplingOutputer(new PrintStreamSamplingOutputer(reportFile.getPath()));
+            synchronized (monitor)
+            {
+                waiter.start();
+                ts.init();
+                Thread.sleep(100L);
+            }
+            waiter.join();
+        }
+
+        String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(report, report.contains("Lock contention of aggregated thread: contention-waiter"));
+        Assert.assertTrue(report, report.contains("java.lang.Object@" + Integer.toHexString(System.identityHashCode(monitor)) + " Blocked time(ms): "));
+        Assert.assertTrue(report, report.contains("Owner: main at "));
+        // Blocked samples are weighted like the waiter's call tree, which also holds its samples after the lock is released
+        Matcher waiterTime = Pattern.compile("Aggregated thread: contention-waiter\\..*?\n.*?Cumulative time\\(ms\\): (\\d+)").matcher(report);
+        Matcher blockedTime = Pattern.compile(" Blocked time\\(ms\\): (\\d+)").matcher(report);
+        Assert.assertTrue(report, waiterTime.find() && blockedTime.find());
+        Assert.assertTrue(report, Long.parseLong(blockedTime.group(1)) <= Long.parseLong(waiterTime.group(1)));
+    }
+
+    @Test
+    public void testLegacyOutputer() throws InterruptedException, IOException
+    {
+        StringBuilder records = new StringBuilder();
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(10L);
+            ts.setActive(true);
+            ts.setThreadToBeSampled(Thread.currentThread());
+            ts.setSamplingOutputer(new SamplingOutputer() {
+                public void printIntervalTitle(String title) { records.append(title).append('\n'); }
+                public void printThreadRecord(String threadName, String record) { records.append(threadName).append('\n').append(record); }
+                public void printError(String message, Throwable t) { }
+                public void flush() { }
+                public void close() { }
+            });
+            ts.init();
+            Thread.sleep(50L);
+        }
+
+        Assert.assertTrue(records.toString(), records.toString().contains("Aggregated thread: main."));
+        Assert.assertTrue(records.toString(), records.toString().contains("java.lang.Thread.sleep(Native Method)"));
+    }
+
+    @Test
+    public void testDiffOutputer() throws InterruptedException, IOException
+    {
+        File foldedFile = File.createTempFile("sampler", ".folded");
+        foldedFile.deleteOnExit();
+        FoldedStackSamplingOutputer rejectedOutputer = new FoldedStackSamplingOutputer(foldedFile.getPath());
+        ThreadsSampler rejected = new ThreadsSampler();
+        rejected.setSamplingOutputer(rejectedOutputer);
+        rejected.setDiffTopMethods(5);
+        try {
+            rejected.init();
+            Assert.fail("Diff of a folded stack outputer is dropped");
+        } catch (IllegalStateException e) {
+        } finally {
+            // The sampler was not started, so it does not own the file
+            rejectedOutputer.close();
+        }
+
+        StringBuilder titles = new StringBuilder();
+        try (ThreadsSampler ts = new ThreadsSampler())
+        {
+            ts.setMonitoredPackages("com.imperva");
+            ts.setReportFrequencySeconds(0);
+            ts.setSamplingFrequencyMillis(10L);
+            ts.setActive(true);
+            ts.setThreadToBeSampled(Thread.currentThread());
+            ts.setSamplingOutputer(new FoldedStackSamplingOutputer(foldedFile.getPath()));
+            ts.setDiffTopMethods(5);
+            ts.setDiffOutputer(new SamplingOutputer() {
+                public void printIntervalTitle(String title) { titles.append(title).append('\n'); }
+                public void printThreadRecord(String threadName, String record) { }
+                public void printError(String message, Throwable t) { }
+                public void flush() { }
+                public void close() { }
+            });
+            ts.init();
+            for (int i = 0; i < 100 && titles.length() == 0; i++) {
+                Thread.sleep(20L);
+                ts.printReport();
+            }
+        }
+
+        Assert.assertTrue(titles.toString(), titles.toString().startsWith("Profile diff: from "));
+    }
+
     public static class CpuBoundTask implements Callable<Integer> {
         @Override
         public Integer call() {
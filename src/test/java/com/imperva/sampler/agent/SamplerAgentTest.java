@@ -0,0 +1,113 @@
+package com.imperva.sampler.agent;
+
+import com.imperva.sampler.ThreadsSampler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+public class SamplerAgentTest
+{
+    @Test
+    public void testPropertiesFileOverriddenByArguments() throws Exception
+    {
+        File file = File.createTempFile("sampler", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "samplingFrequencyMillis=20\nmonitoredPackages=com.acme.\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        Properties properties = SamplerAgent.parseArguments(file.getPath() + ";samplingFrequencyMillis=50");
+        Assert.assertEquals("50", properties.getProperty("samplingFrequencyMillis"));
+        Assert.assertEquals("com.acme.", properties.getProperty("monitoredPackages"));
+
+        ThreadsSampler ts = new ThreadsSampler();
+        SamplerAgent.configure(ts, properties);
+        Assert.assertEquals(50L, ts.getSamplingFrequencyMillis());
+        Assert.assertEquals("com.acme.", ts.getMonitoredPackages());
+    }
+
+    @Test
+    public void testSingleOutputDestination() throws Exception
+    {
+        File file = File.createTempFile("sampler", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "foldedFile=/tmp/samples.folded\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        // An argument replaces the properties file's destination
+        Properties properties = SamplerAgent.parseArguments(file.getPath() + ";collector=localhost:7391");
+        Assert.assertNull(properties.getProperty("foldedFile"));
+        Assert.assertEquals("localhost:7391", properties.getProperty("collector"));
+
+        try {
+            SamplerAgent.configure(new ThreadsSampler(), SamplerAgent.parseArguments("outputFile=/tmp/samples.log;collector=localhost:7391"));
+            Assert.fail("Two destinations configured");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Only one of [outputFile, collector] may be set", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLiveControlOverJmx() throws Exception
+    {
+        ThreadsSampler ts = SamplerAgent.start("monitoredPackages=com.acme.,org.acme.;samplingFrequencyMillis=50;reportFrequencySeconds=0;skipDaemonThreads=false;noSuchProperty=1");
+        try
+        {
+            Assert.assertNotNull(ts);
+            Assert.assertEquals("com.acme.,org.acme.", ts.getMonitoredPackages());
+            Assert.assertEquals(0L, ts.getReportFrequencySeconds());
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(SamplerAgent.OBJECT_NAME);
+            Assert.assertEquals(50L, server.getAttribute(objectName, "SamplingFrequencyMillis"));
+            server.setAttribute(objectName, new Attribute("SamplingFrequencyMillis", 10L));
+            server.setAttribute(objectName, new Attribute("MonitoredPackages", "com.imperva."));
+            Assert.assertEquals(10L, ts.getSamplingFrequencyMillis());
+            Assert.assertEquals("com.imperva.", ts.getMonitoredPackages());
+
+            server.invoke(objectName, "pauseSampling", null, null);
+            Assert.assertFalse(ts.isActive());
+            Assert.assertEquals(Boolean.FALSE, server.getAttribute(objectName, "Active"));
+            server.invoke(objectName, "resumeSampling", null, null);
+            Assert.assertTrue(ts.isActive());
+
+            // Attaching again replaces the sampler and its MBean
+            ThreadsSampler replacement = SamplerAgent.start("reportFrequencySeconds=0");
+            Assert.assertNotSame(ts, replacement);
+            Assert.assertTrue(server.isRegistered(objectName));
+        }
+        finally {
+            SamplerAgent.stop();
+        }
+
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(SamplerAgent.OBJECT_NAME)));
+    }
+
+    @Test
+    public void testFailedStartClosesSampler() throws Exception
+    {
+        // Another copy of the agent already registered the MBean name
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(SamplerAgent.OBJECT_NAME);
+        server.registerMBean(new StandardMBean(new Runnable() { public void run() {} }, Runnable.class), objectName);
+        try
+        {
+            long samplerThreads = countSamplerThreads();
+            Assert.assertNull(SamplerAgent.start("reportFrequencySeconds=0"));
+            Assert.assertEquals(samplerThreads, countSamplerThreads());
+        }
+        finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    private static long countSamplerThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals("Performance Sampler")).count();
+    }
+}
@@ -0,0 +1,183 @@
+package com.imperva.sampler.binary;
+
+import com.imperva.sampler.FrameTable;
+import com.imperva.sampler.IntervalMerger;
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SampleLogTest
+{
+    private static SamplingInterval createInterval(long startTime, int lines)
+    {
+        FrameTable frameTable = new FrameTable();
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        int runId = frameTable.getFrameId(new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10));
+        SampleCount worker = tgs.callTree.getOrCreateChild(runId);
+        for (int line = 0; line < lines; line++) {
+            SampleCount callee = worker.getOrCreateChild(frameTable.getFrameId(new StackTraceElement("com.imperva.Dao", "query", "Dao.java", line)));
+            callee.increment(100L, true, SampleState.BLOCKED, 3000000L);
+            worker.increment(100L, false, SampleState.BLOCKED, 3000000L);
+        }
+        tgs.threadNamesMap.put(1L, "worker-1");
+        tgs.maxDepth = 20;
+        tgs.foldedTime = 50L;
+        tgs.foldedNodes = 5;
+        LockContention contention = new LockContention("java.lang.Object", 1234, runId, SampleCount.ROOT_FRAME_ID);
+        contention.increment(100L, "owner-1");
+        tgs.contentionMap.put(contention, contention);
+        return new SamplingInterval(startTime, startTime + 1000L, Collections.singletonMap("worker-", tgs), frameTable.getFrameTexts());
+    }
+
+    private static File createDirectory() throws IOException
+    {
+        File directory = Files.createTempDirectory("sampler").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        File directory = createDirectory();
+        RollingSampleLogOutputer outputer = new RollingSampleLogOutputer(directory.getPath(), "test");
+        createInterval(1000L, 3).report(outputer, false);
+        createInterval(2000L, 3).report(outputer, false);
+        createInterval(3000L, 3).report(outputer, false);
+        outputer.close();
+
+        SampleLogReader reader = new SampleLogReader();
+        reader.setTimeRange(1500L, 2500L);
+        for (File file : directory.listFiles()) {
+            reader.read(file);
+            file.deleteOnExit();
+        }
+
+        SamplingInterval merged = reader.getMergedInterval();
+        Assert.assertEquals(1000L, merged.getStartTime());
+        Assert.assertEquals(3000L, merged.getEndTime());
+        ThreadGroupSamples tgs = merged.getThreadGroups().get("worker-");
+        Assert.assertEquals(20, tgs.maxDepth);
+        Assert.assertEquals("worker-1", tgs.threadNamesMap.get(1L));
+        Assert.assertEquals(100L, tgs.foldedTime);
+        Assert.assertEquals(10, tgs.foldedNodes);
+        SampleCount worker = tgs.callTree.getChildren()[0];
+        Assert.assertEquals("com.imperva.Worker.run(Worker.java:10)", merged.getFrameText(worker.getFrameId()));
+        Assert.assertEquals(600L, worker.getCummulativeTime());
+        Assert.assertEquals(0L, worker.getMethodTime());
+        Assert.assertEquals(600L, worker.getCummulativeTime(SampleState.BLOCKED));
+        Assert.assertEquals(18000000L, worker.getCummulativeCpuNanos());
+        Assert.assertEquals(3, worker.getChildCount());
+        for (SampleCount callee : worker.getChildren()) {
+            Assert.assertEquals(200L, callee.getCummulativeTime());
+            Assert.assertEquals(200L, callee.getMethodTime(SampleState.BLOCKED));
+            Assert.assertEquals(6000000L, callee.getMethodCpuNanos());
+        }
+
+        LockContention contention = tgs.contentionMap.values().iterator().next();
+        Assert.assertEquals(200L, contention.getBlockedTime());
+        Assert.assertEquals(2L, contention.getSamples());
+        Assert.assertEquals("owner-1", contention.getOwnerThreadName());
+        Assert.assertEquals(SampleCount.ROOT_FRAME_ID, contention.getOwnerFrameId());
+    }
+
+    @Test
+    public void testRollingFiles() throws IOException
+    {
+        File directory = createDirectory();
+        RollingSampleLogOutputer outputer = new RollingSampleLogOutputer(directory.getPath(), "test");
+        outputer.setMaxFileBytes(1024L);
+        outputer.setMaxFiles(3);
+        for (int i = 0; i < 10; i++) {
+            createInterval(i * 1000L, 10 + i).report(outputer, false);
+        }
+        outputer.close();
+
+        File[] files = directory.listFiles();
+        Assert.assertEquals(3, files.length);
+        SampleLogReader reader = new SampleLogReader();
+        for (File file : files) {
+            reader.read(file);
+            file.deleteOnExit();
+        }
+
+        SampleCount worker = reader.getMergedInterval().getThreadGroups().get("worker-").callTree.getChildren()[0];
+        Assert.assertEquals(19, worker.getChildCount());
+        Assert.assertEquals(100L * (17 + 18 + 19), worker.getCummulativeTime());
+    }
+
+    @Test
+    public void testRecordsAtBufferBoundary() throws IOException
+    {
+        SampleCount count = new SampleCount(0, 0);
+        count.increment(100L, true, SampleState.RUNNING, 0L);
+        for (int fillerLength = 65440; fillerLength < 65540; fillerLength++)
+        {
+            // The filler frame ends a few bytes before the initial buffer capacity, so the next record crosses it
+            char[] filler = new char[fillerLength];
+            Arrays.fill(filler, 'x');
+            SampleLogEncoder encoder = new SampleLogEncoder();
+            encoder.header();
+            encoder.frame(0, "com.imperva.Worker.run(Worker.java:10)");
+            encoder.beginInterval(1000L, 2000L);
+            encoder.beginThreadGroup("worker-", 1, Collections.singletonMap(1L, "worker-1"));
+            encoder.frame(1, new String(filler));
+            LockContention contention = new LockContention("java.lang.Object", 1234, 0, SampleCount.ROOT_FRAME_ID);
+            contention.increment(100L, "owner-1");
+            encoder.lockContention(contention, 0, SampleCount.ROOT_FRAME_ID);
+            encoder.frame(1, new String(filler));
+            encoder.node(0, 0, count);
+            encoder.endThreadGroup();
+            encoder.endInterval();
+            encoder.end();
+
+            IntervalMerger merger = new IntervalMerger();
+            ByteBuffer buffer = encoder.getBuffer();
+            SampleLogDecoder decoder = new SampleLogDecoder(new ByteArrayInputStream(buffer.array(), 0, buffer.position()), merger);
+            decoder.readHeader();
+            while (decoder.readInterval()) {
+            }
+            ThreadGroupSamples tgs = merger.toSamplingInterval().getThreadGroups().get("worker-");
+            Assert.assertEquals(100L, tgs.contentionMap.keySet().iterator().next().getBlockedTime());
+            Assert.assertEquals(1234, tgs.contentionMap.keySet().iterator().next().getLockIdentityHashCode());
+            Assert.assertEquals(100L, tgs.callTree.getChildren()[0].getCummulativeTime());
+        }
+    }
+
+    @Test
+    public void testBurstIntervalsSkippedByDefault() throws IOException
+    {
+        File directory = createDirectory();
+        RollingSampleLogOutputer outputer = new RollingSampleLogOutputer(directory.getPath(), "samples");
+        SamplingInterval regular = createInterval(1000L, 3);
+        SamplingInterval burst = new SamplingInterval(1200L, 1400L, regular.getThreadGroups(), new String[] {
+                regular.getFrameText(0), regular.getFrameText(1), regular.getFrameText(2), regular.getFrameText(3)}, "runnable threads 9 >= 8");
+        burst.report(outputer, false);
+        regular.report(outputer, false);
+        outputer.close();
+
+        SampleLogReader reader = new SampleLogReader();
+        reader.read(directory.listFiles()[0]);
+        SamplingInterval merged = reader.getMergedInterval();
+        Assert.assertEquals(1000L, merged.getStartTime());
+        Assert.assertEquals(300L, merged.getThreadGroups().get("worker-").callTree.getChildren()[0].getCummulativeTime());
+
+        SampleLogReader burstReader = new SampleLogReader();
+        burstReader.setBurstIntervals(true);
+        burstReader.read(directory.listFiles()[0]);
+        Assert.assertEquals(1200L, burstReader.getMergedInterval().getStartTime());
+        Assert.assertEquals(300L, burstReader.getMergedInterval().getThreadGroups().get("worker-").callTree.getChildren()[0].getCummulativeTime());
+    }
+}
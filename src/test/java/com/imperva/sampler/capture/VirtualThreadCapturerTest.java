@@ -0,0 +1,88 @@
+package com.imperva.sampler.capture;
+
+import com.imperva.sampler.SamplerFixture;
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.ThreadsSampler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class VirtualThreadCapturerTest
+{
+    private static final StackTraceElement[] STACK = {
+            new StackTraceElement("com.imperva.A", "a", "A.java", 1),
+            new StackTraceElement("com.imperva.Main", "main", "Main.java", 9)};
+
+    @Test
+    public void testPlatformThreadsAreNotRegistered()
+    {
+        VirtualThreadRegistry registry = new VirtualThreadRegistry();
+        Assert.assertFalse(VirtualThreadRegistry.isVirtual(Thread.currentThread()));
+        Assert.assertFalse(VirtualThreadRegistry.isCarrier(Thread.currentThread()));
+        registry.registerCurrentThread();
+        registry.decorate(Thread::new).newThread(() -> {});
+        Assert.assertEquals(0, registry.size());
+        Assert.assertTrue(registry.getLiveThreads().isEmpty());
+    }
+
+    @Test
+    public void testTerminatedThreadsPurgedWithoutSampling() throws Exception
+    {
+        // E.g. a thread per task executor while sampling is paused
+        VirtualThreadRegistry registry = new VirtualThreadRegistry();
+        for (int i = 0; i < 5000; i++) {
+            Thread thread = new Thread(() -> {});
+            thread.start();
+            thread.join();
+            registry.add(thread);
+        }
+        Assert.assertTrue(registry.size() + " threads", registry.size() <= 1025);
+    }
+
+    @Test
+    public void testVirtualAndCarrierThreadsAggregation() throws Exception
+    {
+        // Virtual threads and carriers are unnamed or named daemon threads
+        Thread unnamed = new Thread(() -> {}, "");
+        unnamed.setDaemon(true);
+        Thread carrier = new Thread(() -> {}, "ForkJoinPool-1-worker-1");
+        carrier.setDaemon(true);
+        Thread daemon = new Thread(() -> {}, "daemon");
+        daemon.setDaemon(true);
+
+        List<String> groups = new CopyOnWriteArrayList<>();
+        StackCapturer capturer = new FixedStackCapturer(() -> Arrays.asList(
+                new ThreadSnapshot(new ThreadSnapshot(unnamed, STACK, Thread.State.RUNNABLE), ThreadSnapshot.Kind.VIRTUAL),
+                new ThreadSnapshot(new ThreadSnapshot(carrier, STACK, Thread.State.RUNNABLE), ThreadSnapshot.Kind.CARRIER),
+                new ThreadSnapshot(daemon, STACK, Thread.State.RUNNABLE)));
+        try (ThreadsSampler ts = SamplerFixture.createSampler(capturer, new GroupCollector(groups)))
+        {
+            ts.setSamplingFrequencyMillis(5L);
+            ts.setSkipDaemonThreads(true);
+            ts.setActive(true);
+            ts.init();
+            Thread.sleep(50L);
+        }
+
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("Carrier: ForkJoinPool--worker-", "Virtual threads")), new TreeSet<>(groups));
+    }
+
+    private static class GroupCollector extends NoOpOutputer
+    {
+        private final List<String> groups;
+
+        GroupCollector(List<String> groups) {
+            this.groups = groups;
+        }
+
+        public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+            groups.add(aggregatedThreadName);
+        }
+    }
+}
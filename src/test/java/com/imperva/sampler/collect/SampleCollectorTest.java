@@ -0,0 +1,212 @@
+package com.imperva.sampler.collect;
+
+import com.imperva.sampler.FrameTable;
+import com.imperva.sampler.LockContention;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SampleCollectorTest
+{
+    /** @return an interval of a single worker thread calling the given Dao lines, 100ms each. **/
+    private static SamplingInterval createInterval(long startTime, String threadName, int... lines)
+    {
+        FrameTable frameTable = new FrameTable();
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        int runId = frameTable.getFrameId(new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10));
+        SampleCount worker = tgs.callTree.getOrCreateChild(runId);
+        for (int line : lines) {
+            SampleCount callee = worker.getOrCreateChild(frameTable.getFrameId(new StackTraceElement("com.imperva.Dao", "query", "Dao.java", line)));
+            callee.increment(100L, true, SampleState.RUNNING, 0L);
+            worker.increment(100L, false, SampleState.RUNNING, 0L);
+        }
+        tgs.threadNamesMap.put((long) threadName.hashCode(), threadName);
+        tgs.maxDepth = 2;
+        LockContention contention = new LockContention("java.lang.Object", 1234, runId, SampleCount.ROOT_FRAME_ID);
+        contention.increment(100L, "owner-1");
+        tgs.contentionMap.put(contention, contention);
+        return new SamplingInterval(startTime, startTime + 1000L, Collections.singletonMap("worker-", tgs), frameTable.getFrameTexts());
+    }
+
+    @Test
+    public void testSnapshotsMergeInAnyOrder() throws Exception
+    {
+        SamplingInterval a = createInterval(1000L, "worker-1", 1, 2);
+        SamplingInterval b = createInterval(2000L, "worker-2", 2, 3);
+        SamplingInterval c = createInterval(3000L, "worker-3", 3, 3, 4);
+
+        SampleCollector inOrder = new SampleCollector(0);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (SamplingInterval interval : new SamplingInterval[] {a, b, c}) {
+            stream.write(SnapshotEncoder.encode(interval));
+        }
+        Assert.assertEquals(3, inOrder.merge(new ByteArrayInputStream(stream.toByteArray())));
+
+        // Merge (c + a) first, as a collector of collectors would, and then b
+        SampleCollector partial = new SampleCollector(0);
+        partial.merge(new ByteArrayInputStream(SnapshotEncoder.encode(c)));
+        partial.merge(new ByteArrayInputStream(SnapshotEncoder.encode(a)));
+        SampleCollector reordered = new SampleCollector(0);
+        reordered.merge(new ByteArrayInputStream(SnapshotEncoder.encode(b)));
+        reordered.merge(new ByteArrayInputStream(SnapshotEncoder.encode(partial.takeInterval())));
+
+        SamplingInterval merged = inOrder.takeInterval();
+        Map<String, Long> pathTimes = getPathTimes(merged);
+        Assert.assertEquals(pathTimes, getPathTimes(reordered.takeInterval()));
+        Assert.assertEquals(700L, (long) pathTimes.get("worker-;com.imperva.Worker.run(Worker.java:10)"));
+        Assert.assertEquals(300L, (long) pathTimes.get("worker-;com.imperva.Worker.run(Worker.java:10);com.imperva.Dao.query(Dao.java:3)"));
+        Assert.assertEquals(300L, (long) pathTimes.get("worker-;lock"));
+        Assert.assertEquals(1000L, merged.getStartTime());
+        Assert.assertEquals(4000L, merged.getEndTime());
+        Assert.assertEquals(3, merged.getThreadGroups().get("worker-").threadNamesMap.size());
+        Assert.assertNull(inOrder.takeInterval());
+        inOrder.close();
+        partial.close();
+        reordered.close();
+    }
+
+    @Test
+    public void testMergedNodesBounded() throws Exception
+    {
+        SampleCollector collector = new SampleCollector(0);
+        collector.setMaxNodes(40);
+        for (int i = 0; i < 50; i++) {
+            collector.merge(new ByteArrayInputStream(SnapshotEncoder.encode(createInterval(i * 1000L, "worker-1", i, i))));
+        }
+
+        SamplingInterval merged = collector.takeInterval();
+        ThreadGroupSamples tgs = merged.getThreadGroups().get("worker-");
+        // Ties are folded only as needed, so the trees are not collapsed far below the budget
+        Assert.assertTrue(tgs.callTree.getNodeCount() - 1 + " nodes", tgs.callTree.getNodeCount() - 1 <= 40);
+        Assert.assertTrue(tgs.callTree.getNodeCount() - 1 + " nodes", tgs.callTree.getNodeCount() - 1 >= 30);
+        Assert.assertTrue(tgs.foldedNodes > 0);
+        // Folded methods are accounted in their callers' time, so no time is lost
+        Assert.assertEquals(50 * 200L, (long) getPathTimes(merged).get("worker-;com.imperva.Worker.run(Worker.java:10)"));
+        collector.close();
+    }
+
+    @Test
+    public void testCollectsFromSamplersOverLoopback() throws Exception
+    {
+        List<String> titles = new ArrayList<>();
+        SampleCollector collector = new SampleCollector(0);
+        collector.setReportFrequencySeconds(0);
+        collector.setSamplingOutputer(new PathTimeCollector(new TreeMap<>(), titles));
+        collector.start();
+
+        CollectorSamplingOutputer first = new CollectorSamplingOutputer("localhost:" + collector.getPort());
+        CollectorSamplingOutputer second = new CollectorSamplingOutputer("localhost", collector.getPort());
+        createInterval(1000L, "worker-1", 1).report(first, false);
+        createInterval(1000L, "worker-2", 1).report(second, false);
+        createInterval(2000L, "worker-1", 2).report(first, false);
+        for (int i = 0; i < 500 && collector.getMergedSnapshots() < 3; i++) {
+            Thread.sleep(10L);
+        }
+        first.close();
+        second.close();
+
+        Assert.assertEquals(3, collector.getMergedSnapshots());
+        collector.printReport();
+        Assert.assertEquals(1, titles.size());
+        Assert.assertTrue(titles.get(0), titles.get(0).endsWith("Merged 3 snapshots"));
+        collector.close();
+    }
+
+    @Test
+    public void testUnavailableCollectorDropsSnapshots() throws Exception
+    {
+        SampleCollector collector = new SampleCollector(0);
+        int port = collector.getPort();
+        collector.close();
+
+        CollectorSamplingOutputer outputer = new CollectorSamplingOutputer("localhost", port) {
+            @Override
+            public void printError(String message, Throwable t) {}
+        };
+        createInterval(1000L, "worker-1", 1).report(outputer, false);
+        outputer.close();
+    }
+
+    @Test
+    public void testStalledCollectorDropsSnapshots() throws Exception
+    {
+        // Accepts connections but never reads, so sends block once the socket buffers are full
+        try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            CollectorSamplingOutputer outputer = new CollectorSamplingOutputer("localhost", stalled.getLocalPort()) {
+                @Override
+                public void printError(String message, Throwable t) {}
+            };
+            outputer.setSendQueueCapacity(2);
+            char[] longName = new char[64 * 1024];
+            Arrays.fill(longName, 'x');
+            int[] lines = new int[100];
+            Arrays.fill(lines, 1);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 2000 && outputer.getDroppedSnapshots() == 0; i++) {
+                createInterval(i * 1000L, new String(longName) + i, lines).report(outputer, false);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            outputer.close();
+
+            Assert.assertTrue(outputer.getDroppedSnapshots() > 0);
+            Assert.assertTrue(elapsed + "ms", elapsed < 30000L);
+        }
+    }
+
+    /** @return cumulative time per aggregated thread and call path, and blocked time per aggregated thread. **/
+    private static Map<String, Long> getPathTimes(SamplingInterval interval)
+    {
+        Map<String, Long> pathTimes = new TreeMap<>();
+        interval.report(new PathTimeCollector(pathTimes, new ArrayList<>()), false);
+        return pathTimes;
+    }
+
+    private static class PathTimeCollector extends NoOpOutputer
+    {
+        private final Map<String, Long> pathTimes;
+        private final List<String> titles;
+        private final List<String> path = new ArrayList<>();
+
+        PathTimeCollector(Map<String, Long> pathTimes, List<String> titles) {
+            this.pathTimes = pathTimes;
+            this.titles = titles;
+        }
+
+        public void beginThreadGroup(String aggregatedThreadName, int maxDepth, Map<Long, String> threadNames) {
+            path.clear();
+            path.add(aggregatedThreadName);
+        }
+
+        public void node(int depth, String frame, SampleCount count) {
+            while (path.size() > depth + 1) {
+                path.remove(path.size() - 1);
+            }
+            path.add(frame);
+            pathTimes.merge(String.join(";", path), count.getCummulativeTime(), Long::sum);
+        }
+
+        public void lockContention(LockContention contention, String waitingFrame, String ownerFrame) {
+            pathTimes.merge(path.get(0) + ";lock", contention.getBlockedTime(), Long::sum);
+        }
+
+        public void printIntervalTitle(String title) {
+            titles.add(title);
+        }
+    }
+}
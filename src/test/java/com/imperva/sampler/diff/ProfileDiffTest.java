@@ -0,0 +1,73 @@
+package com.imperva.sampler.diff;
+
+import com.imperva.sampler.SamplingInterval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+public class ProfileDiffTest
+{
+    private static SamplingInterval read(String... lines)
+    {
+        FoldedStackReader reader = new FoldedStackReader();
+        reader.setThreadNameRootFrame(true);
+        for (String line : lines) {
+            reader.readLine(line);
+        }
+        return reader.getInterval();
+    }
+
+    @Test
+    public void testReadFolded()
+    {
+        SamplingInterval interval = read("http-;Main.main;Dao.query 30", "http-;Main.main;Json.write 10", "http-;Main.main 10", "malformed");
+        Assert.assertEquals(1, interval.getThreadGroups().size());
+        Assert.assertEquals(3, interval.getThreadGroups().get("http-").nodeCount);
+        Assert.assertEquals(50L, interval.getThreadGroups().get("http-").callTree.getChildren()[0].getCummulativeTime());
+        Assert.assertEquals(10L, interval.getThreadGroups().get("http-").callTree.getChildren()[0].getMethodTime());
+    }
+
+    @Test
+    public void testNormalizedRegressionsAndImprovements()
+    {
+        // Twice the samples after, with Dao.query growing from 25% to 50% of the time
+        SamplingInterval before = read("http-;Main.main;Dao.query 25", "http-;Main.main;Json.write 75");
+        SamplingInterval after = read("http-;Main.main;Dao.query 100", "http-;Main.main;Json.write 100");
+        ProfileDiff diff = new ProfileDiff(before, after);
+
+        List<ProfileDiff.MethodDelta> regressions = diff.getRegressions("http-", 10);
+        Assert.assertEquals(1, regressions.size());
+        Assert.assertEquals("Dao.query", regressions.get(0).getFrame());
+        Assert.assertEquals(0.25, regressions.get(0).getShareDelta(), 1e-9);
+        Assert.assertEquals(25L, regressions.get(0).getBeforeTime());
+        Assert.assertEquals(100L, regressions.get(0).getAfterTime());
+
+        List<ProfileDiff.MethodDelta> improvements = diff.getImprovements("http-", 10);
+        Assert.assertEquals(1, improvements.size());
+        Assert.assertEquals("Json.write", improvements.get(0).getFrame());
+        Assert.assertEquals(-0.25, improvements.get(0).getShareDelta(), 1e-9);
+    }
+
+    @Test
+    public void testRecursionCountedOnce()
+    {
+        SamplingInterval before = read("http-;Main.main;Parser.parse;Parser.parse 10", "http-;Main.main;Idle.wait 10");
+        SamplingInterval after = read("http-;Main.main;Parser.parse;Parser.parse 20");
+        List<ProfileDiff.MethodDelta> regressions = new ProfileDiff(before, after).getRegressions("http-", 10);
+        Assert.assertEquals(1, regressions.size());
+        Assert.assertEquals(10L, regressions.get(0).getBeforeTime());
+        Assert.assertEquals(1.0, regressions.get(0).getAfterShare(), 1e-9);
+    }
+
+    @Test
+    public void testDifferentialFolded() throws Exception
+    {
+        SamplingInterval before = read("http-;Main.main;Dao.query 25", "http-;Main.main;Json.write 75");
+        SamplingInterval after = read("http-;Main.main;Dao.query 100", "http-;Main.main;Json.write 100");
+        StringWriter out = new StringWriter();
+        new ProfileDiff(before, after).writeFolded(out, true);
+        Assert.assertEquals("http-;Main.main;Dao.query 50 100\nhttp-;Main.main;Json.write 150 100\n", out.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package com.imperva.sampler.manipulate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingThreadNameManipulatorTest
+{
+    @Test
+    public void testCacheUntilRenamed()
+    {
+        AtomicInteger invocations = new AtomicInteger();
+        CachingThreadNameManipulator manipulator = new CachingThreadNameManipulator(new ThreadNameManipulator() {
+            public String getManipulatedThreadName(Thread thread) {
+                invocations.incrementAndGet();
+                return thread.getName().startsWith("skip") ? null : thread.getName().replaceAll("\\d+", "");
+            }
+            public void init() {}
+        });
+        manipulator.init();
+
+        Thread worker = new Thread("worker-1");
+        Thread skipped = new Thread("skip-1");
+        Assert.assertEquals("worker-", manipulator.getManipulatedThreadName(worker));
+        Assert.assertEquals("worker-", manipulator.getManipulatedThreadName(worker));
+        Assert.assertNull(manipulator.getManipulatedThreadName(skipped));
+        Assert.assertNull(manipulator.getManipulatedThreadName(skipped));
+        Assert.assertEquals(2, invocations.get());
+        Assert.assertEquals(2L, manipulator.getHits());
+
+        worker.setName("reader-2");
+        Assert.assertEquals("reader-", manipulator.getManipulatedThreadName(worker));
+        Assert.assertEquals(3, invocations.get());
+        Assert.assertEquals(2, manipulator.size());
+    }
+
+    @Test
+    public void testPurgeTerminatedThreads() throws InterruptedException
+    {
+        CachingThreadNameManipulator manipulator = new CachingThreadNameManipulator(new RegexThreadNameManipulator());
+        manipulator.init();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Thread thread = new Thread(() -> {}, "pool-" + i);
+            thread.start();
+            thread.join();
+            threads.add(thread);
+            Assert.assertEquals("pool-", manipulator.getManipulatedThreadName(thread));
+        }
+
+        Assert.assertTrue(manipulator.size() < 256);
+    }
+}
@@ -0,0 +1,106 @@
+package com.imperva.sampler.manipulate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TagThreadNameManipulatorTest
+{
+    @Test
+    public void testAggregateByTags()
+    {
+        ThreadTagRegistry registry = new ThreadTagRegistry("endpoint", "tenant", "operation");
+        TagThreadNameManipulator manipulator = new TagThreadNameManipulator(registry, "endpoint", "tenant");
+        manipulator.init();
+        Thread current = Thread.currentThread();
+        String threadName = current.getName();
+        try
+        {
+            current.setName("http-nio-exec-12");
+            Assert.assertEquals("http-nio-exec-", manipulator.getManipulatedThreadName(current));
+
+            registry.setTag("endpoint", "/login");
+            registry.setTag("operation", "ignored");
+            // A newly registered thread is looked up from the next sample on
+            Assert.assertEquals("http-nio-exec-", manipulator.getManipulatedThreadName(current));
+            manipulator.beginSample();
+            Assert.assertEquals("endpoint=/login", manipulator.getManipulatedThreadName(current));
+            registry.setTag("tenant", "acme");
+            String name = manipulator.getManipulatedThreadName(current);
+            Assert.assertEquals("endpoint=/login, tenant=acme", name);
+            Assert.assertSame(name, manipulator.getManipulatedThreadName(current));
+
+            manipulator.setPrefixThreadName(true);
+            Assert.assertEquals("http-nio-exec- endpoint=/login, tenant=acme", manipulator.getManipulatedThreadName(current));
+
+            registry.clearTags();
+            Assert.assertEquals("http-nio-exec-", manipulator.getManipulatedThreadName(current));
+            Assert.assertEquals(1, registry.size());
+        }
+        finally {
+            registry.clearTags();
+            current.setName(threadName);
+        }
+    }
+
+    @Test
+    public void testMapBasedManipulator() throws InterruptedException
+    {
+        MapBasedThreadNameManipulator manipulator = new MapBasedThreadNameManipulator();
+        manipulator.init();
+        CountDownLatch mapped = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Thread> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            other.set(Thread.currentThread());
+            manipulator.mapCurrentThread("/checkout");
+            mapped.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {}
+        });
+        thread.start();
+        mapped.await();
+
+        manipulator.beginSample();
+        Assert.assertEquals("/checkout", manipulator.getManipulatedThreadName(thread));
+        Assert.assertNull(manipulator.getManipulatedThreadName(Thread.currentThread()));
+        Assert.assertEquals(1, manipulator.getMappingsCount());
+        manipulator.mapCurrentThread("/cart");
+        manipulator.beginSample();
+        Assert.assertEquals("/cart", manipulator.getManipulatedThreadName(Thread.currentThread()));
+        Assert.assertEquals(2, manipulator.getMappingsCount());
+        manipulator.unmapCurrentThread();
+        Assert.assertNull(manipulator.getManipulatedThreadName(Thread.currentThread()));
+        Assert.assertEquals(1, manipulator.getMappingsCount());
+        done.countDown();
+        thread.join();
+    }
+
+    @Test
+    public void testConcurrentRegistrationAndPurge() throws InterruptedException
+    {
+        ThreadTagRegistry registry = new ThreadTagRegistry("endpoint");
+        Thread[] threads = new Thread[64];
+        for (int i = 0; i < threads.length; i++) {
+            String endpoint = "/e" + i;
+            threads[i] = new Thread(() -> registry.setTag(0, endpoint));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(registry.drainRegistrations());
+        Assert.assertFalse(registry.drainRegistrations());
+        for (int i = 0; i < threads.length; i++) {
+            Assert.assertEquals("/e" + i, registry.getThreadTags(threads[i]).getTag(0));
+        }
+        Assert.assertEquals(threads.length, registry.getTaggedCount(0));
+        registry.purge();
+        Assert.assertEquals(0, registry.size());
+        Assert.assertNull(registry.getThreadTags(threads[0]));
+    }
+}
@@ -0,0 +1,85 @@
+package com.imperva.sampler.outputer;
+
+import com.imperva.sampler.FrameTable;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+public class FoldedStackSamplingOutputerTest
+{
+    private static final StackTraceElement run = new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10);
+    private static final StackTraceElement query = new StackTraceElement("com.imperva.Dao", "query", "Dao.java", 20);
+    private static final StackTraceElement parse = new StackTraceElement("com.imperva.Parser", "parse", "Parser.java", 30);
+
+    private static SamplingInterval createInterval()
+    {
+        return createInterval(0L, 1000L, null);
+    }
+
+    private static SamplingInterval createInterval(long startTime, long endTime, String burstReason)
+    {
+        FrameTable frameTable = new FrameTable();
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        SampleCount worker = tgs.callTree.getOrCreateChild(frameTable.getFrameId(run));
+        worker.increment(150L, false, SampleState.RUNNING, 0L);
+        worker.getOrCreateChild(frameTable.getFrameId(query)).increment(100L, true, SampleState.WAITING, 0L);
+        worker.getOrCreateChild(frameTable.getFrameId(parse)).increment(50L, true, SampleState.RUNNING, 0L);
+        tgs.threadNamesMap.put(1L, "worker-1");
+        return new SamplingInterval(startTime, endTime, Collections.singletonMap("worker-", tgs), frameTable.getFrameTexts(), burstReason);
+    }
+
+    @Test
+    public void testWallTime() throws IOException
+    {
+        File foldedFile = File.createTempFile("sampler", ".folded");
+        foldedFile.deleteOnExit();
+        FoldedStackSamplingOutputer outputer = new FoldedStackSamplingOutputer(foldedFile.getPath());
+        createInterval().report(outputer, false);
+        outputer.close();
+
+        List<String> lines = Files.readAllLines(foldedFile.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("com.imperva.Worker.run(Worker.java:10);com.imperva.Dao.query(Dao.java:20) 100", lines.get(0));
+        Assert.assertEquals("com.imperva.Worker.run(Worker.java:10);com.imperva.Parser.parse(Parser.java:30) 50", lines.get(1));
+    }
+
+    @Test
+    public void testBurstIntervalSkipped() throws IOException
+    {
+        File foldedFile = File.createTempFile("sampler", ".folded");
+        foldedFile.deleteOnExit();
+        FoldedStackSamplingOutputer outputer = new FoldedStackSamplingOutputer(foldedFile.getPath());
+        createInterval(200L, 400L, "test trigger").report(outputer, false);
+        createInterval().report(outputer, false);
+        outputer.close();
+
+        List<String> lines = Files.readAllLines(foldedFile.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("com.imperva.Worker.run(Worker.java:10);com.imperva.Dao.query(Dao.java:20) 100", lines.get(0));
+    }
+
+    @Test
+    public void testStateValueAndThreadNameRoot() throws IOException
+    {
+        File foldedFile = File.createTempFile("sampler", ".folded");
+        foldedFile.deleteOnExit();
+        FoldedStackSamplingOutputer outputer = new FoldedStackSamplingOutputer(foldedFile.getPath());
+        outputer.setFoldedValue(FoldedStackSamplingOutputer.FoldedValue.RUNNING);
+        outputer.setThreadNameRootFrame(true);
+        createInterval().report(outputer, false);
+        outputer.close();
+
+        List<String> lines = Files.readAllLines(foldedFile.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Collections.singletonList("worker-;com.imperva.Worker.run(Worker.java:10);com.imperva.Parser.parse(Parser.java:30) 50"), lines);
+    }
+}
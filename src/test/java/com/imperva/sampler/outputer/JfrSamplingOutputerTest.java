@@ -0,0 +1,48 @@
+package com.imperva.sampler.outputer;
+
+import com.imperva.sampler.FrameTable;
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SampleState;
+import com.imperva.sampler.SamplingInterval;
+import com.imperva.sampler.ThreadGroupSamples;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class JfrSamplingOutputerTest
+{
+    @Test
+    public void testRecording() throws IOException
+    {
+        FrameTable frameTable = new FrameTable();
+        ThreadGroupSamples tgs = new ThreadGroupSamples();
+        SampleCount worker = tgs.callTree.getOrCreateChild(frameTable.getFrameId(new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10)));
+        worker.increment(150L, false, SampleState.RUNNING, 0L);
+        worker.getOrCreateChild(frameTable.getFrameId(new StackTraceElement("com.imperva.Dao", "query", "Dao.java", 20))).increment(100L, true, SampleState.WAITING, 0L);
+        SamplingInterval interval = new SamplingInterval(0L, 1000L, Collections.singletonMap("worker-", tgs), frameTable.getFrameTexts());
+
+        File jfrFile = File.createTempFile("sampler", ".jfr");
+        jfrFile.deleteOnExit();
+        JfrSamplingOutputer outputer = new JfrSamplingOutputer(jfrFile.getPath());
+        interval.report(outputer, false);
+        outputer.close();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfrFile.toPath()).stream().
+                filter(e -> e.getEventType().getName().equals("com.imperva.sampler.SampledMethod")).collect(Collectors.toList());
+        Assert.assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        Assert.assertEquals("worker-", event.getString("aggregatedThread"));
+        Assert.assertEquals("com.imperva.Worker.run(Worker.java:10);com.imperva.Dao.query(Dao.java:20)", event.getString("stack"));
+        Assert.assertEquals(1, event.getInt("depth"));
+        Assert.assertEquals(Duration.ofMillis(100L), event.getDuration("methodTime"));
+        Assert.assertEquals(Duration.ofMillis(100L), event.getDuration("waitingTime"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.imperva.sampler.schedule;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SamplingSchedulerTest
+{
+    private static final long samplingPeriodMillis = 100L;
+
+    /**
+     * Sample a simulated periodic workload, which runs method A during the first activeMillis of every
+     * workloadPeriodMillis and method B otherwise, weighting each sample by the time since the previous one.
+     * @return estimated share of A minus its true share.<br>**/
+    private static double aliasingError(SamplingScheduler scheduler, long workloadPeriodMillis, long activeMillis)
+    {
+        long time = 5L;
+        long activeTime = 0L;
+        long totalTime = 0L;
+        for (int i = 0; i < 20000; i++)
+        {
+            long delay = scheduler.nextDelayMillis(samplingPeriodMillis);
+            time += delay;
+            totalTime += delay;
+            if (time % workloadPeriodMillis < activeMillis) {
+                activeTime += delay;
+            }
+        }
+
+        return (double) activeTime / totalTime - (double) activeMillis / workloadPeriodMillis;
+    }
+
+    @Test
+    public void testFixedPeriodAliases()
+    {
+        // Always sampled 5ms into a 100ms timer's cycle, so A seems to take all the time
+        Assert.assertEquals(0.8, aliasingError(new FixedSamplingScheduler(), 100L, 20L), 1e-9);
+        // A 50ms timer aliases just as well, as the period is its multiple
+        Assert.assertEquals(0.8, aliasingError(new FixedSamplingScheduler(), 50L, 10L), 1e-9);
+        // The samples drift through the phases of a 37ms timer, so a fixed period is fine then
+        Assert.assertEquals(0.0, aliasingError(new FixedSamplingScheduler(), 37L, 7L), 0.02);
+    }
+
+    @Test
+    public void testRandomizedSchedulersDoNotAlias()
+    {
+        for (long workloadPeriodMillis : new long[] {50L, 100L, 300L})
+        {
+            long activeMillis = workloadPeriodMillis / 5;
+            Assert.assertEquals(0.0, aliasingError(new PoissonSamplingScheduler(new Random(1L)), workloadPeriodMillis, activeMillis), 0.02);
+            Assert.assertEquals(0.0, aliasingError(new JitteredSamplingScheduler(0.5, new Random(1L)), workloadPeriodMillis, activeMillis), 0.02);
+        }
+    }
+
+    @Test
+    public void testMeanDelay()
+    {
+        PoissonSamplingScheduler poisson = new PoissonSamplingScheduler(new Random(2L));
+        JitteredSamplingScheduler jittered = new JitteredSamplingScheduler(0.5, new Random(2L));
+        long poissonTotal = 0L;
+        long jitteredTotal = 0L;
+        for (int i = 0; i < 10000; i++)
+        {
+            long jitteredDelay = jittered.nextDelayMillis(samplingPeriodMillis);
+            Assert.assertTrue(jitteredDelay >= 50L && jitteredDelay <= 150L);
+            jitteredTotal += jitteredDelay;
+            long poissonDelay = poisson.nextDelayMillis(samplingPeriodMillis);
+            Assert.assertTrue(poissonDelay >= 0L && poissonDelay <= 800L);
+            poissonTotal += poissonDelay;
+        }
+        Assert.assertEquals(100.0, jitteredTotal / 10000.0, 2.0);
+        Assert.assertEquals(100.0, poissonTotal / 10000.0, 3.0);
+    }
+}
@@ -0,0 +1,122 @@
+package com.imperva.sampler.trigger;
+
+import com.imperva.sampler.SampleCount;
+import com.imperva.sampler.SamplerFixture;
+import com.imperva.sampler.SamplerFixture.FixedStackCapturer;
+import com.imperva.sampler.SamplerFixture.NoOpOutputer;
+import com.imperva.sampler.ThreadsSampler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class BurstTriggerTest
+{
+    private static final StackTraceElement[] STACK = {
+            new StackTraceElement("com.imperva.Dao", "query", "Dao.java", 5),
+            new StackTraceElement("com.imperva.Worker", "run", "Worker.java", 10)};
+
+    @Test
+    public void testThresholds()
+    {
+        Assert.assertNull(new RunnableThreadsTrigger(4).check(3));
+        Assert.assertEquals("runnable threads 4 >= 4", new RunnableThreadsTrigger(4).check(4));
+        Assert.assertNull(new GaugeTrigger("p99 latency", () -> 10.0, 100.0).check(0));
+        Assert.assertEquals("p99 latency 200.0 >= 100.0", new GaugeTrigger("p99 latency", () -> 200.0, 100.0).check(0));
+        Assert.assertNull(new ProcessCpuTrigger(101.0).check(0));
+    }
+
+    @Test
+    public void testBurstReportedSeparatelyAndAddedToRegularInterval() throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        List<String> events = new CopyOnWriteArrayList<>();
+        long startTime = System.currentTimeMillis();
+        try (ThreadsSampler ts = SamplerFixture.createSampler(new FixedStackCapturer(thread, STACK), new EventCollector(events)))
+        {
+            ts.setSamplingFrequencyMillis(50L);
+            ts.setBurstSamplingFrequencyMillis(5L);
+            ts.setBurstDurationMillis(200L);
+            ts.setBurstCooldownMillis(60000L);
+            ts.addBurstTrigger(new RunnableThreadsTrigger(1));
+            ts.init();
+            Thread.sleep(500L);
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        // A single burst within the cooldown, followed by the regular interval on close
+        Assert.assertEquals(2, events.size());
+        Assert.assertTrue(events.get(0), events.get(0).startsWith("Burst interval: from "));
+        Assert.assertTrue(events.get(0), events.get(0).contains("Triggered by runnable threads 1 >= 1. Time: "));
+        long burstTime = Long.parseLong(events.get(0).substring(events.get(0).lastIndexOf(' ') + 1));
+        long regularTime = Long.parseLong(events.get(1).substring(events.get(1).lastIndexOf(' ') + 1));
+        Assert.assertTrue(burstTime + " ms in burst", burstTime >= 150L && burstTime <= 300L);
+        Assert.assertTrue(regularTime + " ms in " + elapsedTime, regularTime > burstTime && regularTime <= elapsedTime + 100L);
+    }
+
+    @Test
+    public void testFrequencySetDuringBurstAppliesAfterIt() throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        List<String> events = new CopyOnWriteArrayList<>();
+        try (ThreadsSampler ts = SamplerFixture.createSampler(new FixedStackCapturer(thread, STACK), new EventCollector(events)))
+        {
+            ts.setSamplingFrequencyMillis(50L);
+            ts.setBurstSamplingFrequencyMillis(5L);
+            ts.setBurstDurationMillis(300L);
+            ts.setBurstCooldownMillis(60000L);
+            ts.addBurstTrigger(new RunnableThreadsTrigger(1));
+            ts.init();
+            for (int i = 0; i < 100 && ts.getMetrics().getSamplingFrequencyMillis() != 5L; i++) {
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(5L, ts.getMetrics().getSamplingFrequencyMillis());
+
+            // E.g. set over JMX during an incident. The burst keeps its frequency
+            ts.setSamplingFrequencyMillis(20L);
+            Assert.assertEquals(20L, ts.getSamplingFrequencyMillis());
+            Assert.assertTrue(events.isEmpty());
+            for (int i = 0; i < 100 && events.isEmpty(); i++) {
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals(20L, ts.getMetrics().getSamplingFrequencyMillis());
+        }
+    }
+
+    private static class EventCollector extends NoOpOutputer
+    {
+        private final List<String> events;
+        private String title = "";
+        private long rootTime = 0L;
+
+        EventCollector(List<String> events) {
+            this.events = events;
+        }
+
+        public void printIntervalTitle(String title) {
+            this.title = title;
+        }
+
+        public void beginInterval(long startTime, long endTime) {
+            rootTime = 0L;
+        }
+
+        public void beginBurstInterval(long startTime, long endTime, String reason) {
+            title = "Burst interval: from " + startTime + " till " + endTime + ". Triggered by " + reason;
+            rootTime = 0L;
+        }
+
+        public void node(int depth, String frame, SampleCount count) {
+            if (depth == 0) {
+                rootTime += count.getCummulativeTime();
+            }
+        }
+
+        public void endInterval() {
+            events.add(title + ". Time: " + rootTime);
+            title = "";
+        }
+    }
+}